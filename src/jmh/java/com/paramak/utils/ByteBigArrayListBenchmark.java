@@ -0,0 +1,142 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// single byte and handle sized access to a filled list, and appends. scores are per byte or per value
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ByteBigArrayListBenchmark {
+	private static final int Batch = 4096;
+	private static final long AppendLimit = 256L << 20; // list used for appends starts over after this
+
+	@Param({"HEAP", "DIRECT"})
+	PageStorage storage;
+
+	@Param({"67108864"})
+	long storeSize;
+
+	private ByteBigArrayList _list;
+	private ByteBigArrayList _appendList;
+	private long _cursor = 0;
+	private final byte[] _chunk = new byte[256];
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		for(int i=0; i<_chunk.length; ++i){
+			_chunk[i] = (byte)i;
+		}
+		_list = new ByteBigArrayList(storage);
+		while(_list.size() < storeSize){
+			_list.add(_chunk, 0, (int)Math.min(_chunk.length, storeSize - _list.size()));
+		}
+		_appendList = new ByteBigArrayList(storage);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		_list.close();
+		_appendList.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Batch)
+	public long sequentialGet(){
+		long index = nextWindow();
+		long sum = 0;
+		for(int i=0; i<Batch; ++i){
+			sum += _list.get(index + i);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public byte randomGet(){
+		return _list.get(ThreadLocalRandom.current().nextLong(storeSize));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Batch)
+	public void sequentialSet(){
+		long index = nextWindow();
+		for(int i=0; i<Batch; ++i){
+			_list.set(index + i, (byte)i);
+		}
+	}
+
+	@Benchmark
+	public void randomSet(){
+		_list.set(ThreadLocalRandom.current().nextLong(storeSize), (byte)1);
+	}
+
+	// handle of ObjectStore
+	@Benchmark
+	public long randomGetUnsigned40(){
+		return _list.getUnsigned40(ThreadLocalRandom.current().nextLong(storeSize - ObjectStore.MemoryHandleSize));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Batch)
+	public long addByte() throws IOException {
+		ensureAppendSpace(Batch);
+		long index = 0;
+		for(int i=0; i<Batch; ++i){
+			index = _appendList.add((byte)i);
+		}
+		return index;
+	}
+
+	@Benchmark
+	public long addChunk() throws IOException {
+		ensureAppendSpace(_chunk.length);
+		return _appendList.add(_chunk);
+	}
+
+	private long nextWindow(){
+		long index = _cursor;
+		_cursor = (index + 2*Batch > storeSize ? 0 : index + Batch);
+		return index;
+	}
+	private void ensureAppendSpace(int length) throws IOException {
+		if(_appendList.size() + length > AppendLimit){
+			_appendList.close();
+			_appendList = new ByteBigArrayList(storage);
+		}
+	}
+}
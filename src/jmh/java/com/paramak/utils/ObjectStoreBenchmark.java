@@ -0,0 +1,142 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// string append and read back, with and without deduplication of repeated values. the counter reports store bytes per
+// appended string so that the saving of deduplication is visible next to its cost
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObjectStoreBenchmark {
+	private static final int StringCount = 1 << 16;
+	private static final long StoreLimit = 256L << 20; // store used for appends starts over after this
+
+	@Param({"false", "true"})
+	boolean hashing;
+
+	@Param({"1000"}) // distinct values among the appended strings, i.e. how repetitive the data is
+	int distinctValues;
+
+	private final String[] _strings = new String[StringCount];
+	private final long[] _handles = new long[StringCount];
+	private ObjectStore _store;			// filled, for reads
+	private ObjectStore _appendStore;
+	private StoredText _text;
+	private int _next = 0;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class StoreCounters {
+		public long storeBytes;
+	}
+
+	@Setup(Level.Trial)
+	public void setUpStrings(){
+		Random random = new Random(42);
+		for(int i=0; i<StringCount; ++i){
+			int value = random.nextInt(distinctValues);
+			_strings[i] = (value % 3 == 0 ? "category-" + value : "Item description number " + value + " with some text");
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void setUp(){
+		_store = newStore();
+		for(int i=0; i<StringCount; ++i){
+			_handles[i] = _store.appendStringToByteArray(_strings[i]);
+		}
+		_appendStore = newStore();
+		_text = new StoredText(_store);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws IOException {
+		_store.close();
+		_appendStore.close();
+	}
+
+	private ObjectStore newStore(){
+		return new ObjectStore(new ByteBigArrayList(), hashing);
+	}
+
+	@Benchmark
+	public long appendStringToByteArray() throws IOException {
+		int next = _next;
+		_next = (next + 1) & (StringCount - 1);
+		if(next == 0 && storeSize(_appendStore) > StoreLimit){
+			_appendStore.close();
+			_appendStore = newStore();
+		}
+		return _appendStore.appendStringToByteArray(_strings[next]);
+	}
+
+	// whole set of strings into a new store, reports the resulting store size
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public long appendAllToNewStore(StoreCounters counters) throws IOException {
+		try(ObjectStore store = newStore()){
+			long handle = 0;
+			for(int i=0; i<StringCount; ++i){
+				handle = store.appendStringToByteArray(_strings[i]);
+			}
+			counters.storeBytes = storeSize(store);
+			return handle;
+		}
+	}
+
+	@Benchmark
+	public String getStringFromByteArray(){
+		int next = _next;
+		_next = (next + 1) & (StringCount - 1);
+		return _store.getStringFromByteArray(_handles[next]);
+	}
+
+	// the filter a query runs on a value, without materializing it
+	@Benchmark
+	public boolean storedTextStartsWith(){
+		int next = _next;
+		_next = (next + 1) & (StringCount - 1);
+		return _text.attach(_handles[next]).startsWith("category-");
+	}
+
+	private static long storeSize(ObjectStore store){
+		return store.newObject(0); // end of the store
+	}
+}
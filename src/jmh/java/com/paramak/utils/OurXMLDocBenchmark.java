@@ -0,0 +1,299 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// load, query and print of a generated record oriented document (a catalog of items). documents up to 10GB are run
+// with e.g. -p documentMB=10,1024,10240; the document is generated once per trial in the temp directory
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class OurXMLDocBenchmark {
+	@Param({"10"})
+	int documentMB;
+	
+	@Param({"false", "true"}) // queries of _doc with the element index and an attribute index of item ids
+	boolean indexes;
+	
+	@Param({"false"}) // queries of a copy of _doc in the compact layout, -p compact=false,true compares the two
+	boolean compact;
+
+	private Path _document;
+	private Path _snapshot;
+	private OurXMLDoc _doc;
+	private int _items;
+	private XPathIterator _prices; // compiled once
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		_document = Files.createTempFile("paramak-bench-", ".xml");
+		_items = writeDocument(_document, (long)documentMB << 20);
+		_doc = new OurXMLDoc();
+		_doc.loadFile(_document.toString());
+		if(compact){
+			OurXMLDoc copy = _doc.copyCompact();
+			_doc.close();
+			_doc = copy;
+		}
+		_doc.setElementIndexEnabled(indexes);
+		if(indexes){
+			_doc.buildAttributeIndex("id");
+		}
+		_prices = _doc.compile("/catalog/item/price").iterator(0);
+		_snapshot = Files.createTempFile("paramak-bench-", ".snapshot");
+		_doc.save(_snapshot);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		_doc.close();
+		Files.deleteIfExists(_document);
+		Files.deleteIfExists(_snapshot);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public String loadFile() throws IOException {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(_document.toString());
+			return doc.getInfo();
+		}
+	}
+
+	// byte level parser instead of sax; its loop takes a few documents to be compiled
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 8)
+	@Measurement(iterations = 3)
+	public String loadFileFast() throws IOException {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFileFast(_document.toString());
+			return doc.getInfo();
+		}
+	}
+	
+	// one parser thread per core
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public String loadFileParallel() throws IOException {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(_document.toString(), Runtime.getRuntime().availableProcessors());
+			return doc.getInfo();
+		}
+	}
+
+	// every price, one at a time, nothing is kept
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public long streamFile() throws IOException {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			StoredText price = doc.newText();
+			long[] cents = {0};
+			doc.streamFile(_document.toString(), new String[]{"/item/price"}, (path, handle) -> {
+				if(doc.getText(handle, price)){
+					cents[0] += (long)(price.parseDouble()*100);
+				}
+				return false;
+			});
+			return cents[0];
+		}
+	}
+
+	// startup from a snapshot instead of parsing, up to the first answer
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public long openSnapshot() throws IOException {
+		try(OurXMLDoc doc = OurXMLDoc.open(_snapshot)){
+			return doc.getNodeHandle("/item/details/description", 0);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public long getNodeHandle() throws InvalidClassException {
+		return _doc.getNodeHandle("/item/details/description", 0);
+	}
+
+	// every price of every item
+	@Benchmark
+	public long nodeIterator() throws InvalidClassException {
+		OurXMLDoc.NodeIterator iterator = _doc.getNodeListIterator("/catalog/item/price", 0);
+		long count = 0;
+		while(iterator.next()){
+			count += iterator.getCurrentHandle();
+		}
+		return count;
+	}
+
+	// nodeIterator by a compiled xpath, the iterator is reset instead of allocated
+	@Benchmark
+	public long xpathIterator() throws InvalidClassException {
+		XPathIterator iterator = _prices.reset(0);
+		long count = 0;
+		while(iterator.next()){
+			count += iterator.getCurrentHandle();
+		}
+		return count;
+	}
+
+	// //price, every price in the document
+	@Benchmark
+	public long descendantIterator() throws InvalidClassException {
+		OurXMLDoc.DescendantIterator iterator = _doc.getDescendantIterator("price", 0);
+		long count = 0;
+		while(iterator.next()){
+			count += iterator.getCurrentHandle();
+		}
+		return count;
+	}
+
+	// items of a category, by all cores and by one
+	@Benchmark
+	public long elementsParallel() throws InvalidClassException {
+		return countBooks(true);
+	}
+	@Benchmark
+	public long elementsSequential() throws InvalidClassException {
+		return countBooks(false);
+	}
+	private long countBooks(boolean parallel) throws InvalidClassException {
+		return _doc.elements("item", 0, parallel).filter(item -> {
+			StoredText category = _doc.newText();
+			try{
+				return _doc.getAttributeValue(item, "category", category) && category.contentEquals("books");
+			}catch(InvalidClassException e){
+				throw new UncheckedIOException(e);
+			}
+		}).count();
+	}
+
+	// item of a random id
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public long getElementByAttribute() throws InvalidClassException {
+		return _doc.getElementByAttribute("id", Integer.toString(ThreadLocalRandom.current().nextInt(_items)));
+	}
+
+	// getElementByAttribute as an xpath, compiled per lookup
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public long xpathByAttribute() throws InvalidClassException {
+		return _doc.compile("//item[@id='" + ThreadLocalRandom.current().nextInt(_items) + "']").selectFirst(0);
+	}
+
+	@Benchmark
+	public String elementText() throws InvalidClassException {
+		OurXMLDoc.NodeIterator iterator = _doc.getNodeListIterator("/catalog/item/name", 0);
+		StringBuilder text = new StringBuilder();
+		while(iterator.next()){
+			text.setLength(0);
+			_doc.getElementText(iterator.getCurrentHandle(), text);
+		}
+		return text.toString();
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public void print() throws InvalidClassException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8));
+		_doc.print(out);
+		out.flush();
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		_doc.write(OutputStream.nullOutputStream(), XmlOutputMode.PRETTY);
+	}
+
+	// returns number of items
+	static int writeDocument(Path path, long size) throws IOException {
+		Random random = new Random(7);
+		String[] categories = {"books", "music", "garden", "toys", "tools", "kitchen", "sports", "office"};
+		long written = 0;
+		int items = 0;
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), 1 << 16)){
+			written += write(writer, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<catalog>\n");
+			while(written < size){
+				StringBuilder item = new StringBuilder(512);
+				item.append("\t<item id=\"").append(items).append("\" category=\"").append(categories[random.nextInt(categories.length)]).append("\">\n");
+				item.append("\t\t<name>Item ").append(items).append("</name>\n");
+				item.append("\t\t<price currency=\"EUR\">").append(random.nextInt(100000)/100.0).append("</price>\n");
+				item.append("\t\t<details>\n\t\t\t<description>");
+				for(int words=8+random.nextInt(24); words>0; --words){
+					item.append("word").append(random.nextInt(500)).append(' ');
+				}
+				item.append("</description>\n\t\t\t<stock>").append(random.nextInt(1000)).append("</stock>\n\t\t</details>\n\t</item>\n");
+				written += write(writer, item);
+				++items;
+			}
+			write(writer, "</catalog>\n");
+		}
+		return items;
+	}
+	private static int write(Writer writer, CharSequence text) throws IOException {
+		writer.append(text);
+		return text.length(); // generated text is ascii
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// throughput and memory of ByteBigArrayList for different page sizes. run with -prof gc to see allocation per operation.
+// the memory counters report bytes reserved by the list (capacity) against bytes used (size) for a store of
+// storeSize bytes, which is where small pages pay off for small documents
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PageSizeBenchmark {
+	@Param({"4096", "65536", "1048576", "4194304"})
+	int pageSize;
+
+	@Param({"16384", "67108864"}) // small document and a store of 64MB
+	int storeSize;
+
+	private ByteBigArrayList _list;
+	private final byte[] _chunk = new byte[256];
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class MemoryCounters {
+		public long capacityBytes;
+		public long usedBytes;
+	}
+
+	@Setup(Level.Iteration)
+	public void setUp(){
+		_list = new ByteBigArrayList(ByteBigArrayList.Config.builder().pageSize(pageSize).build());
+		fill(_list, storeSize);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws IOException {
+		_list.close();
+	}
+
+	private void fill(ByteBigArrayList list, int size){
+		for(int i=0; i<_chunk.length; ++i){
+			_chunk[i] = (byte)i;
+		}
+		while(list.size() < size){
+			list.add(_chunk, 0, (int)Math.min(_chunk.length, size - list.size()));
+		}
+	}
+
+	@Benchmark
+	public long buildStore(MemoryCounters counters) throws IOException {
+		try(ByteBigArrayList list = new ByteBigArrayList(ByteBigArrayList.Config.builder().pageSize(pageSize).build())){
+			fill(list, storeSize);
+			counters.capacityBytes = list.capacity();
+			counters.usedBytes = list.size();
+			return list.size();
+		}
+	}
+
+	@Benchmark
+	public byte randomGet(){
+		return _list.get(ThreadLocalRandom.current().nextLong(_list.size()));
+	}
+
+	@Benchmark
+	public int sequentialToArray(){
+		long index = ThreadLocalRandom.current().nextLong(_list.size() - _chunk.length);
+		return _list.toArray(index, _chunk.length).length;
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.util.Arrays;
+
+import gnu.trove.list.array.TLongArrayList;
+
+// equality index of the values of one attribute, which is written into the object store so that a snapshot of the
+// document keeps it. from the position of the index, little endian:
+//	slot count(4) value count(4) element count(8), the slots, then a record per distinct value
+//	slot: hash(4) record(5), record 0 is an empty slot. linear probing, at most 3/4 full
+//	record: value handle(5) element count(4) element handles(5 each) in document order
+// values are compared as utf-8 bytes with the value of the record, hashed as DedupIndex does
+final class AttributeIndex {
+	private static final int HeaderSize = 16;
+	private static final int HashSize = 4;
+	private static final int SlotSize = HashSize + ObjectStore.MemoryHandleSize;
+	private static final int CountSize = 4;
+	private static final int RecordHeaderSize = ObjectStore.MemoryHandleSize + CountSize;
+	
+	private final ObjectStore _store;
+	private final TLongArrayList _valueHandles = new TLongArrayList();
+	private final TLongArrayList _elements = new TLongArrayList();
+	
+	AttributeIndex(ObjectStore store) {
+		_store = store;
+	}
+	
+	// in document order
+	void add(long valueHandle, long elementHandle) {
+		_valueHandles.add(valueHandle);
+		_elements.add(elementHandle);
+	}
+	
+	// writes the index to the store, returns its position
+	long write() {
+		int count = _elements.size();
+		// distinct values by hash in memory first, then every record has its size before it is written
+		int[] distinctOf = new int[count];
+		long[] hashes = new long[16];
+		int[] firstEntries = new int[16];
+		int[] counts = new int[16];
+		int distinct = 0;
+		int[] table = new int[32]; // distinct + 1, 0 is an empty slot
+		byte[] bytes = new byte[64];
+		for(int entry=0; entry<count; ++entry){
+			long valueHandle = _valueHandles.getQuick(entry);
+			int length = (int)_store.getStringByteLength(valueHandle);
+			if(length > bytes.length){
+				bytes = new byte[Math.max(length, 2*bytes.length)];
+			}
+			_store.getStringBytes(valueHandle, bytes);
+			long hash = DedupIndex.hash(bytes, 0, length);
+			int mask = table.length - 1;
+			int slot = (int)hash & mask;
+			int found = -1;
+			for(int id; (id = table[slot]) != 0; slot = (slot + 1) & mask){
+				if(hashes[id-1] == hash && _store.stringEquals(_valueHandles.getQuick(firstEntries[id-1]), bytes, 0, length)){
+					found = id - 1;
+					break;
+				}
+			}
+			if(found < 0){
+				found = distinct++;
+				if(found == hashes.length){
+					hashes = Arrays.copyOf(hashes, 2*found);
+					firstEntries = Arrays.copyOf(firstEntries, 2*found);
+					counts = Arrays.copyOf(counts, 2*found);
+				}
+				hashes[found] = hash;
+				firstEntries[found] = entry;
+				table[slot] = distinct;
+				if(4*distinct > 3*table.length){
+					table = rehash(hashes, distinct, 2*table.length);
+				}
+			}
+			distinctOf[entry] = found;
+			++counts[found];
+		}
+		
+		int slots = Integer.highestOneBit(Math.max(16, distinct*4/3 + 1)) << 1;
+		long tableSize = (long)slots*SlotSize;
+		long recordsSize = (long)distinct*RecordHeaderSize + (long)count*ObjectStore.MemoryHandleSize;
+		long position = _store.newRegion(HeaderSize + tableSize + recordsSize);
+		_store.setIntegerValue(position, 0, slots, 4);
+		_store.setIntegerValue(position, 4, distinct, 4);
+		_store.setIntegerValue(position, 8, count, 8);
+		long[] next = new long[distinct]; // where the next element of a value goes
+		long record = position + HeaderSize + tableSize;
+		int mask = slots - 1;
+		for(int id=0; id<distinct; ++id){
+			_store.setObjectHandle(record, 0, _valueHandles.getQuick(firstEntries[id]));
+			_store.setIntegerValue(record, ObjectStore.MemoryHandleSize, counts[id], CountSize);
+			next[id] = record + RecordHeaderSize;
+			long hash = hashes[id];
+			int slot = (int)hash & mask;
+			while(_store.getObjectHandle(slotPosition(position, slot), HashSize) != 0){
+				slot = (slot + 1) & mask;
+			}
+			_store.setIntegerValue(slotPosition(position, slot), 0, hash >>> 32, HashSize);
+			_store.setObjectHandle(slotPosition(position, slot), HashSize, record);
+			record += RecordHeaderSize + (long)counts[id]*ObjectStore.MemoryHandleSize;
+		}
+		for(int entry=0; entry<count; ++entry){
+			int id = distinctOf[entry];
+			_store.setObjectHandle(next[id], 0, _elements.getQuick(entry));
+			next[id] += ObjectStore.MemoryHandleSize;
+		}
+		return position;
+	}
+	private static int[] rehash(long[] hashes, int distinct, int capacity) {
+		int[] table = new int[capacity];
+		int mask = capacity - 1;
+		for(int id=0; id<distinct; ++id){
+			int slot = (int)hashes[id] & mask;
+			while(table[slot] != 0){
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id + 1;
+		}
+		return table;
+	}
+	
+	// record of the value in the index at position, 0 if no element has it
+	static long findRecord(ObjectStore store, long position, byte[] value) {
+		long hash = DedupIndex.hash(value, 0, value.length);
+		int mask = (int)store.getIntegerValue(position, 0, 4) - 1;
+		int hashBits = (int)(hash >>> 32);
+		for(int slot = (int)hash & mask; ; slot = (slot + 1) & mask){
+			long slotPosition = slotPosition(position, slot);
+			long record = store.getObjectHandle(slotPosition, HashSize);
+			if(record == 0){
+				return 0;
+			}
+			if((int)store.getIntegerValue(slotPosition, 0, HashSize) == hashBits
+					&& store.stringEquals(store.getObjectHandle(record, 0), value, 0, value.length)){
+				return record;
+			}
+		}
+	}
+	static int getElementCount(ObjectStore store, long record) {
+		return (int)store.getIntegerValue(record, ObjectStore.MemoryHandleSize, CountSize);
+	}
+	static long getElement(ObjectStore store, long record, int i) {
+		return store.getObjectHandle(record + RecordHeaderSize + (long)i*ObjectStore.MemoryHandleSize, 0);
+	}
+	
+	private static long slotPosition(long position, int slot) {
+		return position + HeaderSize + (long)slot*SlotSize;
+	}
+}
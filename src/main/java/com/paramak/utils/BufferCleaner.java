@@ -0,0 +1,63 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+// frees direct and mapped buffers right away instead of waiting for the gc to find them
+final class BufferCleaner {
+	private static Logger logger = LogManager.getLogger();
+
+	private static final Object unsafe;
+	private static final Method invokeCleaner;
+	static {
+		Object theUnsafe = null;
+		Method cleanerMethod = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+			unsafeField.setAccessible(true);
+			theUnsafe = unsafeField.get(null);
+			cleanerMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.info("Direct buffers will be freed by gc only. {}", e.toString());
+			theUnsafe = null;
+			cleanerMethod = null;
+		}
+		unsafe = theUnsafe;
+		invokeCleaner = cleanerMethod;
+	}
+
+	private BufferCleaner(){
+	}
+
+	// buffer must be the one returned by allocateDirect/map, not a slice or duplicate of it, and must not be used afterwards
+	static void release(ByteBuffer buffer){
+		if(buffer != null && buffer.isDirect() && invokeCleaner != null){
+			try {
+				invokeCleaner.invoke(unsafe, buffer);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				logger.warn(e); // memory is still released by gc later
+			}
+		}
+	}
+}
@@ -16,73 +16,213 @@
 
 package com.paramak.utils;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
-import java.util.List;
-import java.util.UUID;
-import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-public final class ByteBigArrayList { // TODO: as of now this class is not ready for multi threaded applications. We need to do the modification for multithreading
+// by default an instance must be used by one thread at a time. an instance created as concurrent allows any number of
+// threads to read and append at the same time; reads never lock, appends reserve their range atomically
+public final class ByteBigArrayList implements AutoCloseable {
 	
 	private static Logger logger = LogManager.getLogger();
 	
-	private static final long TwoByteMask = 0xffffL;	// mask to extract first 2 byte from an integer which is larger than 2 bytes
-	private static final long TwoByteStorageSize = TwoByteMask + 1;
-	private static final int TwoByteBitSize = 16;
 	private static final int ByteArrayHolderSizeIncr = 256;
+	private static final long MapSegmentSize = 1L << 30; // multiple of every page size
 	
-	// memory threshold to be used by all instances of this class cumulatively. this is in percentage of max jvm memory
-	private static final long MemoryThreshold = 70;// TODO: should be configurable and should be set to less than 90 for proper function of non byte array dependent part of the application
+	private final int _pageBitSize;
+	private final long _pageMask;	// mask to extract index within a page from an index of the list
+	private final int _pageSize;
 	
-	private boolean _useFilePaging = (MemoryThreshold > 0); // paging is enabled if memory threshold is defined. anything <= 0 is considered as undefined
+	private boolean _useFilePaging;
+	private final PageStorage _storage;
+	private DirectPageArena _directArena = null; // source of pages for direct storage
+	private final PagingController _pagingController; // global controller unless the instance has its own memory budget
+	private SwapSpace _swapSpace = null; // shared space unless the instance is given a backend of its own
+	private final boolean _ownsSwapSpace;
+	private final boolean _compressSwap;
 	
-	private long _currentSize = 0;
+	private final boolean _concurrent;
+	private long _currentSize = 0; // accessed via CurrentSizeHandle in concurrent mode
 	private int _holderUsesSize = 0;
-	private long _currentCapacity = 0;
-	private DataPage[] _dataPages = new DataPage[ByteArrayHolderSizeIncr];
-	private static volatile long _accessCounter = 0;
+	private volatile long _currentCapacity = 0;
+	private volatile DataPage[] _dataPages = new DataPage[ByteArrayHolderSizeIncr]; // replaced, never modified, when it has to grow
+	private HeapDataPage _lastTouchedPage = null; // single threaded instances report access order only when they move to another page
+	
+	private static final VarHandle CurrentSizeHandle;
+	private static final VarHandle DirtyHandle; // HeapDataPage._dirty, set with release so that the page writer sees the data with it
+	private static final VarHandle LongLE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle IntLE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	static {
+		try {
+			CurrentSizeHandle = MethodHandles.lookup().findVarHandle(ByteBigArrayList.class, "_currentSize", long.class);
+			DirtyHandle = MethodHandles.lookup().findVarHandle(HeapDataPage.class, "_dirty", boolean.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
 	
 	public ByteBigArrayList() {
+		this(Config.defaults());
+	}
+	
+	public ByteBigArrayList(PageStorage storage) {
+		this(Config.builder().storage(storage).build());
+	}
+	
+	public ByteBigArrayList(PageStorage storage, boolean concurrent) {
+		this(Config.builder().storage(storage).concurrent(concurrent).build());
+	}
+	
+	public ByteBigArrayList(PageBackend pageBackend) {
+		this(pageBackend, false);
+	}
+	
+	public ByteBigArrayList(PageBackend pageBackend, boolean concurrent) {
+		this(Config.builder().storage(PageStorage.HEAP).backend(() -> pageBackend).concurrent(concurrent).build());
+	}
+	
+	public ByteBigArrayList(Config config) {
+		_pageBitSize = config._pageBitSize;
+		_pageSize = 1 << _pageBitSize;
+		_pageMask = _pageSize - 1;
+		_storage = config._storage;
+		_concurrent = config._concurrent;
+		_pagingController = (config._memoryBudget > 0 ? new PagingController(config._memoryBudget, config._evictionBatchSize, config._eviction, config._writeBehindWatermark) : _globalPagingController);
+		_useFilePaging = (_storage == PageStorage.HEAP && _pagingController.isEnabled()); // direct pages are out of jvm heap so heap budget does not apply to them
+		if(_storage == PageStorage.DIRECT){
+			_directArena = new DirectPageArena(_pageSize);
+		}
+		_ownsSwapSpace = (config._swapSpace == null && config._backendFactory != null);
+		_compressSwap = (config._compression && _pageSize > SwapSpace.BlockSize); // compressed page has to save at least one block
 		if(_useFilePaging){
 			try {
-				_swapFilePath = new File(String.format("./temp/%s.swp", UUID.randomUUID()));
-				_swapFile = new RandomAccessFile(_swapFilePath, "rw");
-				_swapFilePath.deleteOnExit(); // just to make sure that this file will get deleted when jvm exits
-			} catch (FileNotFoundException e) {
-				_swapFile = null;
-				_swapFilePath = null;
-				_useFilePaging = false;
-				
+				_swapSpace = (config._swapSpace != null ? config._swapSpace : _ownsSwapSpace ? new SwapSpace(config._backendFactory.create()) : SwapSpace.shared());
+			} catch (IOException e) {
+				_swapSpace = null;
 				logger.error(e);
+			}
+			if(_swapSpace == null){
+				_useFilePaging = false;
 				logger.info("File paging disabled because of previous exception.");
 			}
 		}
 	}
 	
+	// direct list over size bytes of the file from position. pages are read by the os on first access; region has to be
+	// a multiple of page size, appended bytes go to new direct pages. private mode (copy on write) never modifies the file
+	static ByteBigArrayList map(FileChannel channel, FileChannel.MapMode mode, long position, long size, int pageSize, boolean concurrent) throws IOException {
+		ByteBigArrayList list = new ByteBigArrayList(Config.builder().storage(PageStorage.DIRECT).pageSize(pageSize).concurrent(concurrent).build());
+		long regionSize = ((size + pageSize - 1)/pageSize)*pageSize;
+		if(position + regionSize > channel.size()){
+			throw new IOException("Mapped region is beyond the end of the file.");
+		}
+		for(long offset=0; offset<regionSize; offset+=MapSegmentSize){
+			MappedByteBuffer segment = channel.map(mode, position + offset, Math.min(MapSegmentSize, regionSize - offset));
+			for(int pageOffset=0; pageOffset<segment.capacity(); pageOffset+=pageSize){
+				list.addPage(list.new DirectDataPage(segment.slice(pageOffset, pageSize).order(ByteOrder.LITTLE_ENDIAN), true));
+			}
+		}
+		CurrentSizeHandle.setVolatile(list, size);
+		return list;
+	}
+	private final void addPage(DataPage page) {
+		DataPage[] dataPages = _dataPages;
+		if(dataPages.length <= _holderUsesSize){
+			dataPages = Arrays.copyOf(dataPages, dataPages.length + ByteArrayHolderSizeIncr);
+		}
+		dataPages[_holderUsesSize++] = page;
+		_dataPages = dataPages;
+		_currentCapacity += _pageSize;
+	}
+	
+	// memory threshold used by all instances without their own budget cumulatively. this is in percentage of max jvm memory and
+	// should be less than 90 for proper function of non byte array dependent part of the application. <= 0 stops paging
+	public static void configureGlobalPaging(int memoryThresholdPercent, int evictionBatchSize){
+		_globalPagingController.configure(Config.memoryThresholdToBudget(memoryThresholdPercent), evictionBatchSize);
+	}
+	
+	// percentage of the global budget from where dirty pages are written by the page writer thread ahead of eviction. <= 0 stops it
+	public static void configureGlobalWriteBehind(int watermarkPercent){
+		_globalPagingController.configureWriteBehind(watermarkPercent);
+	}
+	
+	public final PageStorage getStorage(){
+		return _storage;
+	}
+	
+	public final boolean isConcurrent(){
+		return _concurrent;
+	}
+	
+	public final int getPageSize(){
+		return _pageSize;
+	}
+	
+	public final long capacity(){
+		return _currentCapacity;
+	}
+	
+	// counters of the controller this instance is paged by; shared with other instances unless it has its own budget
+	public final PagingStats getPagingStats(){
+		return _pagingController.getStats();
+	}
+	
+	// null if pages are not swapped
+	public final SwapSpace getSwapSpace(){
+		return _swapSpace;
+	}
+	
 	public final long size(){
-		return _currentSize;
+		return (_concurrent ? (long)CurrentSizeHandle.getAcquire(this) : _currentSize);
 	}
 	
-	public void trimToSize(){
+	// not to be called while other threads are using the list
+	public synchronized void trimToSize(){
 		// removed the pages which are not used at all
-		while(_currentSize+TwoByteStorageSize <= _currentCapacity){
-			_currentCapacity -= TwoByteStorageSize;
+		while(size()+_pageSize <= _currentCapacity){
+			_currentCapacity -= _pageSize;
 			_holderUsesSize --;
+			_dataPages[_holderUsesSize].release();
 			_dataPages[_holderUsesSize] = null;
 		}
 	}
 	
+	// drops the bytes from newSize on, their pages stay for the next appends. the bytes are cleared, so space reserved
+	// by allocateSpace() after this is zeroed like space on new pages. not to be called while other threads are using the list
+	public synchronized void truncate(long newSize){
+		long size = size();
+		if(newSize < 0 || newSize > size){
+			throw new IndexOutOfBoundsException();
+		}
+		byte[] zeros = new byte[(int)Math.min(size - newSize, _pageSize)];
+		for(long index=newSize; index<size; ){
+			index += getDataPageForIndex(index).copyFromBytes(getArrayIndex(index), zeros, 0, (int)Math.min(size - index, zeros.length));
+		}
+		CurrentSizeHandle.setVolatile(this, newSize);
+	}
+	
 	public final byte[] toArray(long index, int length){
 		byte[] bytes = new byte[length];
-		int startIndex = 0;
+		get(index, bytes, 0, length);
+		
+		return bytes;
+	}
+	// copies length bytes from index to bytes from startIndex
+	public final void get(long index, byte[] bytes, int startIndex, int length){
+		if(index < 0 || length < 0 || index + length > size()){
+			throw new IndexOutOfBoundsException();
+		}
 		while(length > 0){
 			DataPage curDataPage = getDataPageForIndex(index);
 			int arrIndex = getArrayIndex(index);
@@ -91,12 +231,10 @@ public final class ByteBigArrayList { // TODO: as of now this class is not ready
 			startIndex += tempLen;
 			index += tempLen;
 		}
-		
-		return bytes;
 	}
 	
 	public final byte get(long index){
-		if(index >= 0 && index < _currentSize){
+		if(index >= 0 && index < size()){
 			DataPage curDataPage = getDataPageForIndex(index);
 			return curDataPage.getAt(getArrayIndex(index));
 		}else{
@@ -105,7 +243,7 @@ public final class ByteBigArrayList { // TODO: as of now this class is not ready
 	}
 
 	public final void set(long index, byte byteValue){
-		if(index >= 0 && index < _currentSize){
+		if(index >= 0 && index < size()){
 			DataPage curPage = getDataPageForIndex(index);
 			curPage.setAt(getArrayIndex(index), byteValue);
 		}else{
@@ -113,18 +251,111 @@ public final class ByteBigArrayList { // TODO: as of now this class is not ready
 		}
 	}
 	
-	public final long add(byte[] bytes, int startIndex, int length){
-		ensureStorage(length);
-		
-		long index = _currentSize;
+	// overwrites length bytes from index
+	public final void set(long index, byte[] bytes, int startIndex, int length){
+		if(index >= 0 && length >= 0 && index + length <= size()){
+			copyFromBytes(index, bytes, startIndex, length);
+		}else{
+			throw new IndexOutOfBoundsException();
+		}
+	}
+	
+	// true if length bytes from index are the same as the bytes from startIndex; compared page by page without copying
+	public final boolean rangeEquals(long index, byte[] bytes, int startIndex, int length){
+		if(index < 0 || index + length > size()){
+			return false;
+		}
 		while(length > 0){
-			DataPage curPage = getDataPageForIndex(_currentSize);
-			int arrIndex = getArrayIndex(_currentSize);
-			int tempLen = curPage.copyFromBytes(arrIndex, bytes, startIndex, length);
+			int arrIndex = getArrayIndex(index);
+			int tempLen = Math.min(length, _pageSize - arrIndex);
+			if(!getDataPageForIndex(index).equalsBytes(arrIndex, bytes, startIndex, tempLen)){
+				return false;
+			}
 			length -= tempLen;
 			startIndex += tempLen;
-			_currentSize += tempLen;
+			index += tempLen;
+		}
+		return true;
+	}
+	
+	// writes length bytes from index page by page, heap pages are written from their arrays without a copy
+	public final void writeTo(long index, long length, OutputStream out) throws IOException {
+		if(index < 0 || length < 0 || index + length > size()){
+			throw new IndexOutOfBoundsException();
+		}
+		while(length > 0){
+			int arrIndex = getArrayIndex(index);
+			int tempLen = getDataPageForIndex(index).writeTo(arrIndex, (int)Math.min(length, _pageSize - arrIndex), out);
+			length -= tempLen;
+			index += tempLen;
+		}
+	}
+	public final void writeTo(long index, long length, WritableByteChannel channel) throws IOException {
+		if(index < 0 || length < 0 || index + length > size()){
+			throw new IndexOutOfBoundsException();
+		}
+		while(length > 0){
+			int arrIndex = getArrayIndex(index);
+			int tempLen = getDataPageForIndex(index).writeTo(arrIndex, (int)Math.min(length, _pageSize - arrIndex), channel);
+			length -= tempLen;
+			index += tempLen;
 		}
+	}
+	
+	// little endian value of size (1 to 8) bytes, unsigned if size is less than 8. one page access when the value does
+	// not cross a page boundary, which is nearly always
+	public final long getLE(long index, int size){
+		if(index >= 0 && index + size <= size()){
+			DataPage curPage = getDataPageForIndex(index);
+			int arrIndex = getArrayIndex(index);
+			if(arrIndex + Long.BYTES <= _pageSize){ // bytes after the value are read as well, they are in the page anyway
+				long val = curPage.getLongAt(arrIndex);
+				return (size == Long.BYTES ? val : val & ((1L << (size*Byte.SIZE)) - 1));
+			}
+			long val = 0;
+			for(int i=size-1; i>=0; --i){
+				val = (val << Byte.SIZE) | (get(index+i) & 0xffL);
+			}
+			return val;
+		}else{
+			throw new IndexOutOfBoundsException();
+		}
+	}
+	public final void setLE(long index, long value, int size){
+		if(index >= 0 && index + size <= size()){
+			int arrIndex = getArrayIndex(index);
+			if(arrIndex + size <= _pageSize){
+				getDataPageForIndex(index).setLEAt(arrIndex, value, size);
+			}else{
+				for(int i=0; i<size; ++i){
+					set(index+i, (byte)value);
+					value >>>= Byte.SIZE;
+				}
+			}
+		}else{
+			throw new IndexOutOfBoundsException();
+		}
+	}
+	public final int getInt(long index){
+		return (int)getLE(index, Integer.BYTES);
+	}
+	public final void setInt(long index, int value){
+		setLE(index, value, Integer.BYTES);
+	}
+	public final long getLong(long index){
+		return getLE(index, Long.BYTES);
+	}
+	public final void setLong(long index, long value){
+		setLE(index, value, Long.BYTES);
+	}
+	// size of the handles of ObjectStore
+	public final long getUnsigned40(long index){
+		return getLE(index, 5);
+	}
+	
+	public final long add(byte[] bytes, int startIndex, int length){
+		long index = reserve(length);
+		copyFromBytes(index, bytes, startIndex, length);
 		
 		return index;
 	}
@@ -134,146 +365,528 @@ public final class ByteBigArrayList { // TODO: as of now this class is not ready
 	}
 	
 	public final long add(byte byteValue){
-		ensureStorage(1);
-		long index = _currentSize;
-		_currentSize ++;
-		set(index, byteValue);
+		long index = reserve(1);
+		getDataPageForIndex(index).setAt(getArrayIndex(index), byteValue);
 		
 		return index;
 	}
 	
 	public final long allocateSpace(int size){
-		long index = _currentSize;
-		ensureStorage(size);
-		_currentSize += size;
-		
+		return reserve(size);
+	}
+	public final long allocateSpace(long size){
+		return reserve(size);
+	}
+	
+	// appends length bytes of source from index, returns where they start in this list
+	public final long addAll(ByteBigArrayList source, long index, long length){
+		if(index < 0 || length < 0 || index + length > source.size()){
+			throw new IndexOutOfBoundsException();
+		}
+		long start = reserve(length);
+		byte[] buffer = new byte[(int)Math.min(length, source._pageSize)];
+		for(long copied=0; copied<length; ){
+			int arrIndex = source.getArrayIndex(index + copied);
+			int tempLen = source.getDataPageForIndex(index + copied).copyToBytes(arrIndex, buffer, 0, (int)Math.min(length - copied, buffer.length));
+			copyFromBytes(start + copied, buffer, 0, tempLen);
+			copied += tempLen;
+		}
+		return start;
+	}
+	// returns start of the newly reserved range. storage is in place before the new size is visible to other threads
+	private final long reserve(long length){
+		long index;
+		if(_concurrent){
+			do{
+				index = (long)CurrentSizeHandle.getVolatile(this);
+				ensureStorage(index + length);
+			}while(!CurrentSizeHandle.compareAndSet(this, index, index + length));
+		}else{
+			index = _currentSize;
+			ensureStorage(index + length);
+			_currentSize = index + length;
+		}
 		return index;
 	}
+	private final void copyFromBytes(long index, byte[] bytes, int startIndex, int length){
+		while(length > 0){
+			DataPage curPage = getDataPageForIndex(index);
+			int arrIndex = getArrayIndex(index);
+			int tempLen = curPage.copyFromBytes(arrIndex, bytes, startIndex, length);
+			length -= tempLen;
+			startIndex += tempLen;
+			index += tempLen;
+		}
+	}
+	private static int writeFully(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+		int length = buffer.remaining();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		return length;
+	}
 	private final int getArrayIndex(long index) {
-		return (int)(index & TwoByteMask);
+		return (int)(index & _pageMask);
+	}
+	private final void ensureStorage(long newRequiredSize) {
+		if(_currentCapacity < newRequiredSize){
+			if(_concurrent){
+				synchronized (this) {
+					growStorage(newRequiredSize);
+				}
+			}else{
+				growStorage(newRequiredSize);
+			}
+		}
 	}
-	private final void ensureStorage(long additionalStorageReqr) {
-		long newRequiredSize = _currentSize + additionalStorageReqr;
+	private final void growStorage(long newRequiredSize) {
 		while(_currentCapacity < newRequiredSize){
+			DataPage[] dataPages = _dataPages;
 			int holderSize = getListHolderIndex(newRequiredSize-1)+1;
-			if(_dataPages.length < holderSize){
+			if(dataPages.length < holderSize){
 				int newHolderLen = (holderSize/ByteArrayHolderSizeIncr + 1)*ByteArrayHolderSizeIncr;
-				_dataPages = Arrays.copyOf(_dataPages, newHolderLen);
+				dataPages = Arrays.copyOf(dataPages, newHolderLen);
 			}
-			_dataPages[_holderUsesSize++] = new DataPage(); // add 64KB
-			_currentCapacity += TwoByteStorageSize;
+			dataPages[_holderUsesSize++] = (_storage == PageStorage.DIRECT ? new DirectDataPage(_directArena.allocate()) : new HeapDataPage()); // add one page
+			_dataPages = dataPages;
+			_currentCapacity += _pageSize; // publishes the new page
 		}
 	}
 	private final int getListHolderIndex(long index) {
-		return (int)(index >> TwoByteBitSize); // most significant 2 bytes
+		return (int)(index >> _pageBitSize); // page number
 	}
 	private final DataPage getDataPageForIndex(long index){
 		return _dataPages[getListHolderIndex(index)];
 	}
 	
 	private final byte[] createPageData(){
-		return new byte[(int)TwoByteStorageSize];
+		byte[] data = _pagingController.reusePageData(_pageSize);
+		if(data != null){
+			Arrays.fill(data, (byte)0); // new page is expected to be zeroed same as a fresh array
+		}else{
+			data = new byte[_pageSize];
+		}
+		return data;
 	}
 	
-	RandomAccessFile _swapFile = null;
-	File _swapFilePath = null;
+	// releases off heap memory and swap space right away. list is empty and must not be used after this
 	@Override
-	protected void finalize() throws Throwable {
-		if(_swapFile != null){
-			_swapFile.close();
-			_swapFilePath.delete();
-			_swapFile = null;
+	public synchronized void close() throws IOException {
+		for(int i=0; i<_holderUsesSize; ++i){
+			_dataPages[i].release();
+			_dataPages[i] = null;
+		}
+		_holderUsesSize = 0;
+		_currentCapacity = 0;
+		CurrentSizeHandle.setVolatile(this, 0L);
+		if(_directArena != null){
+			_directArena.close();
 		}
+		if(_swapSpace != null){
+			if(_ownsSwapSpace){
+				_swapSpace.close();
+			}
+			_swapSpace = null;
+		}
+	}
+	
+	@Override
+	protected void finalize() throws Throwable {
+		close();
 		
 		super.finalize();
 	}
 
-	private final class DataPage {
-		long _accessNo = 0;
-		long _swapPos = -1;
-		boolean _dirty = false; // to signify if the paged file data and in memory data are not in sync
-		private byte[] _data = null; // don't use _data directly unless there is a reason it should be used via getData() wrapper
-
-		public DataPage(){
-			assignPageData(createPageData());
+	private abstract class DataPage {
+		public abstract byte getAt(int index);
+		public abstract void setAt(int index, byte byteValue);
+		public abstract int copyToBytes(int index, byte[] destBytes, int destStartIndex, int length);
+		public abstract int copyFromBytes(int index, byte[] srcBytes, int srcStartIndex, int length);
+		public abstract boolean equalsBytes(int index, byte[] bytes, int startIndex, int length); // length has to be within the page
+		public abstract long getLongAt(int index); // little endian, index + 8 has to be within the page
+		public abstract void setLEAt(int index, long value, int size); // only size bytes are written
+		public abstract int writeTo(int index, int length, OutputStream out) throws IOException; // length has to be within the page
+		public abstract int writeTo(int index, int length, WritableByteChannel channel) throws IOException;
+		public abstract void release();
+	}
+	
+	private final class DirectDataPage extends DataPage {
+		private final ByteBuffer _buffer;
+		private final boolean _mapped; // slice of a mapped file, not from the arena
+		
+		public DirectDataPage(ByteBuffer buffer){
+			this(buffer, false);
+		}
+		public DirectDataPage(ByteBuffer buffer, boolean mapped){
+			_buffer = buffer;
+			_mapped = mapped;
 		}
 		
+		@Override
 		public final byte getAt(int index) {
-			{//synchronized (this) {
-				return getData()[index];
+			return _buffer.get(index);
+		}
+		@Override
+		public final void setAt(int index, byte byteValue) {
+			_buffer.put(index, byteValue);
+		}
+		@Override
+		public final int copyToBytes(int index, byte[] destBytes, int destStartIndex, int length) {
+			int allowedLen = Math.min(length, (_pageSize-index)); // length of data which can be copied from this page
+			_buffer.get(index, destBytes, destStartIndex, allowedLen);
+			return allowedLen;
+		}
+		@Override
+		public final int copyFromBytes(int index, byte[] srcBytes, int srcStartIndex, int length) {
+			int allowedLen = Math.min(length, (_pageSize-index)); // length of data which can be copied from this page
+			_buffer.put(index, srcBytes, srcStartIndex, allowedLen);
+			return allowedLen;
+		}
+		@Override
+		public final boolean equalsBytes(int index, byte[] bytes, int startIndex, int length) {
+			for(int i=0; i<length; ++i){
+				if(_buffer.get(index + i) != bytes[startIndex + i]){
+					return false;
+				}
 			}
+			return true;
 		}
+		@Override
+		public final long getLongAt(int index) {
+			return _buffer.getLong(index); // buffer is little endian
+		}
+		@Override
+		public final void setLEAt(int index, long value, int size) {
+			if(size == Long.BYTES){
+				_buffer.putLong(index, value);
+			}else{ // no read-modify-write so that bytes next to the value, possibly written by another thread, stay as they are
+				if(size >= Integer.BYTES){
+					_buffer.putInt(index, (int)value);
+					index += Integer.BYTES;
+					size -= Integer.BYTES;
+					value >>>= Integer.SIZE;
+				}
+				for(; size>0; --size){
+					_buffer.put(index++, (byte)value);
+					value >>>= Byte.SIZE;
+				}
+			}
+		}
+		@Override
+		public final int writeTo(int index, int length, OutputStream out) throws IOException {
+			for(int i=0; i<length; ++i){ // no array behind the buffer, a buffered stream takes single bytes cheaply
+				out.write(_buffer.get(index + i));
+			}
+			return length;
+		}
+		@Override
+		public final int writeTo(int index, int length, WritableByteChannel channel) throws IOException {
+			return writeFully(_buffer.slice(index, length), channel);
+		}
+		@Override
+		public final void release() {
+			if(!_mapped){ // mapping goes away with the last page referring to it
+				_directArena.free(_buffer);
+			}
+		}
+	}
+
+	// in concurrent mode readers never lock: an evicted page array is not reused so a reader holding it still sees valid
+	// data. writers and eviction synchronize on the page so that no write is lost while the page is being swapped out.
+	// page writer clears the dirty flag before it copies the data, so a write racing with it leaves the page dirty
+	private final class HeapDataPage extends DataPage implements PagingController.Page, SwapSpace.Owner {
+		long _swapPos = -1; // slot in swap space, kept until the page is released
+		int _swapLength = 0; // less than page size if the slot is compressed
+		private boolean _dirty = false; // to signify if the paged file data and in memory data are not in sync, see DirtyHandle
+		boolean _swappedOut = false;
+		boolean _referenced = true; // reference bit for eviction, set on access and cleared by the controller
+		int _slot = -1; // owned by paging controller
+		private final WeakReference<PagingController.Page> _reference = new WeakReference<>(this); // slot of the controller refers to the page by it
+		private volatile byte[] _data = null; // don't use _data directly unless there is a reason it should be used via getData() wrapper
+
+		public HeapDataPage(){
+			_data = createPageData();
+			if(_useFilePaging){
+				_pagingController.addDataPage(this);
+			}
+		}
+		
+		@Override
+		public final void release() {
+			byte[] data;
+			synchronized (this) { // page is discarded so there is nothing to sync with swap file
+				data = _data;
+				_data = null;
+				DirtyHandle.setVolatile(this, false);
+				if(_swapPos >= 0){
+					_swapSpace.free(_swapPos);
+					_swapPos = -1;
+				}
+			}
+			if(data != null && _useFilePaging){ // outside of page lock, see loadData()
+				_pagingController.removeDataPage(this);
+				if(!_concurrent){
+					_pagingController.recyclePageData(data);
+				}
+			}
+		}
+		
+		@Override
+		public final byte getAt(int index) {
+			return getData()[index];
+		}
+		@Override
 		public final void setAt(int index, byte byteValue) {
-			{//synchronized (this) {
+			if(_concurrent){
+				while(true){
+					byte[] data = getData();
+					synchronized (this) {
+						if(data == _data){ // retry if page got evicted after it was loaded
+							data[index] = byteValue;
+							markDirty();
+							return;
+						}
+					}
+				}
+			}else{
 				getData()[index] = byteValue;
-				_dirty = true;
+				markDirty();
 			}
 		}
 
+		@Override
 		public final int copyToBytes(int index, byte[] destBytes, int destStartIndex, int length) { // copy data to a byte array
-			int allowedLen = Math.min(length, (int)(TwoByteStorageSize-index)); // length of data which can be copied from this page
-			{//synchronized (this) {
-				System.arraycopy(getData(), index, destBytes, destStartIndex, allowedLen);
-			}
+			int allowedLen = Math.min(length, (_pageSize-index)); // length of data which can be copied from this page
+			System.arraycopy(getData(), index, destBytes, destStartIndex, allowedLen);
 			return allowedLen;
 		}
 		
+		@Override
 		public final int copyFromBytes(int index, byte[] srcBytes, int srcStartIndex, int length) {
-			int allowedLen = Math.min(length, (int)(TwoByteStorageSize-index)); // length of data which can be copied from this page
-			{//synchronized (this) {
+			int allowedLen = Math.min(length, (_pageSize-index)); // length of data which can be copied from this page
+			if(_concurrent){
+				while(true){
+					byte[] data = getData();
+					synchronized (this) {
+						if(data == _data){ // retry if page got evicted after it was loaded
+							System.arraycopy(srcBytes, srcStartIndex, data, index, allowedLen);
+							markDirty();
+							break;
+						}
+					}
+				}
+			}else{
 				System.arraycopy(srcBytes, srcStartIndex, getData(), index, allowedLen);
-
-				_dirty = true;
+				markDirty();
 			}
 			return allowedLen;
 		}
 
-		public final void swap(double thresKeepPriority) {
-			{//synchronized (this) {
-				if(getKeepPriority() <= thresKeepPriority){
-					if(_dirty){ // write to disk only if in memory and on disk are not in sync
-						try {
-							if(_swapPos < 0){
-								_swapPos = _swapFile.length();
-							}
-							_swapFile.seek(_swapPos);
-							_swapFile.write(_data);
-							_dirty = false; // data in sync => dirty is false
-						} catch (IOException e) {
-							// we are logging this error but ignoring any action since this will not prevent the application
-							// from running unless it is out of memory so we will continue until out of memory
-							logger.warn(e);   
+		private final void markDirty() {
+			DirtyHandle.setRelease(this, true); // plain store on common hardware
+		}
+		@Override
+		public final boolean equalsBytes(int index, byte[] bytes, int startIndex, int length) {
+			return Arrays.equals(getData(), index, index + length, bytes, startIndex, startIndex + length);
+		}
+		@Override
+		public final long getLongAt(int index) {
+			return (long)LongLE.get(getData(), index);
+		}
+		@Override
+		public final void setLEAt(int index, long value, int size) {
+			if(_concurrent){
+				while(true){
+					byte[] data = getData();
+					synchronized (this) {
+						if(data == _data){ // retry if page got evicted after it was loaded
+							putLE(data, index, value, size);
+							markDirty();
+							return;
+						}
+					}
+				}
+			}else{
+				putLE(getData(), index, value, size);
+				markDirty();
+			}
+		}
+		@Override
+		public final int writeTo(int index, int length, OutputStream out) throws IOException {
+			out.write(getData(), index, length);
+			return length;
+		}
+		@Override
+		public final int writeTo(int index, int length, WritableByteChannel channel) throws IOException {
+			return writeFully(ByteBuffer.wrap(getData(), index, length), channel);
+		}
+		private final void putLE(byte[] data, int index, long value, int size) {
+			if(size == Long.BYTES){
+				LongLE.set(data, index, value);
+			}else{
+				if(size >= Integer.BYTES){
+					IntLE.set(data, index, (int)value);
+					index += Integer.BYTES;
+					size -= Integer.BYTES;
+					value >>>= Integer.SIZE;
+				}
+				for(; size>0; --size){
+					data[index++] = (byte)value;
+					value >>>= Byte.SIZE;
+				}
+			}
+		}
+
+		// returns true if the data was written; caller holds the page lock
+		private final boolean writeData() {
+			if((boolean)DirtyHandle.getAndSet(this, false)){ // write to disk only if in memory and on disk are not in sync
+				try {
+					byte[] src = _data;
+					int length = _pageSize;
+					if(_compressSwap){
+						long start = System.nanoTime();
+						byte[] buffer = Lz4Codec.buffer(_pageSize);
+						int compressedLength = Lz4Codec.compress(src, _pageSize, buffer, _pageSize - SwapSpace.BlockSize);
+						if(compressedLength >= 0){
+							src = buffer;
+							length = compressedLength;
 						}
+						_pagingController.recordCompression(_pageSize, length, System.nanoTime() - start);
 					}
-					if(!_dirty){
-						_data = null; // it is safe to set data null only if data is synced to disk
+					if(_swapPos >= 0 && _swapLength != length){ // slot has the length of the data in it
+						_swapSpace.free(_swapPos);
+						_swapPos = -1;
+					}
+					if(_swapPos < 0){
+						_swapPos = _swapSpace.allocate(length, this);
+						_swapLength = length;
+					}
+					_swapSpace.write(_swapPos, src, 0, length);
+					return true;
+				} catch (IOException e) {
+					// we are logging this error but ignoring any action since this will not prevent the application
+					// from running unless it is out of memory so we will continue until out of memory
+					DirtyHandle.setVolatile(this, true);
+					logger.warn(e);   
+				}
+			}
+			return false;
+		}
+
+		// returns true if the page data is not in memory anymore
+		@Override
+		public final synchronized boolean swapOut() {
+			if(_data != null && writeData()){
+				_pagingController.recordPageWrite(); // written by the thread which hit the budget, i.e. page writer is behind
+			}
+			if(!(boolean)DirtyHandle.getVolatile(this) && _data != null){
+				if(!_concurrent){
+					_pagingController.recyclePageData(_data); // evicted array is handed over to next page fault instead of allocating new one
+				}
+				_data = null; // it is safe to set data null only if data is synced to disk
+				_swappedOut = true;
+			}
+			return (_data == null);
+		}
+
+		// called by the page writer thread, page stays in memory and clean so that eviction can drop it without writing
+		@Override
+		public final synchronized boolean writeBehind() {
+			return (_data != null && writeData());
+		}
+
+		// called by swap space while compacting
+		@Override
+		public final synchronized void relocate(long position) {
+			if(_swapPos == position){
+				try {
+					long newPosition = _swapSpace.move(position, this);
+					if(newPosition >= 0){
+						_swapPos = newPosition;
 					}
+				} catch (IOException e) {
+					logger.warn(e);
 				}
 			}
 		}
 
-		public final double getKeepPriority() {
-			return (isInMemory() ? _accessNo : Double.MAX_VALUE);
+		@Override
+		public final int getPageSize() {
+			return _pageSize;
 		}
+		@Override
+		public final boolean wasSwappedOut() {
+			return _swappedOut;
+		}
+		@Override
+		public final boolean clearReferenced() {
+			boolean referenced = _referenced;
+			_referenced = false;
+			return referenced;
+		}
+		@Override
+		public final int getSlot() {
+			return _slot;
+		}
+		@Override
+		public final void setSlot(int slot) {
+			_slot = slot;
+		}
+		@Override
+		public final WeakReference<PagingController.Page> getReference() {
+			return _reference;
+		}
+		@Override
 		public final boolean isInMemory() {
-			{//synchronized (this) {
-				return (_data != null);
-			}
+			return (_data != null);
 		}
 		private final byte[] getData(){
-			ensureDataAllocation();
+			byte[] data = _data;
+			if(_useFilePaging){
+				if(data == null){
+					data = loadData(); // counted as miss by controller
+					if(!_concurrent){
+						_lastTouchedPage = this;
+					}
+				}else if(_concurrent){
+					if(!_referenced){ // readers only set the reference bit, no shared state is written on a hit
+						_referenced = true;
+						_pagingController.recordHit();
+					}
+				}else if(_lastTouchedPage != this){
+					_lastTouchedPage = this;
+					_referenced = true;
+					_pagingController.touch(this);
+				}
+			}
 			
-			return _data;
+			return data;
 		}
-		private final void ensureDataAllocation() {
-			if(_useFilePaging){
-				_accessNo = (++ _accessCounter);
-				if(_data == null){
+		// paging controller locks pages while it holds its own lock, so controller must never be called with page lock held
+		private final byte[] loadData() {
+			byte[] newData = (_concurrent ? null : _pagingController.reusePageData(_pageSize));
+			if(newData == null){
+				newData = new byte[_pageSize];
+			}
+			byte[] data;
+			synchronized (this) { // page is loaded once even if many readers fault on it together
+				data = _data;
+				if(data == null){
 					try {
-						byte[] data = createPageData();
-						_swapFile.seek(_swapPos);
-						_swapFile.read(data);
-						assignPageData(data);
+						if(_swapPos < 0){ // page was evicted before anything was written to it
+							Arrays.fill(newData, (byte)0);
+						}else if(_swapLength < _pageSize){
+							long start = System.nanoTime();
+							byte[] buffer = Lz4Codec.buffer(_swapLength);
+							_swapSpace.read(_swapPos, buffer, 0, _swapLength);
+							Lz4Codec.decompress(buffer, _swapLength, newData, _pageSize);
+							_pagingController.recordDecompression(System.nanoTime() - start);
+						}else{
+							_swapSpace.read(_swapPos, newData, 0, newData.length); // whole page is overwritten so no need to clear it
+						}
+						_data = data = newData;
+						_referenced = true;
+						newData = null;
 					} catch (IOException e) {
 						// we are ignoring this exception and let the application get NPE later
 						logger.warn(e);
@@ -281,75 +894,214 @@ public final class ByteBigArrayList { // TODO: as of now this class is not ready
 					}
 				}
 			}
-		}
-
-		private final void assignPageData(byte[] data) {
-			_data = data;
-			if(_useFilePaging){
-				_accessNo = (++ _accessCounter);
+			if(data != null && newData == null){
 				_pagingController.addDataPage(this);
 			}
+			return data;
 		}
 	}
 
-	private final static class PagingController { // TODO: for async processing we can use a thread pool of single thread and can be launched as on required basis
-		private static final int magicPageCount;
-		private static final int maxInMemPageCount;
-		static {
-			Runtime rt = Runtime.getRuntime();
-			maxInMemPageCount = (int)((MemoryThreshold*rt.maxMemory())/(100*TwoByteStorageSize));
-			int configuredMagicPageCount = 127;  // TODO: should be configurable. number of pages to swap and no of pages after which memory check will happen
-			magicPageCount = Math.min(maxInMemPageCount/2, configuredMagicPageCount); // MagicPageCount should be at max half of maxInMemPageCount
+	private static final PagingController _globalPagingController = new PagingController(
+			Config.memoryThresholdToBudget(Integer.getInteger(Config.PropertyPrefix + "memoryThreshold", Config.DefaultMemoryThreshold)),
+			Integer.getInteger(Config.PropertyPrefix + "evictionBatch", Config.DefaultEvictionBatchSize),
+			Config.toEviction(System.getProperty(Config.PropertyPrefix + "evictionPolicy", "clock")),
+			Integer.getInteger(Config.PropertyPrefix + "writeBehindWatermark", Config.DefaultWriteBehindWatermark));
+	
+	// settings of an instance. every setting which is not given to the builder is taken from system property
+	// paramak.bigarray.<name> and then from the default
+	public static final class Config {
+		static final String PropertyPrefix = "paramak.bigarray.";
+		static final int DefaultPageSize = 1 << 16;
+		static final int MinPageSize = 1 << 10;
+		static final int MaxPageSize = 1 << 24;
+		static final int DefaultMemoryThreshold = 70;
+		static final int DefaultEvictionBatchSize = 127;
+		static final int DefaultWriteBehindWatermark = 80;
+		static final int MinPagesPerShare = 4;
+		
+		final int _pageBitSize;
+		final PageStorage _storage;
+		final PageBackend.Factory _backendFactory;
+		final SwapSpace _swapSpace;
+		final boolean _concurrent;
+		final long _memoryBudget;
+		final int _evictionBatchSize;
+		final PageEviction _eviction;
+		final int _writeBehindWatermark;
+		final boolean _compression;
+		
+		private Config(Builder builder) {
+			_pageBitSize = builder._pageBitSize;
+			_storage = builder._storage;
+			_backendFactory = builder._backendFactory;
+			_swapSpace = builder._swapSpace;
+			_concurrent = builder._concurrent;
+			_memoryBudget = builder._memoryBudget;
+			_evictionBatchSize = builder._evictionBatchSize;
+			_eviction = builder._eviction;
+			_writeBehindWatermark = builder._writeBehindWatermark;
+			_compression = builder._compression;
 		}
 		
-		private ArrayList<WeakReference<DataPage>> _inMemoryPages = new ArrayList<>();
-
-		public void addDataPage(DataPage dataPage) {
-			WeakReference<DataPage> weakRef = new WeakReference<ByteBigArrayList.DataPage>(dataPage);
-			{//synchronized (this) {
-				_inMemoryPages.add(weakRef);
-			}
-			if(_inMemoryPages.size() % magicPageCount == 0){
-				runPagingIfRequired();
+		public static Config defaults() {
+			return builder().build();
+		}
+		public static Builder builder() {
+			return new Builder();
+		}
+		// builder with the settings of this config
+		public Builder toBuilder() {
+			Builder builder = new Builder();
+			builder._pageBitSize = _pageBitSize;
+			builder._storage = _storage;
+			builder._backendFactory = _backendFactory;
+			builder._swapSpace = _swapSpace;
+			builder._concurrent = _concurrent;
+			builder._memoryBudget = _memoryBudget;
+			builder._evictionBatchSize = _evictionBatchSize;
+			builder._eviction = _eviction;
+			builder._writeBehindWatermark = _writeBehindWatermark;
+			builder._compression = _compression;
+			return builder;
+		}
+		// for one of shares instances which are filled on threads of their own, e.g. the chunks of a parallel load: every one
+		// gets a controller with its share of the budget (the global one if there is no own), so that its pages are only
+		// evicted by the thread which uses it. pages of a single threaded instance are swapped out without lock
+		Config withBudgetShare(int shares) {
+			long budget = (_memoryBudget > 0 ? _memoryBudget : _globalPagingController.getMemoryBudget());
+			if(budget <= 0){
+				return this; // nothing is paged
 			}
+			Builder builder = toBuilder();
+			builder._memoryBudget = Math.max(budget/shares, (long)MinPagesPerShare << _pageBitSize);
+			return builder.build();
 		}
-		private int clearUnqualified(){
-			{//synchronized (this) {
-				_inMemoryPages.removeIf(wr -> !isQualified(wr.get()));
+		
+		public int getPageSize() {
+			return 1 << _pageBitSize;
+		}
+		public PageStorage getStorage() {
+			return _storage;
+		}
+		public boolean isConcurrent() {
+			return _concurrent;
+		}
+		public long getMemoryBudget() {
+			return _memoryBudget;
+		}
+		public int getEvictionBatchSize() {
+			return _evictionBatchSize;
+		}
+		public PageEviction getEviction() {
+			return _eviction;
+		}
+		public int getWriteBehindWatermark() {
+			return _writeBehindWatermark;
+		}
+		public boolean isCompression() {
+			return _compression;
+		}
+		
+		// backend of the shared swap space
+		static PageBackend.Factory defaultBackendFactory() {
+			return ("mapped".equalsIgnoreCase(System.getProperty(PropertyPrefix + "backend", "file")) ? MappedPageBackend::createTempFile : FilePageBackend::createTempFile);
+		}
+		static long memoryThresholdToBudget(int memoryThresholdPercent) {
+			return (memoryThresholdPercent > 0 ? (memoryThresholdPercent*Runtime.getRuntime().maxMemory())/100 : 0);
+		}
+		static PageEviction toEviction(String eviction) {
+			PageEviction pageEviction = PageEviction.CLOCK;
+			if("lru".equalsIgnoreCase(eviction)){
+				pageEviction = PageEviction.LRU;
+			}else if("2q".equalsIgnoreCase(eviction) || "two_queue".equalsIgnoreCase(eviction)){
+				pageEviction = PageEviction.TWO_QUEUE;
 			}
-			
-			return _inMemoryPages.size();
+			return pageEviction;
 		}
-		private boolean isQualified(DataPage dataPage) {
-			return (dataPage != null && dataPage.isInMemory()); // only in memory data pages are qualified for paging
+		private static int toPageBitSize(int pageSize) {
+			if(pageSize < MinPageSize || pageSize > MaxPageSize || Integer.bitCount(pageSize) != 1){
+				throw new IllegalArgumentException(String.format("Page size %d is not a power of two in range [%d, %d].", pageSize, MinPageSize, MaxPageSize));
+			}
+			return Integer.numberOfTrailingZeros(pageSize);
 		}
 		
-		private /*synchronized */void runPagingIfRequired() {
-			if(_inMemoryPages.size() > 0){
-				if(maxInMemPageCount < _inMemoryPages.size() // threshold is reached 
-						&& maxInMemPageCount < clearUnqualified()){ // threshold is reached even after clean up
-					List<DataPage> inMemoryPages = null;
-					{//synchronized (this) {
-						inMemoryPages = _inMemoryPages.stream().map(wr->wr.get()).filter(dp-> isQualified(dp)).collect(Collectors.toList());
-					}
-
-					int pagesToPersist = Math.max(inMemoryPages.size() - maxInMemPageCount, magicPageCount);
-					if(pagesToPersist > 0){
-						List<Double> priorityList = inMemoryPages.stream().map(dp->dp.getKeepPriority()).sorted().collect(Collectors.toList());
-						double thresKeepPriority = (priorityList.get(pagesToPersist-1));
-						logger.debug("Freeing {} pages.", pagesToPersist);
-						for(DataPage dp:inMemoryPages){
-							dp.swap(thresKeepPriority);
-						}
-						clearUnqualified(); // clean the list
-					}				
-
+		public static final class Builder {
+			private int _pageBitSize = toPageBitSize(Integer.getInteger(PropertyPrefix + "pageSize", DefaultPageSize));
+			private PageStorage _storage = ("direct".equalsIgnoreCase(System.getProperty(PropertyPrefix + "storage", "heap")) ? PageStorage.DIRECT : PageStorage.HEAP);
+			private PageBackend.Factory _backendFactory = null; // shared swap space
+			private SwapSpace _swapSpace = null;
+			private boolean _concurrent = Boolean.getBoolean(PropertyPrefix + "concurrent");
+			private long _memoryBudget = Long.getLong(PropertyPrefix + "memoryBudget", 0);
+			private int _evictionBatchSize = Integer.getInteger(PropertyPrefix + "evictionBatch", DefaultEvictionBatchSize);
+			private PageEviction _eviction = toEviction(System.getProperty(PropertyPrefix + "evictionPolicy", "clock"));
+			private int _writeBehindWatermark = Integer.getInteger(PropertyPrefix + "writeBehindWatermark", DefaultWriteBehindWatermark);
+			private boolean _compression = Boolean.getBoolean(PropertyPrefix + "compression");
+			
+			private Builder() {
+			}
+			
+			// power of two between 1KB and 16MB
+			public Builder pageSize(int pageSize) {
+				_pageBitSize = toPageBitSize(pageSize);
+				return this;
+			}
+			public Builder storage(PageStorage storage) {
+				_storage = storage;
+				return this;
+			}
+			// instance gets a swap space of its own on a backend from the factory, closed together with the instance
+			public Builder backend(PageBackend.Factory backendFactory) {
+				_backendFactory = backendFactory;
+				_swapSpace = null;
+				return this;
+			}
+			// space shared with other instances, the caller closes it
+			public Builder swapSpace(SwapSpace swapSpace) {
+				_swapSpace = swapSpace;
+				_backendFactory = null;
+				return this;
+			}
+			public Builder concurrent(boolean concurrent) {
+				_concurrent = concurrent;
+				return this;
+			}
+			// bytes of heap pages this instance can keep in memory; 0 shares the global budget set by memory threshold
+			public Builder memoryBudget(long memoryBudget) {
+				_memoryBudget = memoryBudget;
+				return this;
+			}
+			public Builder evictionBatchSize(int evictionBatchSize) {
+				if(evictionBatchSize <= 0){
+					throw new IllegalArgumentException("Eviction batch size has to be positive.");
 				}
-				
-				logger.debug("Total occupied memory by byte arrays: {} MB", (_inMemoryPages.size()*TwoByteStorageSize/(1024*1024)));
+				_evictionBatchSize = evictionBatchSize;
+				return this;
+			}
+			
+			// policy of the instance's own controller, i.e. only used together with memoryBudget
+			public Builder eviction(PageEviction eviction) {
+				_eviction = eviction;
+				return this;
+			}
+			// percentage of the memory budget from where the page writer thread writes dirty pages ahead of eviction; 0 turns it
+			// off and pages are written only by the thread which hits the budget. only used together with memoryBudget
+			public Builder writeBehindWatermark(int watermarkPercent) {
+				if(watermarkPercent > 100){
+					throw new IllegalArgumentException("Write behind watermark is a percentage of the memory budget.");
+				}
+				_writeBehindWatermark = watermarkPercent;
+				return this;
+			}
+			// swapped pages are lz4 compressed, worth it for text which is most of an xml document. a page which does not
+			// save at least one swap block is stored as it is
+			public Builder compression(boolean compression) {
+				_compression = compression;
+				return this;
+			}
+			
+			public Config build() {
+				return new Config(this);
 			}
 		}
 	}
-
-	static final PagingController _pagingController = new PagingController();
 }
@@ -0,0 +1,246 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+// dense encoding of the nodes of a document, written once by OurXMLDoc.copyCompact in document order. instead of fixed
+// slots of absolute handles a node has var ints and flags, a next sibling is where the node ends and a first attribute
+// or child is where its parent ends. the type byte has the high bit set, the class of the node (as in OurXMLDoc) in the
+// low bits and flags:
+//	element:	type tagRef [namespace] [after] [attributes] attribute* child*
+//				namespace is the ref of the namespace uri, there if the element is in one; after is the number of bytes of the attributes and children, there if the element has a next sibling and
+//				attributes or children; attributes is the number of bytes of the attributes, there if it has both
+//	attribute:	type nameRef value
+//	text:		type value
+// a value is a string as ObjectStore stores it (var int length, utf-8 bytes), so its handle is its position, or with
+// SharedValue the handle of a string in the pool of repeated strings before the nodes
+final class CompactLayout {
+	static final int CompactType = 0x80;
+	static final int ClassMask = 0x03;
+	static final int AttributeClass = 1, ElementClass = 2, TextClass = 3; // ObjectClasses of OurXMLDoc
+	static final int HasNext = 0x04;
+	static final int HasAttributes = 0x08;	// element
+	static final int HasChildren = 0x10;	// element
+	static final int HasNamespace = 0x20;	// element
+	static final int SharedValue = 0x08;	// attribute and text
+
+	private CompactLayout() {
+	}
+
+	// the decoders take the fields of a node from its first 8 bytes (ObjectStore.getWord), which have all of the header
+	// but for large values. the rare header which is longer is read byte by byte
+	static long getNext(ObjectStore store, long node, long word) {
+		int type = (int)word & 0xff;
+		if((type & HasNext) == 0){
+			return 0;
+		}
+		int pos = ((type & ClassMask) == TextClass ? 1 : skip(word, 1)); // tag or name ref
+		long after;
+		if((type & ClassMask) == ElementClass){
+			if((type & HasNamespace) != 0){
+				pos = skip(word, pos);
+			}
+			if((type & (HasAttributes | HasChildren)) == 0){
+				after = 0;
+			}else{
+				int end = skip(word, pos);
+				after = read(word, pos, end);
+				pos = end;
+				if((type & (HasAttributes | HasChildren)) == (HasAttributes | HasChildren)){
+					pos = skip(word, pos);
+				}
+			}
+		}else if((type & SharedValue) != 0){
+			after = 0;
+			pos = skip(word, pos);
+		}else{
+			int end = skip(word, pos);
+			after = read(word, pos, end); // length of the value
+			pos = end;
+		}
+		return (pos <= Long.BYTES ? node + pos + after : getNextSlow(store, node, type));
+	}
+	// of an element, NoRef if it is in no namespace
+	static int getNamespaceRef(ObjectStore store, long node, long word) {
+		if((word & HasNamespace) == 0){
+			return NameDictionary.NoRef;
+		}
+		int pos = skip(word, 1);
+		int end = skip(word, pos);
+		return (end <= Long.BYTES ? (int)read(word, pos, end) : (int)store.readVarInt(store.skipVarInt(node + 1)));
+	}
+	static int getNameRef(ObjectStore store, long node, long word) {
+		int end = skip(word, 1);
+		return (end <= Long.BYTES ? (int)read(word, 1, end) : (int)store.readVarInt(node + 1));
+	}
+	static long getAttribPtr(ObjectStore store, long node, long word) {
+		int type = (int)word & 0xff;
+		if((type & HasAttributes) == 0){
+			return 0;
+		}
+		int pos = skip(word, 1);
+		if((type & HasNamespace) != 0){
+			pos = skip(word, pos);
+		}
+		if((type & HasNext) != 0){
+			pos = skip(word, pos); // after
+		}
+		if((type & HasChildren) != 0){
+			pos = skip(word, pos); // attributes
+		}
+		return (pos <= Long.BYTES ? node + pos : getAttribPtrSlow(store, node, type));
+	}
+	static long getChildPtr(ObjectStore store, long node, long word) {
+		int type = (int)word & 0xff;
+		if((type & HasChildren) == 0){
+			return 0;
+		}
+		int pos = skip(word, 1);
+		if((type & HasNamespace) != 0){
+			pos = skip(word, pos);
+		}
+		if((type & HasNext) != 0){
+			pos = skip(word, pos); // after
+		}
+		long attributes = 0;
+		if((type & HasAttributes) != 0){
+			int end = skip(word, pos);
+			attributes = read(word, pos, end);
+			pos = end;
+		}
+		return (pos <= Long.BYTES ? node + pos + attributes : getChildPtrSlow(store, node, type));
+	}
+	// of an attribute or a text node
+	static long getValueHandle(ObjectStore store, long node, long word) {
+		int type = (int)word & 0xff;
+		int pos = ((type & ClassMask) == AttributeClass ? skip(word, 1) : 1);
+		if((type & SharedValue) == 0){
+			return (pos <= Long.BYTES ? node + pos : store.skipVarInt(node + 1));
+		}
+		int end = skip(word, pos);
+		if(end <= Long.BYTES){
+			return read(word, pos, end);
+		}
+		return store.readVarInt((type & ClassMask) == AttributeClass ? store.skipVarInt(node + 1) : node + 1);
+	}
+	
+	// position after the var int at byte pos of word, more than 8 if it does not end in word
+	private static int skip(long word, int pos) {
+		long ends = (pos < Long.BYTES ? ~word & (0x8080808080808080L << (pos*Byte.SIZE)) : 0); // bytes without a continuation bit
+		return (ends != 0 ? (Long.numberOfTrailingZeros(ends) >>> 3) + 1 : Long.BYTES + 1);
+	}
+	// var int from byte pos of word to end, as skip has found it; the 7 bit groups of its bytes are put together
+	private static long read(long word, int pos, int end) {
+		long bytes = (word >>> (pos*Byte.SIZE)) & (-1L >>> ((Long.BYTES - end + pos)*Byte.SIZE));
+		return (bytes & 0x7fL) | (bytes >>> 1 & 0x7fL << 7) | (bytes >>> 2 & 0x7fL << 14) | (bytes >>> 3 & 0x7fL << 21)
+				| (bytes >>> 4 & 0x7fL << 28) | (bytes >>> 5 & 0x7fL << 35) | (bytes >>> 6 & 0x7fL << 42) | (bytes >>> 7 & 0x7fL << 49);
+	}
+	
+	private static long getNextSlow(ObjectStore store, long node, int type) {
+		if((type & ClassMask) == TextClass){
+			return endOfValue(store, type, node + 1);
+		}
+		long pos = store.skipVarInt(node + 1);
+		if((type & ClassMask) == AttributeClass){
+			return endOfValue(store, type, pos);
+		}
+		if((type & HasNamespace) != 0){
+			pos = store.skipVarInt(pos);
+		}
+		if((type & (HasAttributes | HasChildren)) == 0){
+			return pos;
+		}
+		long after = store.readVarInt(pos);
+		pos = store.skipVarInt(pos);
+		if((type & (HasAttributes | HasChildren)) == (HasAttributes | HasChildren)){
+			pos = store.skipVarInt(pos);
+		}
+		return pos + after;
+	}
+	private static long endOfValue(ObjectStore store, int type, long pos) {
+		if((type & SharedValue) != 0){
+			return store.skipVarInt(pos);
+		}
+		long length = store.readVarInt(pos);
+		return pos + ObjectStore.varIntSize(length) + length;
+	}
+	private static long getAttribPtrSlow(ObjectStore store, long node, int type) {
+		long pos = store.skipVarInt(node + 1);
+		if((type & HasNamespace) != 0){
+			pos = store.skipVarInt(pos);
+		}
+		if((type & HasNext) != 0){
+			pos = store.skipVarInt(pos);
+		}
+		return ((type & HasChildren) != 0 ? store.skipVarInt(pos) : pos);
+	}
+	private static long getChildPtrSlow(ObjectStore store, long node, int type) {
+		long pos = store.skipVarInt(node + 1);
+		if((type & HasNamespace) != 0){
+			pos = store.skipVarInt(pos);
+		}
+		if((type & HasNext) != 0){
+			pos = store.skipVarInt(pos);
+		}
+		if((type & HasAttributes) == 0){
+			return pos;
+		}
+		long attributes = store.readVarInt(pos);
+		return store.skipVarInt(pos) + attributes;
+	}
+	
+	// bytes of the header of an element, which has its attributes and children right after it
+	static int elementHeaderSize(int tagRef, int namespaceRef, boolean hasNext, long attributes, long children) {
+		int size = 1 + ObjectStore.varIntSize(tagRef);
+		if(namespaceRef != NameDictionary.NoRef){
+			size += ObjectStore.varIntSize(namespaceRef);
+		}
+		if(hasNext && attributes + children > 0){
+			size += ObjectStore.varIntSize(attributes + children);
+		}
+		if(attributes > 0 && children > 0){
+			size += ObjectStore.varIntSize(attributes);
+		}
+		return size;
+	}
+	static int writeElementHeader(byte[] dest, int pos, int tagRef, int namespaceRef, boolean hasNext, long attributes, long children) {
+		dest[pos++] = (byte)(CompactType | ElementClass | (namespaceRef != NameDictionary.NoRef ? HasNamespace : 0) | (hasNext ? HasNext : 0)
+				| (attributes > 0 ? HasAttributes : 0) | (children > 0 ? HasChildren : 0));
+		pos = ObjectStore.putVarInt(tagRef, dest, pos);
+		if(namespaceRef != NameDictionary.NoRef){
+			pos = ObjectStore.putVarInt(namespaceRef, dest, pos);
+		}
+		if(hasNext && attributes + children > 0){
+			pos = ObjectStore.putVarInt(attributes + children, dest, pos);
+		}
+		if(attributes > 0 && children > 0){
+			pos = ObjectStore.putVarInt(attributes, dest, pos);
+		}
+		return pos;
+	}
+	// an attribute for nameRef >= 0, else a text node; the value is either a shared handle or length bytes to follow
+	static int valueNodeHeaderSize(int nameRef, long sharedHandle, int length) {
+		int size = 1 + (nameRef >= 0 ? ObjectStore.varIntSize(nameRef) : 0);
+		return size + (sharedHandle >= 0 ? ObjectStore.varIntSize(sharedHandle) : ObjectStore.varIntSize(length));
+	}
+	static int writeValueNodeHeader(byte[] dest, int pos, int nameRef, boolean hasNext, long sharedHandle, int length) {
+		dest[pos++] = (byte)(CompactType | (nameRef >= 0 ? AttributeClass : TextClass) | (hasNext ? HasNext : 0) | (sharedHandle >= 0 ? SharedValue : 0));
+		if(nameRef >= 0){
+			pos = ObjectStore.putVarInt(nameRef, dest, pos);
+		}
+		return ObjectStore.putVarInt(sharedHandle >= 0 ? sharedHandle : length, dest, pos);
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+// open addressing (linear probing) table of stored strings: full 64 bit content hash and store handle side by side in one
+// long array, so a probe touches one cache line and nothing is boxed. handle 0 marks an empty slot, 0 is never a valid
+// handle in ObjectStore. the caller probes and compares the bytes, the table only keeps hashes and handles:
+//	for(int slot = slotFor(hash); handleAt(slot) != 0; slot = nextSlot(slot)) ... put(slot, hash, handle)
+final class DedupIndex {
+	private static final int InitialCapacity = 1 << 12;
+	private static final long Seed = 0x9e3779b97f4a7c15L;
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private static final VarHandle LongLE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private long[] _table = new long[2*InitialCapacity]; // hash at 2*slot, handle at 2*slot+1
+	private int _mask = InitialCapacity - 1;
+	private int _size = 0;
+	private long _lastHandle = 0; // handles are added in increasing order
+
+	// murmur3 style mixing of 8 bytes at a time with the murmur3 finalizer
+	static long hash(byte[] bytes, int startIndex, int length) {
+		long h = Seed ^ (length * C1);
+		int i = 0;
+		for(; i + Long.BYTES <= length; i += Long.BYTES){
+			h ^= mixKey((long)LongLE.get(bytes, startIndex + i));
+			h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+		}
+		if(i < length){
+			long k = 0;
+			for(int j=length-1; j>=i; --j){
+				k = (k << 8) | (bytes[startIndex + j] & 0xffL);
+			}
+			h ^= mixKey(k);
+		}
+		h ^= length;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	private static long mixKey(long k) {
+		k *= C1;
+		k = Long.rotateLeft(k, 31);
+		return k * C2;
+	}
+
+	int slotFor(long hash) {
+		return (int)hash & _mask;
+	}
+	int nextSlot(int slot) {
+		return (slot + 1) & _mask;
+	}
+	long hashAt(int slot) {
+		return _table[2*slot];
+	}
+	long handleAt(int slot) {
+		return _table[2*slot + 1];
+	}
+	// slot has to be the empty slot where probing for hash stopped
+	void put(int slot, long hash, long handle) {
+		_table[2*slot] = hash;
+		_table[2*slot + 1] = handle;
+		_lastHandle = handle;
+		if(++_size > (_mask + 1)/2){ // at most half full keeps probe sequences short
+			resize();
+		}
+	}
+
+	// forgets the handles from position on, i.e. the strings of a store which is rewound to position
+	void removeFrom(long position) {
+		if(_lastHandle < position){
+			return;
+		}
+		long[] oldTable = _table;
+		_table = new long[oldTable.length];
+		_size = 0;
+		_lastHandle = 0;
+		for(int i=0; i<oldTable.length; i+=2){
+			long handle = oldTable[i+1];
+			if(handle != 0 && handle < position){
+				int slot = slotFor(oldTable[i]);
+				while(_table[2*slot + 1] != 0){
+					slot = nextSlot(slot);
+				}
+				_table[2*slot] = oldTable[i];
+				_table[2*slot + 1] = handle;
+				_lastHandle = Math.max(_lastHandle, handle);
+				++_size;
+			}
+		}
+	}
+
+	int size() {
+		return _size;
+	}
+	int capacity() {
+		return _mask + 1;
+	}
+	long memoryBytes() {
+		return (long)_table.length*Long.BYTES;
+	}
+
+	private void resize() {
+		long[] oldTable = _table;
+		int capacity = 2*(_mask + 1);
+		_table = new long[2*capacity];
+		_mask = capacity - 1;
+		for(int i=0; i<oldTable.length; i+=2){
+			if(oldTable[i+1] != 0){
+				int slot = slotFor(oldTable[i]);
+				while(_table[2*slot + 1] != 0){
+					slot = nextSlot(slot);
+				}
+				_table[2*slot] = oldTable[i];
+				_table[2*slot + 1] = oldTable[i+1];
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+// hands out off heap pages carved from large direct chunks. chunks are freed together on close()
+final class DirectPageArena {
+	private static final int ChunkPageCount = 64;
+
+	private final int _pageSize;
+	private final ArrayList<ByteBuffer> _chunks = new ArrayList<>();
+	private final ArrayDeque<ByteBuffer> _freePages = new ArrayDeque<>();
+	private ByteBuffer _currentChunk = null;
+	private int _nextPageOffset = 0;
+
+	DirectPageArena(int pageSize) {
+		_pageSize = pageSize;
+	}
+
+	ByteBuffer allocate() {
+		ByteBuffer page = _freePages.poll();
+		if(page != null){
+			for(int i=0; i<_pageSize; i+=Long.BYTES){ // reused page should look same as a new one
+				page.putLong(i, 0L);
+			}
+		}else{
+			if(_currentChunk == null || _nextPageOffset == _currentChunk.capacity()){
+				_currentChunk = ByteBuffer.allocateDirect(ChunkPageCount*_pageSize);
+				_chunks.add(_currentChunk);
+				_nextPageOffset = 0;
+			}
+			page = _currentChunk.slice(_nextPageOffset, _pageSize).order(ByteOrder.LITTLE_ENDIAN);
+			_nextPageOffset += _pageSize;
+		}
+		return page;
+	}
+
+	void free(ByteBuffer page) {
+		_freePages.push(page);
+	}
+
+	long allocatedBytes() {
+		return (long)_chunks.size()*ChunkPageCount*_pageSize;
+	}
+
+	void close() {
+		_freePages.clear();
+		_currentChunk = null;
+		for(ByteBuffer chunk:_chunks){
+			BufferCleaner.release(chunk);
+		}
+		_chunks.clear();
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.util.Arrays;
+
+import gnu.trove.list.array.TLongArrayList;
+
+// element handles of a loaded document by tag name ref: for every tag the elements in document order, and for every
+// element with element children a record in one long list, found by the handle of the element in an open addressing
+// table of keys and values side by side:
+//	subtree end, group count n, n group headers (tag ref << 32 | position of the first handle), end of the handles,
+//	then the handles of the children grouped by tag, in document order within a group
+// descendants of an element are a range of the list of a tag as long as handles grow in document order, which is how
+// the loaders allocate them
+final class ElementIndex {
+	private static final int InitialCapacity = 1 << 10;
+	private static final long Mix = 0x9e3779b97f4a7c15L;
+	
+	private final long _modifications; // of the document when it was indexed
+	private TLongArrayList[] _byTag;
+	private final TLongArrayList _records = new TLongArrayList();
+	private long[] _table = new long[2*InitialCapacity]; // handle at 2*slot, record at 2*slot+1, 0 is an empty slot
+	private int _mask = InitialCapacity - 1;
+	private int _size = 0;
+	private long _lastHandle = 0;
+	private boolean _documentOrder = true;
+	// children of the element being added
+	private long[] _childKeys = new long[16];
+	private long[] _childHandles = new long[16];
+	private int _childCount = 0;
+	
+	ElementIndex(int tagCount, long modifications) {
+		_byTag = new TLongArrayList[tagCount];
+		_modifications = modifications;
+	}
+	long getModifications() {
+		return _modifications;
+	}
+	
+	// in document order
+	void addElement(int tagRef, long handle) {
+		if(tagRef >= _byTag.length){
+			_byTag = Arrays.copyOf(_byTag, Math.max(tagRef + 1, 2*_byTag.length));
+		}
+		TLongArrayList handles = _byTag[tagRef];
+		if(handles == null){
+			handles = _byTag[tagRef] = new TLongArrayList();
+		}
+		handles.add(handle);
+		_documentOrder &= (handle > _lastHandle);
+		_lastHandle = handle;
+	}
+	// element children of an element, in order, then endChildren
+	void addChild(int tagRef, long handle) {
+		if(_childCount == _childKeys.length){
+			_childKeys = Arrays.copyOf(_childKeys, 2*_childCount);
+			_childHandles = Arrays.copyOf(_childHandles, 2*_childCount);
+		}
+		_childKeys[_childCount] = (long)tagRef << 32 | _childCount; // sorts by tag, then by order
+		_childHandles[_childCount++] = handle;
+	}
+	void endChildren(long parentHandle) {
+		if(_childCount == 0){
+			return;
+		}
+		Arrays.sort(_childKeys, 0, _childCount);
+		int groups = 1;
+		for(int i=1; i<_childCount; ++i){
+			groups += ((int)(_childKeys[i] >>> 32) != (int)(_childKeys[i-1] >>> 32) ? 1 : 0);
+		}
+		int record = _records.size();
+		put(parentHandle, record);
+		_records.add(parentHandle); // subtree end, set later
+		_records.add(groups);
+		int position = record + 3 + groups;
+		for(int i=0; i<_childCount; ++i){
+			if(i == 0 || (int)(_childKeys[i] >>> 32) != (int)(_childKeys[i-1] >>> 32)){
+				_records.add((_childKeys[i] >>> 32) << 32 | (position + i));
+			}
+		}
+		_records.add(position + _childCount);
+		for(int i=0; i<_childCount; ++i){
+			_records.add(_childHandles[(int)_childKeys[i]]);
+		}
+		_childCount = 0;
+	}
+	// last element in the subtree of handle
+	void setSubtreeEnd(long handle, long lastHandle) {
+		long record = get(handle);
+		if(record >= 0){
+			_records.setQuick((int)record, lastHandle);
+		}
+	}
+	
+	// elements with the tag in document order, null if there is none
+	TLongArrayList getElements(int tagRef) {
+		return (tagRef >= 0 && tagRef < _byTag.length ? _byTag[tagRef] : null);
+	}
+	// children of parent with the tag: positions of the first and after the last handle as first << 32 | end, -1 if
+	// there are none
+	long getChildRange(long parentHandle, int tagRef) {
+		long record = get(parentHandle);
+		if(record >= 0 && tagRef >= 0){
+			int headers = (int)record + 2;
+			for(int i=0, groups=(int)_records.getQuick((int)record + 1); i<groups; ++i){
+				long header = _records.getQuick(headers + i);
+				if((int)(header >>> 32) == tagRef){
+					return (header & 0xffffffffL) << 32 | (_records.getQuick(headers + i + 1) & 0xffffffffL);
+				}
+			}
+		}
+		return -1;
+	}
+	long getChild(int position) {
+		return _records.getQuick(position);
+	}
+	// last element in the subtree of handle, handle itself if it has no element children
+	long getSubtreeEnd(long handle) {
+		long record = get(handle);
+		return (record >= 0 ? _records.getQuick((int)record) : handle);
+	}
+	// whether descendants can be found by handle range
+	boolean isDocumentOrder() {
+		return _documentOrder;
+	}
+	// first position in the elements of the tag which is after handle
+	static int positionAfter(TLongArrayList elements, long handle) {
+		int low = 0;
+		int high = elements.size();
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(elements.getQuick(mid) <= handle){
+				low = mid + 1;
+			}else{
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	long memoryBytes() {
+		long bytes = (long)_table.length*Long.BYTES + (long)_records.size()*Long.BYTES;
+		for(TLongArrayList handles : _byTag){
+			bytes += (handles != null ? (long)handles.size()*Long.BYTES : 0);
+		}
+		return bytes;
+	}
+	
+	private int slotFor(long key) {
+		long h = key*Mix;
+		return (int)(h ^ (h >>> 32)) & _mask;
+	}
+	private long get(long key) {
+		for(int slot = slotFor(key); _table[2*slot] != 0; slot = (slot + 1) & _mask){
+			if(_table[2*slot] == key){
+				return _table[2*slot + 1];
+			}
+		}
+		return -1;
+	}
+	private void put(long key, long value) {
+		int slot = slotFor(key);
+		while(_table[2*slot] != 0){
+			slot = (slot + 1) & _mask;
+		}
+		_table[2*slot] = key;
+		_table[2*slot + 1] = value;
+		if(++_size > (_mask + 1)/2){
+			long[] oldTable = _table;
+			_table = new long[2*oldTable.length];
+			_mask = oldTable.length - 1;
+			for(int i=0; i<oldTable.length; i+=2){
+				if(oldTable[i] != 0){
+					int newSlot = slotFor(oldTable[i]);
+					while(_table[2*newSlot] != 0){
+						newSlot = (newSlot + 1) & _mask;
+					}
+					_table[2*newSlot] = oldTable[i];
+					_table[2*newSlot + 1] = oldTable[i + 1];
+				}
+			}
+		}
+	}
+}
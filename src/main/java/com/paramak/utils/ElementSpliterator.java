@@ -0,0 +1,229 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.InvalidClassException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+import gnu.trove.list.array.TLongArrayList;
+
+// split of OurXMLDoc.elementSpliterator(): a range of the element index list of a tag or a walk over subtrees
+final class ElementSpliterator implements Spliterator.OfLong {
+	static final int AnyTag = -2;
+	private static final int BatchUnit = 1 << 10;
+	private static final int MaxBatch = 1 << 25;
+	
+	private final OurXMLDoc _doc;
+	private final int _tagRef;
+	private final int _namespaceRef;	// OurXMLDoc.AnyNamespace with the index
+	// range of the index list of the tag
+	private final TLongArrayList _elements;
+	private int _position;
+	private int _end;
+	// walk: subtrees to visit, the next one on top. a positive entry is followed by its next siblings, a negative one
+	// is the subtree of its root only
+	private long[] _pending;
+	private int _pendingCount;
+	private long _first;		// match before the pending subtrees, 0 if none
+	private int _batch = 0;
+	
+	private final OurXMLDoc.Node _node;
+	private final OurXMLDoc.Element _ele;
+	
+	ElementSpliterator(OurXMLDoc doc, int tagRef, TLongArrayList elements, int position, int end){
+		_doc = doc;
+		_node = doc.new Node();
+		_ele = doc.new Element();
+		_tagRef = tagRef;
+		_namespaceRef = OurXMLDoc.AnyNamespace;
+		_elements = elements;
+		_position = position;
+		_end = end;
+	}
+	ElementSpliterator(OurXMLDoc doc, int tagRef, int namespaceRef, long[] pending, int pendingCount, long first){
+		_doc = doc;
+		_node = doc.new Node();
+		_ele = doc.new Element();
+		_tagRef = tagRef;
+		_namespaceRef = namespaceRef;
+		_elements = null;
+		_pending = pending;
+		_pendingCount = pendingCount;
+		_first = first;
+	}
+	
+	@Override
+	public boolean tryAdvance(LongConsumer action){
+		long handle;
+		if(_elements != null){
+			handle = (_position < _end ? _elements.getQuick(_position++) : 0);
+		}else if(_first > 0){
+			handle = _first;
+			_first = 0;
+		}else{
+			handle = nextMatch();
+		}
+		if(handle > 0){
+			action.accept(handle);
+			return true;
+		}
+		return false;
+	}
+	@Override
+	public void forEachRemaining(LongConsumer action){
+		if(_elements != null){
+			while(_position < _end){
+				action.accept(_elements.getQuick(_position++));
+			}
+			return;
+		}
+		if(_first > 0){
+			action.accept(_first);
+			_first = 0;
+		}
+		for(long handle = nextMatch(); handle > 0; handle = nextMatch()){
+			action.accept(handle);
+		}
+	}
+	private long nextMatch(){
+		try{
+			while(_pendingCount > 0){
+				long entry = _pending[--_pendingCount];
+				long nodePtr = Math.abs(entry);
+				_node.attachInstance(nodePtr);
+				if(entry > 0 && _node.getNextNodeHandle() > 0){
+					push(_node.getNextNodeHandle());
+				}
+				if(_node.getClassForInstance() == OurXMLDoc.Element.class){
+					_ele.attachUnchecked(nodePtr);
+					if(_ele.getChildPtr() > 0){
+						push(_ele.getChildPtr()); // before the next sibling
+					}
+					if(matches()){
+						return nodePtr;
+					}
+				}
+			}
+			return 0;
+		}catch(InvalidClassException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+	private boolean matches(){
+		return (_tagRef == AnyTag || _ele.isOfType(_tagRef, _namespaceRef));
+	}
+	private void push(long entry){
+		if(_pendingCount == _pending.length){
+			_pending = Arrays.copyOf(_pending, Math.max(8, 2*_pendingCount));
+		}
+		_pending[_pendingCount++] = entry;
+	}
+	
+	// the split off part comes first in document order
+	@Override
+	public Spliterator.OfLong trySplit(){
+		if(_elements != null){
+			int middle = (_position + _end) >>> 1;
+			if(middle <= _position){
+				return null;
+			}
+			ElementSpliterator prefix = new ElementSpliterator(_doc, _tagRef, _elements, _position, middle);
+			_position = middle;
+			return prefix;
+		}
+		try{
+			if(_pendingCount == 1 && _pending[0] < 0 && _first == 0){
+				// a single subtree: its root, if it matches, and the list of its children
+				long nodePtr = -_pending[0];
+				_pendingCount = 0;
+				_node.attachInstance(nodePtr);
+				if(_node.getClassForInstance() == OurXMLDoc.Element.class){
+					_ele.attachUnchecked(nodePtr);
+					if(matches()){
+						_first = nodePtr;
+					}
+					if(_ele.getChildPtr() > 0){
+						push(_ele.getChildPtr());
+					}
+				}
+			}
+			if(_pendingCount == 0){
+				return null;
+			}
+			long[] prefix;
+			if(_pendingCount >= 2){
+				// everything above the bottom entry
+				prefix = Arrays.copyOfRange(_pending, 1, _pendingCount);
+				_pendingCount = 1;
+			}else if(_pending[0] > 0){
+				// a batch of subtrees of the sibling list, larger with every split
+				_batch = Math.min(_batch + BatchUnit, MaxBatch);
+				long[] roots = new long[Math.min(_batch, 4*BatchUnit)];
+				int count = 0;
+				long nodePtr = _pending[0];
+				for(int taken=0; nodePtr > 0 && taken < _batch; ++taken){
+					_node.attachInstance(nodePtr);
+					if(_node.getClassForInstance() == OurXMLDoc.Element.class){
+						if(count == roots.length){
+							roots = Arrays.copyOf(roots, 2*count);
+						}
+						roots[count++] = nodePtr;
+					}
+					nodePtr = _node.getNextNodeHandle();
+				}
+				if(nodePtr > 0){
+					_pending[0] = nodePtr;
+				}else{
+					_pendingCount = 0;
+				}
+				prefix = new long[count];
+				for(int i=0; i<count; ++i){
+					prefix[count - 1 - i] = -roots[i];
+				}
+			}else{
+				prefix = new long[0]; // only the pending match
+			}
+			ElementSpliterator split = new ElementSpliterator(_doc, _tagRef, _namespaceRef, prefix, prefix.length, _first);
+			_first = 0;
+			return split;
+		}catch(InvalidClassException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	// unknown while a sibling list is pending, else the number of subtrees and the pending match
+	@Override
+	public long estimateSize(){
+		if(_elements != null){
+			return _end - _position;
+		}
+		for(int i=0; i<_pendingCount; ++i){
+			if(_pending[i] > 0){
+				return Long.MAX_VALUE;
+			}
+		}
+		return _pendingCount + (_first > 0 ? 1 : 0);
+	}
+	@Override
+	public int characteristics(){
+		int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		return (_elements != null ? characteristics | Spliterator.SIZED | Spliterator.SUBSIZED : characteristics);
+	}
+}
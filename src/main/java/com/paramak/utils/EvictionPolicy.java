@@ -0,0 +1,258 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.util.Arrays;
+
+// orders the slots of resident pages of a PagingController. every operation is O(1) (amortized for clock) and uses only
+// primitive arrays. victim() does not remove the slot; controller either calls remove() after swapping the page out or
+// secondChance() if the page was referenced since it was last considered
+abstract class EvictionPolicy {
+	static final int NoSlot = -1;
+
+	abstract void ensureCapacity(int slotCapacity);
+	abstract void admit(int slot, boolean swappedBefore);
+	abstract void touch(int slot);
+	abstract void secondChance(int slot);
+	abstract void remove(int slot);
+	abstract int victim();
+	abstract int candidates(int[] slots);	// fills slots in the order victim() would return them, returns the count
+
+	static EvictionPolicy create(PageEviction eviction) {
+		switch(eviction){
+		case LRU:
+			return new Lru();
+		case TWO_QUEUE:
+			return new TwoQueue();
+		default:
+			return new Clock();
+		}
+	}
+
+	// reference bit of the page is kept by the page itself, so clock only has to walk over the resident slots
+	static final class Clock extends EvictionPolicy {
+		private boolean[] _resident = new boolean[0];
+		private int _residentCount = 0;
+		private int _hand = 0;
+
+		@Override
+		void ensureCapacity(int slotCapacity) {
+			if(_resident.length < slotCapacity){
+				_resident = Arrays.copyOf(_resident, slotCapacity);
+			}
+		}
+		@Override
+		void admit(int slot, boolean swappedBefore) {
+			_resident[slot] = true;
+			++_residentCount;
+		}
+		@Override
+		void touch(int slot) {
+			// nothing to do, reference bit is set by the page
+		}
+		@Override
+		void secondChance(int slot) {
+			// nothing to do, hand has already moved past the slot
+		}
+		@Override
+		void remove(int slot) {
+			_resident[slot] = false;
+			--_residentCount;
+		}
+		@Override
+		int victim() {
+			int slot = NoSlot;
+			if(_residentCount > 0){
+				while(!_resident[_hand]){
+					_hand = (_hand + 1 == _resident.length ? 0 : _hand + 1);
+				}
+				slot = _hand;
+				_hand = (_hand + 1 == _resident.length ? 0 : _hand + 1);
+			}
+			return slot;
+		}
+		@Override
+		int candidates(int[] slots) {
+			int count = 0;
+			if(_residentCount > 0){
+				int slot = _hand;
+				for(int i=0; i<_resident.length && count < slots.length; ++i){
+					if(_resident[slot]){
+						slots[count++] = slot;
+					}
+					slot = (slot + 1 == _resident.length ? 0 : slot + 1);
+				}
+			}
+			return count;
+		}
+	}
+
+	// doubly linked lists threaded through int arrays, a slot is in at most one list at a time
+	static final class SlotLists {
+		private int[] _prev = new int[0];
+		private int[] _next = new int[0];
+		private byte[] _listOf = new byte[0];
+		private final int[] _head;	// most recent end
+		private final int[] _tail;	// eviction end
+		private final int[] _size;
+
+		SlotLists(int listCount) {
+			_head = new int[listCount];
+			_tail = new int[listCount];
+			_size = new int[listCount];
+			Arrays.fill(_head, NoSlot);
+			Arrays.fill(_tail, NoSlot);
+		}
+
+		void ensureCapacity(int slotCapacity) {
+			if(_prev.length < slotCapacity){
+				int oldLen = _prev.length;
+				_prev = Arrays.copyOf(_prev, slotCapacity);
+				_next = Arrays.copyOf(_next, slotCapacity);
+				_listOf = Arrays.copyOf(_listOf, slotCapacity);
+				Arrays.fill(_listOf, oldLen, slotCapacity, (byte)-1);
+			}
+		}
+		final void pushHead(int list, int slot) {
+			_listOf[slot] = (byte)list;
+			_prev[slot] = NoSlot;
+			_next[slot] = _head[list];
+			if(_head[list] != NoSlot){
+				_prev[_head[list]] = slot;
+			}else{
+				_tail[list] = slot;
+			}
+			_head[list] = slot;
+			++_size[list];
+		}
+		final void unlink(int slot) {
+			int list = _listOf[slot];
+			if(list >= 0){
+				int prev = _prev[slot], next = _next[slot];
+				if(prev != NoSlot){
+					_next[prev] = next;
+				}else{
+					_head[list] = next;
+				}
+				if(next != NoSlot){
+					_prev[next] = prev;
+				}else{
+					_tail[list] = prev;
+				}
+				_listOf[slot] = -1;
+				--_size[list];
+			}
+		}
+		final int listOf(int slot) {
+			return _listOf[slot];
+		}
+		final int tail(int list) {
+			return _tail[list];
+		}
+		final int size(int list) {
+			return _size[list];
+		}
+		// appends slots of the list from the eviction end to slots starting at count, returns the new count
+		final int collect(int list, int[] slots, int count) {
+			for(int slot = _tail[list]; slot != NoSlot && count < slots.length; slot = _prev[slot]){
+				slots[count++] = slot;
+			}
+			return count;
+		}
+	}
+
+	static final class Lru extends EvictionPolicy {
+		private final SlotLists _lists = new SlotLists(1);
+
+		@Override
+		void ensureCapacity(int slotCapacity) {
+			_lists.ensureCapacity(slotCapacity);
+		}
+		@Override
+		void admit(int slot, boolean swappedBefore) {
+			_lists.pushHead(0, slot);
+		}
+		@Override
+		void touch(int slot) {
+			_lists.unlink(slot);
+			_lists.pushHead(0, slot);
+		}
+		@Override
+		void secondChance(int slot) {
+			touch(slot);
+		}
+		@Override
+		void remove(int slot) {
+			_lists.unlink(slot);
+		}
+		@Override
+		int victim() {
+			return _lists.tail(0);
+		}
+		@Override
+		int candidates(int[] slots) {
+			return _lists.collect(0, slots, 0);
+		}
+	}
+
+	// simplified 2Q: new pages enter the fifo A1in, pages faulted back from swap (the A1out ghosts of the paper) enter the
+	// lru Am. A1in is drained first once it holds more than a quarter of the resident pages
+	static final class TwoQueue extends EvictionPolicy {
+		private static final int A1in = 0, Am = 1;
+		private final SlotLists _lists = new SlotLists(2);
+
+		@Override
+		void ensureCapacity(int slotCapacity) {
+			_lists.ensureCapacity(slotCapacity);
+		}
+		@Override
+		void admit(int slot, boolean swappedBefore) {
+			_lists.pushHead(swappedBefore ? Am : A1in, slot);
+		}
+		@Override
+		void touch(int slot) {
+			if(_lists.listOf(slot) == Am){ // hits in A1in do not move the page
+				_lists.unlink(slot);
+				_lists.pushHead(Am, slot);
+			}
+		}
+		@Override
+		void secondChance(int slot) {
+			int list = _lists.listOf(slot); // page stays in its queue, only Am is entered from swap
+			_lists.unlink(slot);
+			_lists.pushHead(list, slot);
+		}
+		@Override
+		void remove(int slot) {
+			_lists.unlink(slot);
+		}
+		@Override
+		int victim() {
+			return _lists.tail(victimList());
+		}
+		@Override
+		int candidates(int[] slots) {
+			int first = victimList();
+			return _lists.collect(1 - first, slots, _lists.collect(first, slots, 0));
+		}
+		private int victimList() {
+			int a1inSize = _lists.size(A1in);
+			boolean fromA1in = (a1inSize > 0 && (a1inSize*4 > a1inSize + _lists.size(Am) || _lists.size(Am) == 0));
+			return (fromA1in ? A1in : Am);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+// swap file accessed with positional read/write, i.e. one syscall per page instead of seek + read/write
+public final class FilePageBackend implements PageBackend {
+	private final File _filePath;
+	private final FileChannel _channel;
+	private final boolean _deleteOnClose;
+
+	public FilePageBackend(File filePath, boolean deleteOnClose) throws IOException {
+		_filePath = filePath;
+		_deleteOnClose = deleteOnClose;
+		_channel = FileChannel.open(filePath.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if(deleteOnClose){
+			filePath.deleteOnExit(); // just to make sure that this file will get deleted when jvm exits
+		}
+	}
+
+	public static FilePageBackend createTempFile() throws IOException {
+		return new FilePageBackend(newTempSwapFile(), true);
+	}
+
+	static File newTempSwapFile(){
+		return new File(String.format("./temp/%s.swp", UUID.randomUUID()));
+	}
+
+	@Override
+	public void write(long position, byte[] src, int offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(src, offset, length);
+		while(buffer.hasRemaining()){
+			position += _channel.write(buffer, position);
+		}
+	}
+
+	@Override
+	public void read(long position, byte[] dest, int offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(dest, offset, length);
+		while(buffer.hasRemaining()){
+			int readLen = _channel.read(buffer, position);
+			if(readLen < 0){
+				throw new EOFException(String.format("Swap file %s ends before position %d.", _filePath, position));
+			}
+			position += readLen;
+		}
+	}
+
+	@Override
+	public void truncate(long size) throws IOException {
+		_channel.truncate(size);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(_channel.isOpen()){
+			_channel.close();
+			if(_deleteOnClose){
+				_filePath.delete();
+			}
+		}
+	}
+}
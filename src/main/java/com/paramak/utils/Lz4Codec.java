@@ -0,0 +1,191 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// lz4 block format (greedy matching with a single hash table) used for swapped pages. output can be read by any lz4 block
+// decoder. scratch arrays are kept per thread because pages are written by the page writer and by allocating threads
+final class Lz4Codec {
+	private static final int MinMatch = 4;
+	private static final int LastLiterals = 5;		// last bytes of the input are always literals
+	private static final int MatchSearchLimit = 12;	// no match starts within this many bytes from the end
+	private static final int MaxOffset = 0xffff;
+	private static final int HashBitSize = 12;
+	private static final int SkipTrigger = 6;		// search steps grow after 2^6 bytes without a match, i.e. on data which does not compress
+
+	private static final VarHandle IntLE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle LongLE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final ThreadLocal<int[]> HashTables = ThreadLocal.withInitial(() -> new int[1 << HashBitSize]);
+	private static final ThreadLocal<byte[]> Buffers = new ThreadLocal<>();
+
+	private Lz4Codec() {
+	}
+
+	// scratch buffer of the calling thread
+	static byte[] buffer(int minLength) {
+		byte[] buffer = Buffers.get();
+		if(buffer == null || buffer.length < minLength){
+			buffer = new byte[minLength];
+			Buffers.set(buffer);
+		}
+		return buffer;
+	}
+
+	// returns compressed length or -1 if it would not fit in maxLength bytes of dest
+	static int compress(byte[] src, int srcLength, byte[] dest, int maxLength) {
+		int[] hashTable = HashTables.get();
+		Arrays.fill(hashTable, -1);
+		int anchor = 0, op = 0;
+		int matchLimit = srcLength - MatchSearchLimit;
+		int copyLimit = srcLength - LastLiterals;
+		int ip = 0;
+		while(ip < matchLimit){
+			int sequence = (int)IntLE.get(src, ip);
+			int hash = (sequence * -1640531535) >>> (32 - HashBitSize);
+			int ref = hashTable[hash];
+			hashTable[hash] = ip;
+			if(ref < 0 || ip - ref > MaxOffset || (int)IntLE.get(src, ref) != sequence){
+				ip += 1 + ((ip - anchor) >>> SkipTrigger);
+				continue;
+			}
+			while(ip > anchor && ref > 0 && src[ip-1] == src[ref-1]){ // extend backwards into pending literals
+				--ip;
+				--ref;
+			}
+			int matchLength = MinMatch;
+			while(ip + matchLength + Long.BYTES <= copyLimit){
+				long diff = (long)LongLE.get(src, ip + matchLength) ^ (long)LongLE.get(src, ref + matchLength);
+				if(diff != 0){
+					matchLength += Long.numberOfTrailingZeros(diff) >>> 3;
+					break;
+				}
+				matchLength += Long.BYTES;
+			}
+			while(ip + matchLength < copyLimit && src[ip + matchLength] == src[ref + matchLength]){
+				++matchLength;
+			}
+			op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dest, op, maxLength);
+			if(op < 0){
+				return -1;
+			}
+			ip += matchLength;
+			anchor = ip;
+		}
+		return writeSequence(src, anchor, srcLength - anchor, 0, 0, dest, op, maxLength);
+	}
+
+	// dest has to be destLength long, i.e. the length of the data before it was compressed
+	static void decompress(byte[] src, int srcLength, byte[] dest, int destLength) throws IOException {
+		int ip = 0, op = 0;
+		try {
+			while(true){
+				int token = src[ip++] & 0xff;
+				int literalLength = token >>> 4;
+				if(literalLength == 15){
+					int lenByte;
+					do{
+						lenByte = src[ip++] & 0xff;
+						literalLength += lenByte;
+					}while(lenByte == 255);
+				}
+				System.arraycopy(src, ip, dest, op, literalLength);
+				ip += literalLength;
+				op += literalLength;
+				if(ip >= srcLength){ // last sequence has only literals
+					break;
+				}
+				int offset = (src[ip] & 0xff) | ((src[ip+1] & 0xff) << 8);
+				ip += 2;
+				int matchLength = token & 15;
+				if(matchLength == 15){
+					int lenByte;
+					do{
+						lenByte = src[ip++] & 0xff;
+						matchLength += lenByte;
+					}while(lenByte == 255);
+				}
+				matchLength += MinMatch;
+				int ref = op - offset;
+				if(offset == 0 || ref < 0){
+					throw new IOException("Compressed page refers before its start.");
+				}
+				if(offset >= matchLength){
+					System.arraycopy(dest, ref, dest, op, matchLength);
+				}else{ // overlapping copy repeats the last offset bytes, copied so far is a multiple of offset and is doubled each step
+					for(int copied=0; copied<matchLength; ){
+						int chunk = Math.min(matchLength - copied, op + copied - ref);
+						System.arraycopy(dest, ref, dest, op + copied, chunk);
+						copied += chunk;
+					}
+				}
+				op += matchLength;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Compressed page is corrupt.", e);
+		}
+		if(ip != srcLength){ // a truncated last sequence would read what follows in src
+			throw new IOException("Compressed page is corrupt.");
+		}
+		if(op != destLength){
+			throw new IOException(String.format("Compressed page has %d bytes instead of %d.", op, destLength));
+		}
+	}
+
+	// matchLength 0 writes the last literals; returns -1 if it does not fit
+	private static int writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength, byte[] dest, int op, int maxLength) {
+		if(op + 1 + literalLength/255 + 1 + literalLength + 2 + matchLength/255 + 1 > maxLength){
+			return -1;
+		}
+		int tokenPos = op++;
+		int token;
+		if(literalLength >= 15){
+			token = 15 << 4;
+			op = writeLength(literalLength - 15, dest, op);
+		}else{
+			token = literalLength << 4;
+		}
+		System.arraycopy(src, literalStart, dest, op, literalLength);
+		op += literalLength;
+		if(matchLength > 0){
+			dest[op++] = (byte)offset;
+			dest[op++] = (byte)(offset >>> 8);
+			int extraLength = matchLength - MinMatch;
+			if(extraLength >= 15){
+				token |= 15;
+				op = writeLength(extraLength - 15, dest, op);
+			}else{
+				token |= extraLength;
+			}
+		}
+		dest[tokenPos] = (byte)token;
+		return op;
+	}
+	private static int writeLength(int length, byte[] dest, int op) {
+		while(length >= 255){
+			dest[op++] = (byte)255;
+			length -= 255;
+		}
+		dest[op++] = (byte)length;
+		return op;
+	}
+}
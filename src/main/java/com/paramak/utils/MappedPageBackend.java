@@ -0,0 +1,141 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// swap file mapped in large segments. page in/out becomes a memory copy and the swapped data is held by the
+// os page cache instead of the jvm heap
+public final class MappedPageBackend implements PageBackend {
+	private static final int DefaultSegmentBitSize = 26; // 64MB per mapping, multiple of any supported page size
+	private static final int SegmentHolderSizeIncr = 16;
+
+	private final File _filePath;
+	private final FileChannel _channel;
+	private final boolean _deleteOnClose;
+	private final int _segmentBitSize;
+	private final long _segmentMask;
+	private volatile MappedByteBuffer[] _segments = new MappedByteBuffer[SegmentHolderSizeIncr];
+
+	public MappedPageBackend(File filePath, boolean deleteOnClose) throws IOException {
+		this(filePath, deleteOnClose, DefaultSegmentBitSize);
+	}
+
+	public MappedPageBackend(File filePath, boolean deleteOnClose, int segmentBitSize) throws IOException {
+		if(segmentBitSize < 16 || segmentBitSize > 30){
+			throw new IllegalArgumentException(String.format("Segment bit size %d is not in range [16, 30].", segmentBitSize));
+		}
+		_filePath = filePath;
+		_deleteOnClose = deleteOnClose;
+		_segmentBitSize = segmentBitSize;
+		_segmentMask = (1L << segmentBitSize) - 1;
+		_channel = FileChannel.open(filePath.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if(deleteOnClose){
+			filePath.deleteOnExit(); // just to make sure that this file will get deleted when jvm exits
+		}
+	}
+
+	public static MappedPageBackend createTempFile() throws IOException {
+		return new MappedPageBackend(FilePageBackend.newTempSwapFile(), true);
+	}
+
+	@Override
+	public void write(long position, byte[] src, int offset, int length) throws IOException {
+		while(length > 0){
+			ByteBuffer segment = getSegment(position);
+			int segOffset = (int)(position & _segmentMask);
+			int tempLen = Math.min(length, segment.capacity() - segOffset);
+			segment.position(segOffset);
+			segment.put(src, offset, tempLen);
+			length -= tempLen;
+			offset += tempLen;
+			position += tempLen;
+		}
+	}
+
+	@Override
+	public void read(long position, byte[] dest, int offset, int length) throws IOException {
+		while(length > 0){
+			ByteBuffer segment = getSegment(position);
+			int segOffset = (int)(position & _segmentMask);
+			int tempLen = Math.min(length, segment.capacity() - segOffset);
+			segment.position(segOffset);
+			segment.get(dest, offset, tempLen);
+			length -= tempLen;
+			offset += tempLen;
+			position += tempLen;
+		}
+	}
+
+	private ByteBuffer getSegment(long position) throws IOException {
+		int segIndex = (int)(position >> _segmentBitSize);
+		MappedByteBuffer[] segments = _segments;
+		MappedByteBuffer segment = (segIndex < segments.length ? segments[segIndex] : null);
+		if(segment == null){
+			segment = mapSegment(segIndex);
+		}
+		return segment.duplicate(); // independent position so that pages can be moved by more than one thread
+	}
+
+	private synchronized MappedByteBuffer mapSegment(int segIndex) throws IOException {
+		if(!_channel.isOpen()){
+			throw new IOException(String.format("Swap file %s is already closed.", _filePath));
+		}
+		MappedByteBuffer[] segments = _segments;
+		if(segments.length <= segIndex){
+			segments = Arrays.copyOf(segments, (segIndex/SegmentHolderSizeIncr + 1)*SegmentHolderSizeIncr);
+		}
+		MappedByteBuffer segment = segments[segIndex];
+		if(segment == null){
+			long segSize = 1L << _segmentBitSize;
+			segments[segIndex] = segment = _channel.map(FileChannel.MapMode.READ_WRITE, segIndex*segSize, segSize);
+		}
+		_segments = segments;
+
+		return segment;
+	}
+
+	// file is cut at a segment boundary; later segments are dropped and get mapped again, growing the file, when used
+	@Override
+	public synchronized void truncate(long size) throws IOException {
+		int segCount = (int)((size + _segmentMask) >> _segmentBitSize);
+		MappedByteBuffer[] segments = _segments;
+		if(segCount < segments.length){
+			segments = Arrays.copyOf(segments, segments.length);
+			Arrays.fill(segments, segCount, segments.length, null);
+			_segments = segments;
+		}
+		_channel.truncate((long)segCount << _segmentBitSize);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(_channel.isOpen()){
+			_segments = new MappedByteBuffer[0]; // mapping goes away once the buffers are collected
+			_channel.close();
+			if(_deleteOnClose){
+				_filePath.delete();
+			}
+		}
+	}
+}
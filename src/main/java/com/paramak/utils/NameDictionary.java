@@ -0,0 +1,202 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package com.paramak.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// names of a document (tags, attributes, namespace uris) by ref, refs are numbered from 0 in the order names are added
+// and have no limit. one open addressing table of refs is keyed by a hash of the utf-8 bytes of the names, for a string
+// it is worked out from the chars without encoding them, so names are found as strings or by their bytes, e.g. straight
+// from a read buffer, and neither lookup allocates. a name keeps its string and its bytes, both are made once when it is added. tag and attribute
+// names are added qualified: their prefix and local name (the parts around ':') are names as well, namespace uris are
+// not split
+final class NameDictionary {
+	static final int NoRef = -1;
+	private static final int InitialSlots = 1 << 8;
+	
+	private int[] _slots = new int[InitialSlots];	// ref + 1, 0 is an empty slot
+	private String[] _names = new String[InitialSlots/2];
+	private byte[][] _bytes = new byte[InitialSlots/2][];
+	private int[] _hashes = new int[InitialSlots/2];
+	private int[] _prefixes = new int[InitialSlots/2];	// refs of the parts of qualified names, NoRef for no prefix
+	private int[] _locals = new int[InitialSlots/2];	// NoRef if not qualified
+	private int _size = 0;
+	
+	int size() {
+		return _size;
+	}
+	String getName(int ref) {
+		return _names[ref];
+	}
+	byte[] getBytes(int ref) {
+		return _bytes[ref];
+	}
+	
+	int find(String name) {
+		int hash = hash(name);
+		int mask = _slots.length - 1;
+		for(int slot = slotFor(hash, mask), entry; (entry = _slots[slot]) != 0; slot = (slot + 1) & mask){
+			if(_hashes[entry - 1] == hash && _names[entry - 1].equals(name)){
+				return entry - 1;
+			}
+		}
+		return NoRef;
+	}
+	int add(String name) {
+		int ref = find(name);
+		return (ref != NoRef ? ref : insert(name, name.getBytes(StandardCharsets.UTF_8), hash(name)));
+	}
+	int addQualified(String name) {
+		return qualify(add(name));
+	}
+	
+	int find(byte[] bytes, int start, int length) {
+		return find(bytes, start, length, hash(bytes, start, length));
+	}
+	int add(byte[] bytes, int start, int length) {
+		int hash = hash(bytes, start, length);
+		int ref = find(bytes, start, length, hash);
+		return (ref != NoRef ? ref : insert(new String(bytes, start, length, StandardCharsets.UTF_8), Arrays.copyOfRange(bytes, start, start + length), hash));
+	}
+	int addQualified(byte[] bytes, int start, int length) {
+		return qualify(add(bytes, start, length));
+	}
+	
+	// adds the parts of the name, returns ref
+	int qualify(int ref) {
+		if(_locals[ref] == NoRef){
+			String name = _names[ref];
+			int colon = name.indexOf(':');
+			int prefix = (colon > 0 && colon < name.length() - 1 ? add(name.substring(0, colon)) : NoRef);
+			int local = (prefix != NoRef ? add(name.substring(colon + 1)) : ref); // adds can grow the arrays
+			_prefixes[ref] = prefix;
+			_locals[ref] = local;
+		}
+		return ref;
+	}
+	boolean isQualified(int ref) {
+		return _locals[ref] != NoRef;
+	}
+	int getPrefix(int ref) {
+		return _prefixes[ref];
+	}
+	int getLocal(int ref) {
+		return _locals[ref];
+	}
+	// drops the names from size on, e.g. the ones of a load which failed. names which were qualified by the parts
+	// dropped are qualified again when they are next added
+	void truncate(int size) {
+		for(int ref=size; ref<_size; ++ref){
+			_names[ref] = null;
+			_bytes[ref] = null;
+		}
+		_size = size;
+		for(int ref=0; ref<size; ++ref){
+			if(_prefixes[ref] >= size || _locals[ref] >= size){
+				_prefixes[ref] = NoRef;
+				_locals[ref] = NoRef;
+			}
+		}
+		Arrays.fill(_slots, 0);
+		for(int ref=0; ref<size; ++ref){
+			put(ref);
+		}
+	}
+	private int find(byte[] bytes, int start, int length, int hash) {
+		int mask = _slots.length - 1;
+		for(int slot = slotFor(hash, mask), entry; (entry = _slots[slot]) != 0; slot = (slot + 1) & mask){
+			byte[] name = _bytes[entry - 1];
+			if(_hashes[entry - 1] == hash && Arrays.equals(name, 0, name.length, bytes, start, start + length)){
+				return entry - 1;
+			}
+		}
+		return NoRef;
+	}
+	// 31*hash + byte over the utf-8 bytes of the name, the same as XmlByteParser works out while it scans a name
+	static int hash(byte[] bytes, int start, int length) {
+		int hash = 0;
+		for(int i=start; i<start+length; ++i){
+			hash = 31*hash + bytes[i];
+		}
+		return hash;
+	}
+	// same hash from the chars, encoded on the fly; a lone surrogate is taken as '?' like String.getBytes() does
+	static int hash(String name) {
+		int hash = 0;
+		for(int i=0, length=name.length(); i<length; ++i){
+			int c = name.charAt(i);
+			if(c < 0x80){
+				hash = 31*hash + c;
+			}else if(c < 0x800){
+				hash = 31*(31*hash + (byte)(0xc0 | (c >> 6))) + (byte)(0x80 | (c & 0x3f));
+			}else{
+				if(Character.isSurrogate((char)c)){
+					if(Character.isHighSurrogate((char)c) && i + 1 < length && Character.isLowSurrogate(name.charAt(i + 1))){
+						c = Character.toCodePoint((char)c, name.charAt(++i));
+						hash = 31*hash + (byte)(0xf0 | (c >> 18));
+						hash = 31*hash + (byte)(0x80 | ((c >> 12) & 0x3f));
+					}else{
+						hash = 31*hash + '?';
+						continue;
+					}
+				}else{
+					hash = 31*hash + (byte)(0xe0 | (c >> 12));
+				}
+				hash = 31*(31*hash + (byte)(0x80 | ((c >> 6) & 0x3f))) + (byte)(0x80 | (c & 0x3f));
+			}
+		}
+		return hash;
+	}
+	
+	private int insert(String name, byte[] bytes, int hash) {
+		int ref = _size++;
+		if(ref == _names.length){
+			_names = Arrays.copyOf(_names, 2*ref);
+			_bytes = Arrays.copyOf(_bytes, 2*ref);
+			_hashes = Arrays.copyOf(_hashes, 2*ref);
+			_prefixes = Arrays.copyOf(_prefixes, 2*ref);
+			_locals = Arrays.copyOf(_locals, 2*ref);
+		}
+		_names[ref] = name;
+		_bytes[ref] = bytes;
+		_hashes[ref] = hash;
+		_prefixes[ref] = NoRef;
+		_locals[ref] = NoRef;
+		if(2*_size > _slots.length){ // at most half full
+			_slots = new int[2*_slots.length];
+			for(int i=0; i<_size; ++i){
+				put(i);
+			}
+		}else{
+			put(ref);
+		}
+		return ref;
+	}
+	private void put(int ref) {
+		int mask = _slots.length - 1;
+		int slot = slotFor(_hashes[ref], mask);
+		while(_slots[slot] != 0){
+			slot = (slot + 1) & mask;
+		}
+		_slots[slot] = ref + 1;
+	}
+	private static int slotFor(int hash, int mask) {
+		return (hash ^ (hash >>> 15)) & mask;
+	}
+}
@@ -16,46 +16,93 @@
 
 package com.paramak.utils;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-import gnu.trove.list.array.TLongArrayList;
-
-public class ObjectStore {
-	private final static Logger logger = LogManager.getLogger();
-	
-	private final static String CurrentCharset = "UTF-8";
-	private final static int HashSize = 31607;
-	private final ByteBigArrayList _objectStore = new ByteBigArrayList();
+public class ObjectStore implements AutoCloseable {
+	private final static Charset CurrentCharset = StandardCharsets.UTF_8;
+	private final ByteBigArrayList _objectStore;
+	private final DedupIndex _dedupIndex; // null if strings are not deduplicated
+	private long _dedupHits = 0;
 	public ObjectStore(){
+		this(new ByteBigArrayList());
+	}
+	public ObjectStore(ByteBigArrayList objectStore){
+		this(objectStore, false);
+	}
+	// store has to be empty. a concurrent list lets many threads read while one thread keeps appending.
+	// deduplicated strings (longer than 4 bytes, shorter ones are inline) are stored once and share the handle
+	public ObjectStore(ByteBigArrayList objectStore, boolean deduplicateStrings){
+		if(objectStore.size() != 0){
+			throw new IllegalArgumentException("Object store has to start with an empty list.");
+		}
+		_objectStore = objectStore;
 		_objectStore.add((byte)0); // add a 0 byte so that 0 is always an invalid position
+		_dedupIndex = (deduplicateStrings ? new DedupIndex() : null);
 	}
-	
-	private TLongArrayList[] _stringHashes = new TLongArrayList[HashSize];
-	private static int calculateByteArrayHash(byte[] byteArray){
-		int len = byteArray.length;
-		int hashCode = 0;
-		if(len > 0){
-			for(int i=0; i<7; ++i){
-				int index = (i*len/7)%len;
-				int byteVal = byteArray[index];
-				byteVal = i%2==0 ? (byteVal & 0xf) : ((byteVal >> 4) & 0xf);
-				hashCode  = (hashCode << 4) | byteVal;
-			}
+	private ObjectStore(ByteBigArrayList objectStore, DedupIndex dedupIndex){
+		_objectStore = objectStore;
+		_dedupIndex = dedupIndex;
+	}
+	// store over a list which holds the data of a store already, e.g. mapped from a snapshot. new strings are
+	// deduplicated among themselves only, strings of the list are not in the index
+	static ObjectStore reopen(ByteBigArrayList objectStore, boolean deduplicateStrings){
+		return new ObjectStore(objectStore, (deduplicateStrings ? new DedupIndex() : null));
+	}
+	long size(){
+		return _objectStore.size();
+	}
+	// drops everything stored from position on, e.g. a subtree nobody kept. handles from there are invalid after this
+	void rewind(long position){
+		if(position < 1){
+			throw new IllegalArgumentException("Object store can not be rewound before its first object.");
+		}
+		if(_dedupIndex != null){
+			_dedupIndex.removeFrom(position);
 		}
-		return hashCode % HashSize;
+		_objectStore.truncate(position);
+	}
+	int getPageSize(){
+		return _objectStore.getPageSize();
+	}
+	// whether threads can read at the same time: a page fault of a single threaded list which is paged evicts and recycles
+	// pages other readers may be on
+	boolean isParallelReadable(){
+		return (_objectStore.isConcurrent() || _objectStore.getSwapSpace() == null);
+	}
+	void writeTo(WritableByteChannel channel) throws IOException {
+		_objectStore.writeTo(0, _objectStore.size(), channel);
+	}
+	// copies the data of another store behind the data of this one, a handle h of the other store is h + delta here
+	// with delta = returned position - 1. other store is not changed
+	long appendStore(ObjectStore other){
+		return _objectStore.addAll(other._objectStore, 1, other.size() - 1); // without the invalid 0 position
+	}
+	static long moveStringHandle(long index, long delta){
+		return (index == 0 || isInlineString(index) ? index : index + delta);
+	}
+	
+	public boolean isDeduplicatingStrings(){
+		return (_dedupIndex != null);
 	}
 
+	// strings of up to 4 bytes are kept in the handle itself: the mask and the bytes, first byte lowest
 	private final static long StringCheckMask = 0x000000ff00000000L;
+	static boolean isInlineString(long index) {
+		return (index & StringCheckMask) == StringCheckMask;
+	}
 	public String getStringFromByteArray(long index) {
 		byte[] strData = {0, 0, 0, 0};
 		int stringLen = 0;
-		if((index & StringCheckMask) != StringCheckMask){
+		if(!isInlineString(index)){
 			ByteBigArrayList stringStore = _objectStore;
-			long[] lengthIndex = readVarIntFromByteArray(index, stringStore);
-			strData = stringStore.toArray(lengthIndex[1], (int)lengthIndex[0]);
+			long length = readVarInt(index, stringStore);
+			strData = stringStore.toArray(index + varIntSize(length), (int)length);
 			stringLen = strData.length;
 		}else{
 			index = (index & 0xffffffffL);
@@ -67,104 +114,231 @@ public class ObjectStore {
 			stringLen = len;
 		}
 		
-		String str = null;
-		try {
-			str = new String(strData, 0, stringLen, CurrentCharset);
-		} catch (UnsupportedEncodingException e) {
-			logger.error("This should never happen. Why UTF-8 is not supported???", e);
+		return new String(strData, 0, stringLen, CurrentCharset);
+	}
+	// utf-8 length of the string, no more chars than this are decoded from it
+	public long getStringByteLength(long index) {
+		if(!isInlineString(index)){
+			return readVarInt(index, _objectStore);
 		}
-		
-		return str;
+		int len = 0;
+		while(len < 4 && ((index >>> (len*8)) & 0xff) != 0){
+			++len;
+		}
+		return len;
 	}
-	boolean _noStringHashing = true;
-	public long appendStringToByteArray(String str) {
-		long index = 0;
-		
-		if(str != null){
-			byte[] strBytes = null;
-			try {
-				strBytes = str.getBytes(CurrentCharset);
-			} catch (UnsupportedEncodingException e) {
-				logger.error("This should never happen. Why UTF-8 is not supported???", e);
-			}
-			if(strBytes.length > 4){
-				ByteBigArrayList stringStore = _objectStore;
-				if(_noStringHashing){
-					index = stringStore.size();
-				}else{
-					int hashCode = calculateByteArrayHash(strBytes);
-					TLongArrayList hashCollisionList = _stringHashes[hashCode];
-					if(hashCollisionList == null){
-						_stringHashes[hashCode] = hashCollisionList = new TLongArrayList();
+	long getStringStart(long index, long length) {
+		return (isInlineString(index) ? 0 : index + varIntSize(length)); // inline strings are read from the handle
+	}
+	int getStringByte(long index, long pos) {
+		return (isInlineString(index) ? (int)(index >>> (pos*8)) & 0xff : _objectStore.get(pos) & 0xff);
+	}
+	
+	// decode without creating a String, e.g. into a builder which is reused for many values
+	public void appendString(long index, StringBuilder dest) {
+		decodeString(index, dest, null);
+	}
+	// throws BufferOverflowException if dest has less room than the string needs, getStringByteLength() chars are enough
+	public void appendString(long index, CharBuffer dest) {
+		decodeString(index, null, dest);
+	}
+	private void decodeString(long index, StringBuilder destBuilder, CharBuffer destBuffer) {
+		long length = getStringByteLength(index);
+		long pos = getStringStart(index, length);
+		long end = pos + length;
+		boolean inline = isInlineString(index);
+		while(pos < end){
+			if(!inline && end - pos >= Long.BYTES){ // 8 ascii bytes at once, the usual content of a document
+				long bytes = _objectStore.getLong(pos);
+				if((bytes & 0x8080808080808080L) == 0){
+					for(int i=0; i<Long.BYTES; ++i){
+						putChar((char)(bytes & 0x7f), destBuilder, destBuffer);
+						bytes >>>= 8;
 					}
-
-					// find the index of the string in the hashCollision list
-					index = findOrAdd(strBytes, stringStore, hashCollisionList, stringStore.size());
+					pos += Long.BYTES;
+					continue;
 				}
-				
-				if(index == stringStore.size()){ // index is set to end of string store; means this string is new and need to be added to end of the buffer
-					addVarIntToByteArray(strBytes.length, stringStore);
-					stringStore.add(strBytes);
-				}				//
+			}
+			int b = getStringByte(index, pos++);
+			if(b < 0x80){
+				putChar((char)b, destBuilder, destBuffer);
+				continue;
+			}
+			int count = (b >= 0xf0 ? 3 : b >= 0xe0 ? 2 : b >= 0xc0 ? 1 : 0); // continuation bytes
+			int codePoint = b & (0x3f >> count);
+			if(count == 0 || pos + count > end){
+				codePoint = 0xfffd; // malformed, strings from String.getBytes() never are
+				count = 0;
+			}
+			for(; count>0; --count){
+				codePoint = (codePoint << 6) | (getStringByte(index, pos++) & 0x3f);
+			}
+			if(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT){
+				putChar(Character.highSurrogate(codePoint), destBuilder, destBuffer);
+				putChar(Character.lowSurrogate(codePoint), destBuilder, destBuffer);
 			}else{
-				int bytesAsInt = 0;
-				int len = 0;
-				for(byte val:strBytes){
-					bytesAsInt = bytesAsInt << 8;
-					bytesAsInt = (bytesAsInt | val);
-					len++;
+				putChar((char)codePoint, destBuilder, destBuffer);
+			}
+		}
+	}
+	private static void putChar(char ch, StringBuilder destBuilder, CharBuffer destBuffer) {
+		if(destBuilder != null){
+			destBuilder.append(ch);
+		}else{
+			destBuffer.put(ch);
+		}
+	}
+	
+	// compares the stored bytes with the utf-8 encoding of str, char by char without encoding str
+	public boolean stringEquals(long index, CharSequence str) {
+		if(str == null){
+			return (index == 0);
+		}
+		return matchString(index, str, false);
+	}
+	public boolean stringStartsWith(long index, CharSequence prefix) {
+		return matchString(index, prefix, true);
+	}
+	private boolean matchString(long index, CharSequence str, boolean prefix) {
+		long length = getStringByteLength(index);
+		long pos = getStringStart(index, length);
+		long end = pos + length;
+		int strLength = str.length();
+		if(length < strLength || (!prefix && length > 3L*strLength)){ // a char takes 1 to 3 bytes, a surrogate pair 4
+			return false;
+		}
+		for(int i=0; i<strLength; ++i){
+			int codePoint = str.charAt(i);
+			if(Character.isHighSurrogate((char)codePoint) && i+1 < strLength && Character.isLowSurrogate(str.charAt(i+1))){
+				codePoint = Character.toCodePoint((char)codePoint, str.charAt(++i));
+			}else if(Character.isSurrogate((char)codePoint)){
+				codePoint = '?'; // unpaired surrogate is stored as '?' by String.getBytes()
+			}
+			int count = (codePoint < 0x80 ? 0 : codePoint < 0x800 ? 1 : codePoint < 0x10000 ? 2 : 3); // continuation bytes
+			if(pos + count >= end){
+				return false;
+			}
+			int first = (count == 0 ? codePoint : ((0xff << (7-count)) & 0xff) | (codePoint >>> (6*count)));
+			if(getStringByte(index, pos++) != first){
+				return false;
+			}
+			for(--count; count>=0; --count){
+				if(getStringByte(index, pos++) != (0x80 | ((codePoint >>> (6*count)) & 0x3f))){
+					return false;
 				}
-				while(len < 4){
-					++len;
-					bytesAsInt = bytesAsInt << 8;
+			}
+		}
+		return (prefix || pos == end);
+	}
+	
+	// utf-8 bytes of the string to dest, which holds at least getStringByteLength(index) bytes; returns their count
+	int getStringBytes(long index, byte[] dest) {
+		return getStringBytes(index, dest, 0);
+	}
+	int getStringBytes(long index, byte[] dest, int destIndex) {
+		int length = (int)getStringByteLength(index);
+		if(isInlineString(index)){
+			for(int i=0; i<length; ++i){
+				dest[destIndex + i] = (byte)(index >>> (i*8));
+			}
+		}else{
+			_objectStore.get(index + varIntSize(length), dest, destIndex, length);
+		}
+		return length;
+	}
+	// whether the string is these utf-8 bytes
+	boolean stringEquals(long index, byte[] strBytes, int startIndex, int length) {
+		if(isInlineString(index)){
+			if(length > 4 || getStringByteLength(index) != length){
+				return false;
+			}
+			for(int i=0; i<length; ++i){
+				if(strBytes[startIndex + i] != (byte)(index >>> (i*8))){
+					return false;
 				}
-				bytesAsInt = Integer.reverseBytes(bytesAsInt);
-				index = (StringCheckMask | bytesAsInt);
 			}
-
+			return true;
+		}
+		return isStoredString(strBytes, startIndex, length, index);
+	}
+	
+	// raw utf-8 bytes of the string
+	public void writeString(long index, OutputStream out) throws IOException {
+		long length = getStringByteLength(index);
+		if(isInlineString(index)){
+			for(int i=0; i<length; ++i){
+				out.write(getStringByte(index, i));
+			}
+		}else{
+			_objectStore.writeTo(getStringStart(index, length), length, out);
+		}
+	}
+	public void writeString(long index, WritableByteChannel channel) throws IOException {
+		long length = getStringByteLength(index);
+		if(isInlineString(index)){
+			ByteBuffer buffer = ByteBuffer.allocate((int)length);
+			for(int i=0; i<length; ++i){
+				buffer.put((byte)getStringByte(index, i));
+			}
+			buffer.flip();
+			while(buffer.hasRemaining()){
+				channel.write(buffer);
+			}
+		}else{
+			_objectStore.writeTo(getStringStart(index, length), length, channel);
+		}
+	}
+	
+	public long appendStringToByteArray(String str) {
+		long index = 0;
+		
+		if(str != null){
+			byte[] strBytes = str.getBytes(CurrentCharset);
+			index = appendStringBytes(strBytes, 0, strBytes.length);
 		}
 		
 		return index;
 	}
-	private static long findOrAdd(byte[] strBytes, ByteBigArrayList stringStore, TLongArrayList hashCollisionList, long newStrIndex) {
-		long strIndex = newStrIndex;
-		if(hashCollisionList.isEmpty()){
-			hashCollisionList.add(newStrIndex);
-		}else{
-			// binary search
-			int startHashIndex = 0, lastHashIndex = hashCollisionList.size()-1;
-			while(startHashIndex <= lastHashIndex){
-				int middleHashIndex = (startHashIndex + lastHashIndex)/2;
-				long curStrIndex = hashCollisionList.get(middleHashIndex);
-				int compareVal = compareByteArray(strBytes, stringStore, curStrIndex);
-				if(compareVal > 0){
-					startHashIndex = middleHashIndex + 1;
-				}else if(compareVal < 0){
-					lastHashIndex = middleHashIndex - 1;
-				}else {
-					strIndex = curStrIndex;
-					break;
-				}
+	// stores utf-8 bytes as they are, e.g. straight from the document being parsed
+	public long appendStringBytes(byte[] strBytes, int startIndex, int length) {
+		long index;
+		if(length > 4){
+			ByteBigArrayList stringStore = _objectStore;
+			if(_dedupIndex == null){
+				index = stringStore.size();
+			}else{
+				index = findOrAdd(strBytes, startIndex, length, stringStore.size());
 			}
 			
-			if(startHashIndex > lastHashIndex){
-				if(startHashIndex == hashCollisionList.size()){
-					hashCollisionList.add(newStrIndex);
-				}else{
-					hashCollisionList.insert(startHashIndex, newStrIndex);
-				}
+			if(index == stringStore.size()){ // index is set to end of string store; means this string is new and need to be added to end of the buffer
+				addVarIntToByteArray(length, stringStore);
+				stringStore.add(strBytes, startIndex, length);
 			}
+		}else{
+			long bytesAsLong = 0;
+			for(int i=0; i<length; ++i){ // first byte lowest
+				bytesAsLong |= (strBytes[startIndex + i] & 0xffL) << (i*8);
+			}
+			index = (StringCheckMask | bytesAsLong);
 		}
-		return strIndex;
-	}	
-	private static int compareByteArray(byte[] strBytes, ByteBigArrayList stringStore, long index) {
-		long[] lengthIndex = readVarIntFromByteArray(index, stringStore);
-		long storedLen = lengthIndex[0], storedIndex = lengthIndex[1];
-		int rc = strBytes.length - (int)storedLen; // 0 if all is same, difference of length followed difference of first differing byte
-		for(int i=0; i<storedLen && rc==0; ++i){ // no need to check length of other since rc==0 will take care of that
-			rc = (0xff & strBytes[i]) - (0xff & stringStore.get(i+storedIndex));
+		return index;
+	}
+	// returns handle of the same string if it is stored already, else newStrIndex which is added to the index
+	private long findOrAdd(byte[] strBytes, int startIndex, int length, long newStrIndex) {
+		long hash = DedupIndex.hash(strBytes, startIndex, length);
+		int slot = _dedupIndex.slotFor(hash);
+		for(long handle; (handle = _dedupIndex.handleAt(slot)) != 0; slot = _dedupIndex.nextSlot(slot)){
+			if(_dedupIndex.hashAt(slot) == hash && isStoredString(strBytes, startIndex, length, handle)){
+				++_dedupHits;
+				return handle;
+			}
 		}
-		return rc;
+		_dedupIndex.put(slot, hash, newStrIndex);
+		return newStrIndex;
+	}
+	private boolean isStoredString(byte[] strBytes, int startIndex, int length, long index) {
+		long storedLength = readVarInt(index, _objectStore);
+		return (storedLength == length && _objectStore.rangeEquals(index + varIntSize(storedLength), strBytes, startIndex, length));
 	}
 	final static long byteMask = 0x7fL;
 	final static long additiveMask = 0x80L;
@@ -181,43 +355,79 @@ public class ObjectStore {
 			byteArray.add((byte)byteValue);
 		}while(val != 0);
 	}
-	private static long[] readVarIntFromByteArray(long index, ByteBigArrayList byteArray){
-		boolean getNext = true;
+	private static long readVarInt(long index, ByteBigArrayList byteArray){
 		long val = 0;
 		int shiftBits = 0;
-		while(getNext){
-			int byteVal = byteArray.get(index++);
+		int byteVal;
+		do{
+			byteVal = byteArray.get(index++);
 			val = val | ((byteVal & byteMask) << shiftBits);
-			if((byteVal & additiveMask) == 0){
-				getNext = false;
-			}
-			
 			shiftBits += bitCount;
-		}
+		}while((byteVal & additiveMask) != 0);
 		
-		return new long[]{val, index}; // return new index and read value
+		return val;
+	}
+	// var ints of other data in the format of string lengths, e.g. the compact node layout
+	long readVarInt(long index){
+		return readVarInt(index, _objectStore);
+	}
+	// up to 8 bytes at index as one little endian value, 0 for the bytes past the end of the store
+	long getWord(long index){
+		return _objectStore.getLE(index, (int)Math.min(Long.BYTES, _objectStore.size() - index));
+	}
+	// position after the var int at index
+	long skipVarInt(long index){
+		while((_objectStore.get(index++) & additiveMask) != 0){
+		}
+		return index;
+	}
+	// returns the position after it in dest
+	static int putVarInt(long val, byte[] dest, int pos){
+		do{
+			long byteValue = val & byteMask;
+			val = val >> bitCount;
+			dest[pos++] = (byte)(val != 0 ? byteValue | additiveMask : byteValue);
+		}while(val != 0);
+		return pos;
+	}
+	// raw bytes at the end of the store, returns where they start
+	long appendBytes(byte[] bytes, int startIndex, int length){
+		return _objectStore.add(bytes, startIndex, length);
+	}
+	// bytes addVarIntToByteArray takes for val, i.e. where the data after a var int starts
+	static int varIntSize(long val){
+		int size = 1;
+		while((val >>>= bitCount) != 0){
+			++size;
+		}
+		return size;
 	}
 	public void compact() {
 		_objectStore.trimToSize();
 	}
+	// gives back memory and swap space of the store, it can not be used after this
+	@Override
+	public void close() throws IOException {
+		_objectStore.close();
+	}
 	public void addDebugInfo(StringBuilder strBuilder) {
-		long nonNullEntries = 0;
-		long numStr = 0;
-		long maxCollision = 0;
-		for(int i=0; i<_stringHashes.length;++i)
-			if(_stringHashes[i] != null){
-				++nonNullEntries;
-				numStr += _stringHashes[i].size();
-				if(_stringHashes[i].size() > 16)
-				maxCollision += 1;//Math.max(maxCollision, _stringHashes[i].size());
-			}
-		strBuilder.append(String.format("Object buffer=%d   hash efficiency=[%d/%d/%d/%d]"
-				, _objectStore.size(), nonNullEntries, _stringHashes.length, numStr, maxCollision));
+		String dedup = "dedup=off";
+		if(_dedupIndex != null){
+			dedup = String.format("dedup=[strings=%d hits=%d table=%dKB]", _dedupIndex.size(), _dedupHits, _dedupIndex.memoryBytes()/1024);
+		}
+		strBuilder.append(String.format("Object buffer=%d   %s   %s", _objectStore.size(), dedup, _objectStore.getPagingStats()));
+		if(_objectStore.getSwapSpace() != null){
+			strBuilder.append("   ").append(_objectStore.getSwapSpace());
+		}
 	}
 	
 	public long newObject(int objectSize){
 		return _objectStore.allocateSpace(objectSize);
 	}
+	// e.g. for tables larger than an object; the space is zeroed, also where the store was rewound
+	long newRegion(long size){
+		return _objectStore.allocateSpace(size);
+	}
 	public void setByte(long objectHandle, int offset, byte byteVal) {
 		_objectStore.set(objectHandle+offset, byteVal);
 	}
@@ -228,20 +438,12 @@ public class ObjectStore {
 	public final static long ByteMask = 0xffL;
 	public final static int ByteBits = 8;
 	public static final int MemoryHandleSize = 5;
+	// little endian, sizeOfInt bytes of val are stored
 	public final void setIntegerValue(long objectHandle, int offset, long val, int sizeOfInt){
-		for(int i=0; i<sizeOfInt; ++i){
-			_objectStore.set(objectHandle+offset+i, (byte)(val & ByteMask));
-			val = val >> ByteBits;
-		}
+		_objectStore.setLE(objectHandle+offset, val, sizeOfInt);
 	}
 	public final long getIntegerValue(long objectHandle, int offset, int sizeOfInt){
-		long val = 0;
-		for(int i=sizeOfInt-1; i>=0; --i){
-			val = val << ByteBits;
-			byte byteVal = _objectStore.get(objectHandle+offset+i);
-			val = val | (byteVal & ByteMask) ;
-		}
-		return val;
+		return _objectStore.getLE(objectHandle+offset, sizeOfInt);
 	}
 	
 	public final void setObjectHandle(long objectHandle, int offset, long handleValue){
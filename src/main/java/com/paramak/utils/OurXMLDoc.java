@@ -16,32 +16,861 @@
 
 package com.paramak.utils;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InvalidClassException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
-import gnu.trove.map.TObjectIntMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TIntLongMap;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.stack.TIntStack;
 import gnu.trove.stack.TLongStack;
+import gnu.trove.stack.array.TIntArrayStack;
 import gnu.trove.stack.array.TLongArrayStack;
 
-public class OurXMLDoc { // TODO: eventually get rid of using Trove collection if they are not big perf booster
-	private final ObjectStore _objectStore = new ObjectStore();
+public class OurXMLDoc implements AutoCloseable { // TODO: eventually get rid of using Trove collection if they are not big perf booster
+	private final ObjectStore _objectStore;
+	private final ByteBigArrayList.Config _storeConfig; // null for defaults
+	private final boolean _elementNamespaces; // elements have a namespace slot, all but the ones of old snapshots
 	
 	private static Class<?>[] ObjectClasses = new Class<?>[]{Node.class, Attribute.class, Element.class, TextNode.class}; // node and its derived classes
 	
+	public OurXMLDoc(){
+		_objectStore = new ObjectStore();
+		_storeConfig = null;
+		_elementNamespaces = true;
+	}
+	// e.g. small pages for small documents and large pages for huge ones
+	public OurXMLDoc(ByteBigArrayList.Config storeConfig){
+		this(storeConfig, false);
+	}
+	// deduplication stores repeated text and attribute values once, e.g. for documents with many enumerated values
+	public OurXMLDoc(ByteBigArrayList.Config storeConfig, boolean deduplicateStrings){
+		_objectStore = new ObjectStore(new ByteBigArrayList(storeConfig), deduplicateStrings);
+		_storeConfig = storeConfig;
+		_elementNamespaces = true;
+	}
+	private OurXMLDoc(ObjectStore objectStore, ByteBigArrayList.Config storeConfig, boolean elementNamespaces){
+		_objectStore = objectStore;
+		_storeConfig = storeConfig;
+		_elementNamespaces = elementNamespaces;
+	}
+	
+	// snapshot file: header, name table, then the object store as it is in memory from an aligned offset, padded to a
+	// whole number of pages so that it can be mapped page by page. header fields are big endian:
+	//	magic(8) version(4) page size(4) flags(4) root element(8) store size(8) store offset(8) name count(4) names(utf)
+	//	attribute index count(4) (attribute name(utf) index position(8))*	from version 2 on
+	//	end of the compact nodes(8)											from version 3 on
+	//	large name ref count(4) (name slot position(8) ref(4))*				from version 4 on
+	//	qualified name count(4) (name ref(4))*									from version 5 on, which has element namespaces
+	private static final long SnapshotMagic = 0x50584d4c534e4150L; // "PXMLSNAP"
+	private static final int SnapshotVersion = 5;
+	private static final int SnapshotHeaderSize = 44; // up to the name count
+	private static final int SnapshotAlignment = 4096;
+	private static final int SnapshotDedupFlag = 1;
+	private static final int SnapshotNamespacesFlag = 2;
+	
+	// not while the document is being loaded
+	public void save(Path path) throws IOException {
+		ByteArrayOutputStream names = new ByteArrayOutputStream();
+		DataOutputStream namesOut = new DataOutputStream(names);
+		namesOut.writeInt(_names.size());
+		for(int ref=0; ref<_names.size(); ++ref){
+			namesOut.writeUTF(_names.getName(ref));
+		}
+		synchronized(this){
+			namesOut.writeInt(_attributeIndexes.size());
+			for(int nameRef : _attributeIndexes.keys()){
+				namesOut.writeUTF(getStringFromRef(nameRef));
+				namesOut.writeLong(_attributeIndexes.get(nameRef));
+			}
+		}
+		namesOut.writeLong(_compactEnd);
+		namesOut.writeInt(_largeNameRefs.size());
+		for(TLongIntIterator it = _largeNameRefs.iterator(); it.hasNext(); ){
+			it.advance();
+			namesOut.writeLong(it.key());
+			namesOut.writeInt(it.value());
+		}
+		TIntArrayList qualified = new TIntArrayList();
+		for(int ref=0; ref<_names.size(); ++ref){
+			if(_names.isQualified(ref)){
+				qualified.add(ref);
+			}
+		}
+		namesOut.writeInt(qualified.size());
+		for(int i=0; i<qualified.size(); ++i){
+			namesOut.writeInt(qualified.getQuick(i));
+		}
+		int pageSize = Math.max(_objectStore.getPageSize(), ByteBigArrayList.Config.DefaultPageSize); // small pages are not worth a mapping each
+		long storeOffset = alignUp(SnapshotHeaderSize + names.size(), SnapshotAlignment);
+		long storeSize = _objectStore.size();
+		ByteBuffer header = ByteBuffer.allocate((int)storeOffset);
+		header.putLong(SnapshotMagic).putInt(SnapshotVersion).putInt(pageSize).putInt((_objectStore.isDeduplicatingStrings() ? SnapshotDedupFlag : 0)
+				| (_elementNamespaces ? SnapshotNamespacesFlag : 0));
+		header.putLong(_rootElementPtr).putLong(storeSize).putLong(storeOffset).put(names.toByteArray());
+		header.clear(); // padding up to the store is written as well
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			while(header.hasRemaining()){
+				channel.write(header);
+			}
+			_objectStore.writeTo(channel);
+			long end = storeOffset + alignUp(storeSize, pageSize);
+			if(channel.size() < end){
+				channel.write(ByteBuffer.allocate(1), end - 1); // rest of the last page is a hole
+			}
+		}
+	}
+	// document over the snapshot mapped copy on write, queries start right away and the os reads pages as they are
+	// touched. changes stay in memory, the file is never modified. read only files are mapped read only
+	public static OurXMLDoc open(Path path) throws IOException {
+		FileChannel.MapMode mode = FileChannel.MapMode.PRIVATE;
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE); // needed by private mode
+		} catch (AccessDeniedException e) {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+			mode = FileChannel.MapMode.READ_ONLY;
+		}
+		try(FileChannel fileChannel = channel){ // mapping stays valid after the channel is closed
+			ByteBuffer header = readFully(fileChannel, 0, SnapshotHeaderSize);
+			if(header.getLong() != SnapshotMagic){
+				throw new IOException("Not a document snapshot: " + path);
+			}
+			int version = header.getInt();
+			if(version < 1 || version > SnapshotVersion){
+				throw new IOException(String.format("Snapshot version %d is not supported, expected up to %d: %s", version, SnapshotVersion, path));
+			}
+			int pageSize = header.getInt();
+			int flags = header.getInt();
+			long rootElementPtr = header.getLong();
+			long storeSize = header.getLong();
+			long storeOffset = header.getLong();
+			
+			ByteBuffer names = readFully(fileChannel, header.capacity(), (int)(storeOffset - header.capacity()));
+			DataInputStream namesIn = new DataInputStream(new ByteArrayInputStream(names.array()));
+			ByteBigArrayList store = ByteBigArrayList.map(fileChannel, mode, storeOffset, storeSize, pageSize, false);
+			OurXMLDoc doc = new OurXMLDoc(ObjectStore.reopen(store, (flags & SnapshotDedupFlag) != 0), null, (flags & SnapshotNamespacesFlag) != 0);
+			for(int count=namesIn.readInt(); count>0; --count){
+				doc.getStringRef(namesIn.readUTF());
+			}
+			for(int count=(version >= 2 ? namesIn.readInt() : 0); count>0; --count){
+				doc._attributeIndexes.put(doc.getStringRef(namesIn.readUTF()), namesIn.readLong());
+			}
+			doc._compactEnd = (version >= 3 ? namesIn.readLong() : 0);
+			for(int count=(version >= 4 ? namesIn.readInt() : 0); count>0; --count){
+				doc._largeNameRefs.put(namesIn.readLong(), namesIn.readInt());
+			}
+			if(version >= 5){
+				for(int count=namesIn.readInt(); count>0; --count){
+					doc._names.qualify(namesIn.readInt()); // its parts are names of the snapshot
+				}
+			}else{
+				for(int ref=0, count=doc._names.size(); ref<count; ++ref){ // parts which are new come after the names
+					doc._names.qualify(ref);
+				}
+			}
+			doc._rootElementPtr = rootElementPtr;
+			return doc;
+		}
+	}
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()){
+			if(channel.read(buffer, position + buffer.position()) < 0){
+				throw new EOFException("Snapshot is truncated.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+	private static long alignUp(long value, int alignment){
+		return (value + alignment - 1)/alignment*alignment;
+	}
+	
 	public void compact(){
         _objectStore.compact();
 	}
 	
+	// the same document in a new store with its nodes in the compact layout (see CompactLayout), each text or attribute
+	// value next to its node and repeated values of a deduplicating store once in a pool. the copy has new handles and
+	// its attribute indexes are built again; nodes loaded into it later have the normal layout
+	public OurXMLDoc copyCompact() throws InvalidClassException{
+		OurXMLDoc copy = new OurXMLDoc(new ObjectStore(new ByteBigArrayList(_storeConfig != null ? _storeConfig : ByteBigArrayList.Config.defaults()),
+				_objectStore.isDeduplicatingStrings()), _storeConfig, true);
+		for(int ref=0; ref<_names.size(); ++ref){
+			copy.getStringRef(_names.getName(ref));
+		}
+		for(int ref=0; ref<_names.size(); ++ref){
+			if(_names.isQualified(ref)){
+				copy._names.qualify(ref);
+			}
+		}
+		if(_rootElementPtr > 0){
+			new CompactWriter(copy).write();
+		}
+		copy._indexElements = _indexElements;
+		int[] indexedNames;
+		synchronized(this){
+			indexedNames = _attributeIndexes.keys();
+		}
+		for(int nameRef : indexedNames){
+			copy.buildAttributeIndex(getStringFromRef(nameRef));
+		}
+		return copy;
+	}
+	
+	// two walks in document order: the first sums the bytes of the attributes and children of every element, which its
+	// header has, the second writes the nodes through a buffer
+	private final class CompactWriter {
+		private final OurXMLDoc _copy;
+		private final ObjectStore _target;
+		private final TLongLongMap _shared = new TLongLongHashMap();	// repeated strings to their handles in the pool
+		private final TLongArrayList _sizes = new TLongArrayList();	// bytes of attributes and children by element
+		private byte[] _bytes = new byte[1 << 16];
+		private int _count = 0;
+		// per depth of the walk, depth 0 is the list of top level elements
+		private long[] _next = new long[16];
+		private long[] _elements = new long[16];
+		private long[] _attributes = new long[16];
+		private long[] _children = new long[16];
+		private int[] _indexes = new int[16];
+		private boolean[] _hasNext = new boolean[16];
+		
+		private final Node _node = new Node();
+		private final Element _ele = new Element();
+		private final Attribute _attrib = new Attribute();
+		private final TextNode _tn = new TextNode();
+		
+		CompactWriter(OurXMLDoc copy){
+			_copy = copy;
+			_target = copy._objectStore;
+		}
+		
+		void write() throws InvalidClassException{
+			if(_objectStore.isDeduplicatingStrings()){
+				writePool();
+			}
+			long start = _target.size();
+			long size = walk(false);
+			walk(true);
+			flush();
+			if(_target.size() - start != size){
+				throw new IllegalStateException("Compact nodes took " + (_target.size() - start) + " bytes instead of " + size + ".");
+			}
+			_copy._compactEnd = _target.size();
+		}
+		// values used more than once
+		private void writePool() throws InvalidClassException{
+			TLongIntMap uses = new TLongIntHashMap();
+			TLongStack pending = new TLongArrayStack();
+			pending.push(_rootElementPtr);
+			while(pending.size() > 0){
+				long nodePtr = pending.pop();
+				_node.attachInstance(nodePtr);
+				if(_node.getNextNodeHandle() > 0){
+					pending.push(_node.getNextNodeHandle());
+				}
+				if(_node.getClassForInstance() == Element.class){
+					_ele.attachUnchecked(nodePtr);
+					if(_ele.getChildPtr() > 0){
+						pending.push(_ele.getChildPtr());
+					}
+					for(long attribPtr = _ele.getAttribPtr(); attribPtr > 0; attribPtr = _attrib.getNextNodeHandle()){
+						_attrib.attachUnchecked(attribPtr);
+						countUse(uses, _attrib.getValueHandle());
+					}
+				}else if(_node.getClassForInstance() == TextNode.class){
+					_tn.attachUnchecked(nodePtr);
+					countUse(uses, _tn.getTextHandle());
+				}
+			}
+			byte[] value = new byte[256];
+			for(TLongIntIterator it = uses.iterator(); it.hasNext(); ){
+				it.advance();
+				if(it.value() > 1){
+					int length = (int)_objectStore.getStringByteLength(it.key());
+					if(length > value.length){
+						value = new byte[Math.max(length, 2*value.length)];
+					}
+					_objectStore.getStringBytes(it.key(), value);
+					_shared.put(it.key(), _target.appendStringBytes(value, 0, length));
+				}
+			}
+		}
+		private void countUse(TLongIntMap uses, long valueHandle){
+			if(valueHandle > 0 && !ObjectStore.isInlineString(valueHandle)){
+				uses.adjustOrPutValue(valueHandle, 1, 1);
+			}
+		}
+		
+		// bytes of all top level elements
+		private long walk(boolean write) throws InvalidClassException{
+			int element = 0;
+			int depth = 0;
+			_next[0] = _rootElementPtr;
+			_children[0] = 0;
+			while(true){
+				long nodePtr = _next[depth];
+				if(nodePtr == 0){
+					if(depth == 0){
+						return _children[0];
+					}
+					_ele.attachUnchecked(_elements[depth]);
+					long attributes = _attributes[depth], children = _children[depth];
+					if(!write){
+						_sizes.set(_indexes[depth], attributes + children);
+					}
+					long size = CompactLayout.elementHeaderSize(_ele.getTagNameRef(), _ele.getNamespaceRef(), _hasNext[depth], attributes, children) + attributes + children;
+					_children[--depth] += size;
+					continue;
+				}
+				_node.attachInstance(nodePtr);
+				long nextPtr = _node.getNextNodeHandle();
+				_next[depth] = nextPtr;
+				if(_node.getClassForInstance() == Element.class){
+					if(++depth == _next.length){
+						grow();
+					}
+					_ele.attachUnchecked(nodePtr);
+					_elements[depth] = nodePtr;
+					_hasNext[depth] = (nextPtr > 0);
+					_indexes[depth] = element++;
+					_next[depth] = _ele.getChildPtr();
+					_children[depth] = 0;
+					long attributes = 0;
+					for(long attribPtr = _ele.getAttribPtr(); attribPtr > 0; attribPtr = _attrib.getNextNodeHandle()){
+						_attrib.attachUnchecked(attribPtr);
+						attributes += valueNodeSize(_attrib.getNameRef(), _attrib.getValueHandle());
+					}
+					_attributes[depth] = attributes;
+					if(!write){
+						_sizes.add(0);
+						continue;
+					}
+					if(_copy._rootElementPtr == 0){
+						_copy._rootElementPtr = position();
+					}
+					reserve(16);
+					_count = CompactLayout.writeElementHeader(_bytes, _count, _ele.getTagNameRef(), _ele.getNamespaceRef(), _hasNext[depth], attributes, _sizes.getQuick(_indexes[depth]) - attributes);
+					for(long attribPtr = _ele.getAttribPtr(); attribPtr > 0; ){
+						_attrib.attachUnchecked(attribPtr);
+						attribPtr = _attrib.getNextNodeHandle();
+						writeValueNode(_attrib.getNameRef(), attribPtr > 0, _attrib.getValueHandle());
+					}
+				}else if(_node.getClassForInstance() == TextNode.class){
+					_tn.attachUnchecked(nodePtr);
+					_children[depth] += valueNodeSize(-1, _tn.getTextHandle());
+					if(write){
+						writeValueNode(-1, nextPtr > 0, _tn.getTextHandle());
+					}
+				}
+			}
+		}
+		private void grow(){
+			int length = 2*_next.length;
+			_next = Arrays.copyOf(_next, length);
+			_elements = Arrays.copyOf(_elements, length);
+			_attributes = Arrays.copyOf(_attributes, length);
+			_children = Arrays.copyOf(_children, length);
+			_indexes = Arrays.copyOf(_indexes, length);
+			_hasNext = Arrays.copyOf(_hasNext, length);
+		}
+		
+		// handle in the pool if that is shorter than the value itself, else -1
+		private long sharedHandle(long valueHandle, long length){
+			if(valueHandle == 0){
+				return 0;
+			}
+			long shared = _shared.get(valueHandle);
+			return (shared > 0 && ObjectStore.varIntSize(shared) < ObjectStore.varIntSize(length) + length ? shared : -1);
+		}
+		private long valueNodeSize(int nameRef, long valueHandle){
+			int length = (int)_objectStore.getStringByteLength(valueHandle);
+			long shared = sharedHandle(valueHandle, length);
+			return CompactLayout.valueNodeHeaderSize(nameRef, shared, length) + (shared >= 0 ? 0 : length);
+		}
+		private void writeValueNode(int nameRef, boolean hasNext, long valueHandle){
+			int length = (int)_objectStore.getStringByteLength(valueHandle);
+			long shared = sharedHandle(valueHandle, length);
+			reserve(16 + (shared >= 0 ? 0 : length));
+			_count = CompactLayout.writeValueNodeHeader(_bytes, _count, nameRef, hasNext, shared, length);
+			if(shared < 0){
+				_count += _objectStore.getStringBytes(valueHandle, _bytes, _count);
+			}
+		}
+		
+		private long position(){
+			return _target.size() + _count;
+		}
+		private void reserve(int length){
+			if(_count + length > _bytes.length){
+				flush();
+				if(length > _bytes.length){
+					_bytes = new byte[length];
+				}
+			}
+		}
+		private void flush(){
+			_target.appendBytes(_bytes, 0, _count);
+			_count = 0;
+		}
+	}
+	
+	// document can not be used after this
+	@Override
+	public void close() throws IOException {
+		_objectStore.close();
+	}
+	
+	private static final int ChunksPerThread = 4; // evens out records of different sizes
+	private static final long ParallelLoadMinSize = 4L << 20;
+	private static final String ChunkTagName = "paramak-chunk";
+	
+	// parallel load of record oriented documents, e.g. feeds and exports. the content of the root element is split at
+	// records (children of the root) into chunks which are parsed on threads into documents of their own; their stores
+	// are then moved to where they go in this one, on the threads too, and copied behind each other. documents which can
+	// not be split, e.g. small ones, are loaded by loadFile(filePath), and so are the ones whose parallel load failed
+	// after what it had added is dropped again
+	public void loadFile(String filePath, int threads){
+		if(threads > 1){
+			long storeSize = _objectStore.size();
+			int nameCount = _names.size();
+			long rootElementPtr = _rootElementPtr;
+			try(FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)){
+				if(channel.size() >= ParallelLoadMinSize && loadParallel(channel, threads)){
+					return;
+				}
+			}catch(Exception e){
+				e.printStackTrace(); // loaded by the single threaded parser, which reports the error again if it is in the document
+				rewind(storeSize);
+				_names.truncate(nameCount);
+				_rootElementPtr = rootElementPtr;
+			}
+		}
+		loadFile(filePath);
+	}
+	
+	private boolean loadParallel(FileChannel channel, int threads) throws Exception {
+		XmlRecordSplitter splitter = XmlRecordSplitter.split(channel, threads*ChunksPerThread);
+		long contentStart = splitter.getContentStart();
+		long[] chunkStarts = splitter.getChunkStarts();
+		if(contentStart < 0 || chunkStarts.length < 2){
+			return false;
+		}
+		// every chunk is parsed as the prolog (for encoding and entities) with the records in an element of its own
+		byte[] prolog = readFully(channel, 0, (int)splitter.getRootTagStart()).array();
+		byte[] rootTag = readFully(channel, splitter.getRootTagStart(), (int)(contentStart - splitter.getRootTagStart())).array();
+		int nameEnd = 1;
+		while(nameEnd < rootTag.length && " \t\r\n/>".indexOf(rootTag[nameEnd]) < 0){
+			++nameEnd;
+		}
+		byte[] rootEndTag = concat("</".getBytes(StandardCharsets.US_ASCII), Arrays.copyOfRange(rootTag, 1, nameEnd), ">".getBytes(StandardCharsets.US_ASCII));
+		// with the attributes of the root, for the namespaces it declares
+		byte[] chunkStart = concat(prolog, ("<" + ChunkTagName).getBytes(StandardCharsets.US_ASCII), Arrays.copyOfRange(rootTag, nameEnd, rootTag.length));
+		byte[] chunkEnd = ("</" + ChunkTagName + ">").getBytes(StandardCharsets.US_ASCII);
+		
+		// chunk stores are not shared between threads, but paged by a controller of their own so that no other thread evicts
+		// their pages; the store of this document is then only paged by this thread too
+		ByteBigArrayList.Config chunkConfig = (_storeConfig != null ? _storeConfig : ByteBigArrayList.Config.defaults()).withBudgetShare(threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<OurXMLDoc>> parsed = new ArrayList<>();
+		List<Future<long[]>> moved = new ArrayList<>();
+		int copied = 0;
+		try {
+			for(int i=0; i<chunkStarts.length; ++i){
+				long start = chunkStarts[i];
+				long end = (i+1 < chunkStarts.length ? chunkStarts[i+1] : splitter.getContentEnd());
+				parsed.add(executor.submit(() -> {
+					OurXMLDoc chunkDoc = new OurXMLDoc(chunkConfig, _objectStore.isDeduplicatingStrings());
+					try {
+						chunkDoc.parse(new SequenceInputStream(Collections.enumeration(List.of(new ByteArrayInputStream(chunkStart),
+								new RegionInputStream(channel, start, end), new ByteArrayInputStream(chunkEnd)))));
+					} catch (Exception e) {
+						chunkDoc.close();
+						throw e;
+					}
+					return chunkDoc;
+				}));
+			}
+			_rootElementPtr = 0;
+			parse(new ByteArrayInputStream(concat(prolog, rootTag, rootEndTag))); // root element with its attributes
+			long rootElementPtr = _rootElementPtr;
+			OurXMLDoc[] chunkDocs = new OurXMLDoc[parsed.size()];
+			for(int i=0; i<chunkDocs.length; ++i){
+				chunkDocs[i] = parsed.get(i).get();
+			}
+			
+			long position = _objectStore.size();
+			for(OurXMLDoc chunkDoc : chunkDocs){
+				long delta = position - 1; // positions of a chunk store start at 1
+				moved.add(executor.submit(() -> chunkDoc.moveRecords(delta, this)));
+				position += chunkDoc._objectStore.size() - 1;
+			}
+			Node last = new Node();
+			Element root = new Element();
+			root.attachInstance(rootElementPtr);
+			for(int i=0; i<chunkDocs.length; ++i){
+				long[] records = moved.get(i).get(); // first and last as they are in this store
+				long delta = _objectStore.size() - 1;
+				_objectStore.appendStore(chunkDocs[i]._objectStore);
+				for(TLongIntIterator it = chunkDocs[i]._largeNameRefs.iterator(); it.hasNext(); ){
+					it.advance();
+					_largeNameRefs.put(it.key() + delta, it.value());
+				}
+				chunkDocs[i].close();
+				++copied;
+				if(records[0] > 0){
+					if(last.getPtr() > 0){
+						last.setNextNodeHandle(records[0]);
+					}else{
+						root.setChildPtr(records[0]);
+					}
+					last.attachInstance(records[1]);
+				}
+			}
+			_rootElementPtr = rootElementPtr;
+		} finally {
+			for(Runnable task : executor.shutdownNow()){ // tasks which never started, get() on them would wait for ever
+				((Future<?>)task).cancel(false);
+			}
+			for(Future<long[]> move : moved){ // after a failure, movers still add names to this document until they are done
+				try {
+					move.get();
+				} catch (Exception e) {
+					// the failure which got here is thrown already
+				}
+			}
+			for(int i=copied; i<parsed.size(); ++i){ // after a failure
+				try {
+					parsed.get(i).get().close();
+				} catch (Exception e) {
+					// failed chunk has closed its document
+				}
+			}
+		}
+		return true;
+	}
+	// moves every handle under the root, which is the element around the records of a chunk, by delta and maps the names
+	// to the ones of target. returns the first and the last child of the root as they are after the move, 0s if none
+	private long[] moveRecords(long delta, OurXMLDoc target) throws InvalidClassException {
+		int[] nameRefs = new int[_names.size()];
+		Arrays.fill(nameRefs, -1);
+		Node node = new Node();
+		Element ele = new Element();
+		Attribute attrib = new Attribute();
+		TextNode tn = new TextNode();
+		
+		ele.attachInstance(_rootElementPtr);
+		long first = ele.getChildPtr();
+		long last = 0;
+		for(long childPtr = first; childPtr > 0; childPtr = node.getNextNodeHandle()){
+			last = childPtr;
+			node.attachInstance(childPtr);
+		}
+		TLongStack pending = new TLongArrayStack();
+		if(first > 0){
+			pending.push(first);
+		}
+		while(pending.size() > 0){
+			long nodePtr = pending.pop();
+			node.attachInstance(nodePtr);
+			long nextPtr = node.getNextNodeHandle();
+			if(nextPtr > 0){
+				pending.push(nextPtr);
+				node.setNextNodeHandle(nextPtr + delta);
+			}
+			if(node.getClassForInstance() == Element.class){
+				ele.attachInstance(nodePtr);
+				ele.setTagNameRef(moveNameRef(ele.getTagNameRef(), nameRefs, target));
+				if(ele.getNamespaceRef() != NameDictionary.NoRef){
+					ele.setNamespaceRef(moveNameRef(ele.getNamespaceRef(), nameRefs, target));
+				}
+				long childPtr = ele.getChildPtr();
+				if(childPtr > 0){
+					pending.push(childPtr);
+					ele.setChildPtr(childPtr + delta);
+				}
+				long attribPtr = ele.getAttribPtr();
+				if(attribPtr > 0){
+					ele.setAttribPtr(attribPtr + delta);
+				}
+				while(attribPtr > 0){
+					attrib.attachInstance(attribPtr);
+					attrib.setNameRef(moveNameRef(attrib.getNameRef(), nameRefs, target));
+					attrib.setValueHandle(ObjectStore.moveStringHandle(attrib.getValueHandle(), delta));
+					attribPtr = attrib.getNextNodeHandle();
+					if(attribPtr > 0){
+						attrib.setNextNodeHandle(attribPtr + delta);
+					}
+				}
+			}else{
+				tn.attachInstance(nodePtr);
+				tn.setTextHandle(ObjectStore.moveStringHandle(tn.getTextHandle(), delta));
+			}
+		}
+		return (first > 0 ? new long[]{first + delta, last + delta} : new long[]{0, 0});
+	}
+	private int moveNameRef(int ref, int[] nameRefs, OurXMLDoc target){
+		if(nameRefs[ref] < 0){
+			synchronized (target) { // names of all chunks go to the same table, the first time a chunk meets a name
+				nameRefs[ref] = target.getStringRef(getStringFromRef(ref));
+				if(_names.isQualified(ref)){
+					target._names.qualify(nameRefs[ref]);
+				}
+			}
+		}
+		return nameRefs[ref];
+	}
+	private static byte[] concat(byte[]... parts){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for(byte[] part : parts){
+			bytes.write(part, 0, part.length);
+		}
+		return bytes.toByteArray();
+	}
+	// bytes of a file region, read at their position so that any number of them read the same channel together
+	private static final class RegionInputStream extends InputStream {
+		private final FileChannel _channel;
+		private long _position;
+		private final long _end;
+		
+		RegionInputStream(FileChannel channel, long start, long end){
+			_channel = channel;
+			_position = start;
+			_end = end;
+		}
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return (read(one, 0, 1) < 0 ? -1 : one[0] & 0xff);
+		}
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if(_position >= _end){
+				return -1;
+			}
+			int count = _channel.read(ByteBuffer.wrap(bytes, offset, (int)Math.min(length, _end - _position)), _position);
+			if(count > 0){
+				_position += count;
+			}
+			return count;
+		}
+	}
+	
+	// receives the subtrees streamFile() materializes
+	public interface SubtreeHandler {
+		// element is in the document for the call, with all of its content. true keeps it there as a child of the root
+		// element, else it is dropped and its handles become invalid
+		boolean matched(int pathIndex, long elementHandle) throws IOException;
+	}
+	
+	private static final int MaxStreamPaths = Long.SIZE;
+	
+	// streaming load for huge files of which only some subtrees are needed. elements at one of the paths (getNodeHandle()
+	// syntax, below the root element, e.g. "/item/details") are stored one at a time and handed over; nothing else is
+	// stored but the root element, so memory is bound by the largest match plus what the handler keeps. a match inside
+	// a match is part of it
+	public void streamFile(String filePath, String[] paths, SubtreeHandler handler) throws IOException {
+		if(paths.length > MaxStreamPaths){
+			throw new IllegalArgumentException(String.format("At most %d paths can be streamed together.", MaxStreamPaths));
+		}
+		int[][] pathRefs = new int[paths.length][];
+		for(int index=0; index < paths.length; ++index){
+			String[] splits = paths[index].split(XPathSplitter);
+			int startIndex = (splits.length > 0 && splits[0].isEmpty() ? 1 : 0);
+			pathRefs[index] = new int[splits.length - startIndex];
+			for(int level=startIndex; level < splits.length; ++level){
+				pathRefs[index][level-startIndex] = getStringRef(splits[level]);
+			}
+		}
+		
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false); // names and xmlns attributes as loadFile() has them
+		try(InputStream in = new BufferedInputStream(new FileInputStream(filePath), 1 << 16)){
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				streamDocument(reader, pathRefs, handler);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException | SAXException e) {
+			throw new IOException(e);
+		}
+	}
+	private void streamDocument(XMLStreamReader reader, int[][] pathRefs, SubtreeHandler handler) throws XMLStreamException, SAXException, IOException {
+		SubtreeBuilder builder = new SubtreeBuilder();
+		AttributesImpl attributes = new AttributesImpl();
+		long[] matchStack = new long[16]; // per level the paths which match up to it, one bit each
+		int depth = -1; // root element is at 0
+		int subtreeDepth = -1; // level of the match being stored
+		int subtreePath = -1;
+		long subtreeStart = 0;
+		Element root = new Element();
+		Node lastKept = new Node();
+		_rootElementPtr = 0;
+		
+		while(reader.hasNext()){
+			switch(reader.next()){
+			case XMLStreamConstants.START_ELEMENT:
+				++depth;
+				String qName = getQName(reader);
+				if(depth == 0){ // root element is stored without children, kept subtrees go under it
+					builder.startElement(null, null, qName, getAttributes(reader, attributes));
+					builder.endElement(null, null, qName);
+					builder.openScope(attributes); // for the kept subtrees
+					root.attachInstance(_rootElementPtr);
+					matchStack[0] = (pathRefs.length == Long.SIZE ? -1L : (1L << pathRefs.length) - 1);
+				}else if(subtreeDepth >= 0){
+					builder.startElement(null, null, qName, getAttributes(reader, attributes));
+				}else{
+					if(depth >= matchStack.length){
+						matchStack = Arrays.copyOf(matchStack, 2*matchStack.length);
+					}
+					int nameRef = getStringRefNoAdd(qName);
+					long matches = 0;
+					for(long candidates = matchStack[depth-1]; candidates != 0; candidates &= candidates - 1){
+						int index = Long.numberOfTrailingZeros(candidates);
+						int[] refs = pathRefs[index];
+						if(refs.length >= depth && refs[depth-1] == nameRef){
+							matches |= 1L << index;
+							if(refs.length == depth && subtreeDepth < 0){ // first path wins if more match
+								subtreeDepth = depth;
+								subtreePath = index;
+							}
+						}
+					}
+					matchStack[depth] = matches;
+					if(subtreeDepth >= 0){
+						subtreeStart = _objectStore.size();
+						builder.startElement(null, null, qName, getAttributes(reader, attributes));
+					}else if(matches == 0){
+						skipElement(reader);
+						--depth;
+					}else{
+						builder.openScope(getAttributes(reader, attributes));
+					}
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if(subtreeDepth >= 0){
+					builder.endElement(null, null, getQName(reader));
+					if(depth == subtreeDepth){
+						long subtreePtr = builder._subtreePtr;
+						if(handler.matched(subtreePath, subtreePtr)){
+							if(lastKept.getPtr() > 0){
+								lastKept.setNextNodeHandle(subtreePtr);
+							}else{
+								root.setChildPtr(subtreePtr);
+							}
+							lastKept.attachInstance(subtreePtr);
+						}else{
+							rewind(subtreeStart);
+						}
+						subtreeDepth = -1;
+					}
+				}else if(depth > 0){ // leads to a match
+					builder.closeScope();
+				}
+				--depth;
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				if(subtreeDepth >= 0){
+					builder.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				}
+				break;
+			}
+		}
+	}
+	// stores the elements it is given with their content, the outermost one is not linked anywhere
+	private final class SubtreeBuilder extends UserHandler {
+		long _subtreePtr = 0;
+		
+		@Override
+		protected void topElementEnded(long elementPtr){
+			if(_rootElementPtr == 0){
+				super.topElementEnded(elementPtr);
+			}
+			_subtreePtr = elementPtr;
+		}
+	}
+	// to the end of the current element, nothing in it is looked at
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		for(int depth = 1; depth > 0; ){
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT){
+				++depth;
+			}else if(event == XMLStreamConstants.END_ELEMENT){
+				--depth;
+			}
+		}
+	}
+	private static String getQName(XMLStreamReader reader){
+		String prefix = reader.getPrefix();
+		return (prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName());
+	}
+	private static Attributes getAttributes(XMLStreamReader reader, AttributesImpl attributes){
+		attributes.clear();
+		for(int index=0; index < reader.getAttributeCount(); ++index){
+			String prefix = reader.getAttributePrefix(index);
+			String localName = reader.getAttributeLocalName(index);
+			attributes.addAttribute(null, localName, (prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName), null, reader.getAttributeValue(index));
+		}
+		return attributes;
+	}
+	
+	private void parse(InputStream in) throws Exception {
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		saxParser.parse(in, new UserHandler());
+	}
+	
 	public void loadFile(String filePath){
 	      try {	
 	          File inputFile = new File(filePath);
@@ -57,16 +886,45 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 	       }		// use 
 	}
 	
+	// optional byte level load of utf-8 and ascii documents, text and attribute values go from the file into the store
+	// without being decoded (see XmlByteParser). documents it does not support are loaded by loadFile(filePath)
+	public void loadFileFast(String filePath) throws IOException {
+		try(FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)){
+			_rootElementPtr = 0;
+			XmlByteParser.parse(channel, _objectStore, new UserHandler());
+		}catch(XmlByteParser.UnsupportedDocumentException e){
+			loadFile(filePath);
+		}
+	}
+	
+	// text goes out as CDATA and attribute values as they are, see write() instead
+	@Deprecated
 	public void print(PrintWriter out) throws InvalidClassException{
 		Element ele = new Element();
 		Node node = new Node();
 		Attribute attrib = new Attribute();
 		TextNode tn = new TextNode();
+		TextWriter text = new TextWriter();
 		int level = -1;
-		printElement(out, _rootElementPtr, level, node, ele, attrib, tn);
+		printElement(out, _rootElementPtr, level, node, ele, attrib, tn, text);
+	}
+	
+	// stored strings are decoded into one reused buffer instead of a String per value
+	private final class TextWriter {
+		private CharBuffer _chars = CharBuffer.allocate(256);
+		
+		public void write(PrintWriter writer, long stringHandle){
+			long length = _objectStore.getStringByteLength(stringHandle); // never less than the number of chars
+			if(length > _chars.capacity()){
+				_chars = CharBuffer.allocate((int)Math.max(length, 2L*_chars.capacity()));
+			}
+			_chars.clear();
+			_objectStore.appendString(stringHandle, _chars);
+			writer.write(_chars.array(), 0, _chars.position());
+		}
 	}
 	
-	private void printElement(PrintWriter writer, long elementPtr, int level, Node node, Element ele, Attribute attrib, TextNode tn) throws InvalidClassException {
+	private void printElement(PrintWriter writer, long elementPtr, int level, Node node, Element ele, Attribute attrib, TextNode tn, TextWriter text) throws InvalidClassException {
 		++level;
 
 		ele.attachInstance(elementPtr);
@@ -83,7 +941,7 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 			writer.print(" ");
 			writer.print(attrib.getName());
 			writer.print("=\"");
-			writer.print(attrib.getValue());
+			text.write(writer, attrib.getValueHandle());
 			writer.print("\"");
 			attribPtr = attrib.getNextNodeHandle();
 		}
@@ -97,13 +955,13 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 			node.attachInstance(childPtr);
 			long nextChildPtr = node.getNextNodeHandle();
 			if(node.getClassForInstance() == Element.class){
-				printElement(writer, childPtr, level, node, ele, attrib, tn);
+				printElement(writer, childPtr, level, node, ele, attrib, tn, text);
 			}else{
 				for(int i=0; i<level;++i) 
 					writer.print("\t");
 				writer.print("<![CDATA[");
 				tn.attachInstance(childPtr);
-				writer.print(tn.getText());
+				text.write(writer, tn.getTextHandle());
 				writer.print("]]>");
 				writer.println();
 			}
@@ -117,56 +975,502 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		writer.print(">");
 		writer.println();
 	}
+	
+	public void write(Path path, XmlOutputMode mode) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			write(channel, mode);
+		}
+	}
+	public void write(OutputStream out, XmlOutputMode mode) throws IOException {
+		write(Channels.newChannel(out), mode);
+	}
+	// the document as utf-8 to the channel, which stays open. stored bytes are copied to one large buffer without
+	// building Strings, text and attribute values are escaped. the walk keeps its own stack of open elements, so the
+	// nesting depth is not limited by the thread stack
+	public void write(WritableByteChannel channel, XmlOutputMode mode) throws IOException {
+		new XmlSerializer(channel, mode).writeDocument();
+	}
+	
+	private final class XmlSerializer {
+		private static final int BufferSize = 1 << 20;
+		private static final byte[] Declaration = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n".getBytes(StandardCharsets.US_ASCII);
+		private static final byte[][] TextEscapes = escapes("&&amp;", "<&lt;", ">&gt;", "\r&#xD;");
+		private static final byte[][] AttributeEscapes = escapes("&&amp;", "<&lt;", "\"&quot;", "\t&#x9;", "\n&#xA;", "\r&#xD;");
+		private static final byte[] NoNamespace = new byte[0];
+		private static final byte[] XmlPrefix = "xml".getBytes(StandardCharsets.US_ASCII);
+		private static final byte[] XmlNamespaceBytes = XmlNamespace.getBytes(StandardCharsets.US_ASCII);
+		
+		// replacement by ascii byte, each given as the byte followed by its replacement
+		private static byte[][] escapes(String... replacements){
+			byte[][] escapes = new byte[128][];
+			for(String replacement : replacements){
+				escapes[replacement.charAt(0)] = replacement.substring(1).getBytes(StandardCharsets.US_ASCII);
+			}
+			return escapes;
+		}
+		
+		private final WritableByteChannel _channel;
+		private final XmlOutputMode _mode;
+		private final byte[] _out = new byte[BufferSize];
+		private int _outPos = 0;
+		private byte[] _text = new byte[256];			// escaped or too long for _out
+		private long[] _nextNodes = new long[16];		// per depth the next node to write
+		private long[] _openElements = new long[16];
+		// canonical order: the attributes with their names and namespace uris, null for a namespace declaration
+		private long[] _attribs = new long[8];
+		private int[] _attribNames = new int[8];
+		private byte[][] _attribUris = new byte[8][];
+		
+		private final Node _node = new Node();
+		private final Element _ele = new Element();
+		private final Attribute _attrib = new Attribute();
+		private final TextNode _tn = new TextNode();
+		private final Element _scopeEle = new Element();		// where a prefix is declared
+		private final Attribute _scopeAttrib = new Attribute();
+		
+		XmlSerializer(WritableByteChannel channel, XmlOutputMode mode){
+			_channel = channel;
+			_mode = mode;
+		}
+		
+		void writeDocument() throws IOException {
+			if(_mode != XmlOutputMode.CANONICAL){
+				put(Declaration, 0, Declaration.length);
+			}
+			int depth = -1;
+			if(_rootElementPtr > 0 && startElement(_rootElementPtr, 0)){
+				depth = 0;
+				_openElements[0] = _rootElementPtr;
+				_nextNodes[0] = _ele.getChildPtr();
+			}
+			while(depth >= 0){
+				long handle = _nextNodes[depth];
+				if(handle == 0){
+					_ele.attachUnchecked(_openElements[depth]);
+					indent(depth);
+					endTag(_ele.getTagNameRef());
+					--depth;
+					continue;
+				}
+				_node.attachInstance(handle);
+				_nextNodes[depth] = _node.getNextNodeHandle();
+				if(_node.getClassForInstance() == Element.class){
+					if(startElement(handle, depth + 1)){
+						if(++depth == _nextNodes.length){
+							_nextNodes = Arrays.copyOf(_nextNodes, 2*depth);
+							_openElements = Arrays.copyOf(_openElements, 2*depth);
+						}
+						_openElements[depth] = handle;
+						_nextNodes[depth] = _ele.getChildPtr();
+					}
+				}else{
+					_tn.attachUnchecked(handle);
+					indent(depth + 1);
+					writeString(_tn.getTextHandle(), TextEscapes);
+					newLine();
+				}
+			}
+			flush();
+		}
+		
+		// start tag at a level; true if the children are still to be written, else the element is written whole.
+		// _ele stays attached to the element
+		private boolean startElement(long handle, int level) throws IOException {
+			_ele.attachUnchecked(handle);
+			int tagRef = _ele.getTagNameRef();
+			indent(level);
+			putByte('<');
+			putName(tagRef);
+			if(_mode == XmlOutputMode.CANONICAL){
+				writeSortedAttributes(level);
+			}else{
+				for(long attribPtr = _ele.getAttribPtr(); attribPtr > 0; attribPtr = _attrib.getNextNodeHandle()){
+					writeAttribute(attribPtr);
+				}
+			}
+			long childPtr = _ele.getChildPtr();
+			if(childPtr == 0){
+				if(_mode == XmlOutputMode.CANONICAL){
+					putByte('>');
+					endTag(tagRef);
+				}else{
+					putByte('/');
+					putByte('>');
+					newLine();
+				}
+				return false;
+			}
+			putByte('>');
+			if(_mode == XmlOutputMode.PRETTY){
+				_node.attachInstance(childPtr);
+				if(_node.getClassForInstance() == TextNode.class && _node.getNextNodeHandle() == 0){
+					_tn.attachUnchecked(childPtr);
+					writeString(_tn.getTextHandle(), TextEscapes);
+					endTag(tagRef);
+					return false;
+				}
+				newLine();
+			}
+			return true;
+		}
+		private void endTag(int tagRef) throws IOException {
+			putByte('<');
+			putByte('/');
+			putName(tagRef);
+			putByte('>');
+			newLine();
+		}
+		
+		private void writeAttribute(long attribPtr) throws IOException {
+			_attrib.attachUnchecked(attribPtr);
+			putByte(' ');
+			putName(_attrib.getNameRef());
+			putByte('=');
+			putByte('"');
+			writeString(_attrib.getValueHandle(), AttributeEscapes);
+			putByte('"');
+		}
+		// namespace declarations first by name, i.e. the default one and then by prefix, then the attributes by namespace uri
+		// (none first) and local name. names and uris in code point order, which is the order of their utf-8 bytes
+		private void writeSortedAttributes(int level) throws IOException {
+			int count = 0;
+			for(long attribPtr = _ele.getAttribPtr(); attribPtr > 0; attribPtr = _attrib.getNextNodeHandle()){
+				_attrib.attachUnchecked(attribPtr);
+				int nameRef = _attrib.getNameRef();
+				byte[] uri = (isNamespaceDeclaration(name(nameRef)) ? null : attributeNamespace(nameRef, level));
+				if(count == _attribs.length){
+					_attribs = Arrays.copyOf(_attribs, 2*count);
+					_attribNames = Arrays.copyOf(_attribNames, 2*count);
+					_attribUris = Arrays.copyOf(_attribUris, 2*count);
+				}
+				int i = count++;
+				for(; i > 0 && compareAttributes(_attribNames[i-1], _attribUris[i-1], nameRef, uri) > 0; --i){
+					_attribs[i] = _attribs[i-1];
+					_attribNames[i] = _attribNames[i-1];
+					_attribUris[i] = _attribUris[i-1];
+				}
+				_attribs[i] = attribPtr;
+				_attribNames[i] = nameRef;
+				_attribUris[i] = uri;
+			}
+			for(int i=0; i<count; ++i){
+				writeAttribute(_attribs[i]);
+			}
+		}
+		private int compareAttributes(int nameRef1, byte[] uri1, int nameRef2, byte[] uri2){
+			if((uri1 == null) != (uri2 == null)){
+				return (uri1 == null ? -1 : 1);
+			}
+			if(uri1 == null){
+				return Arrays.compareUnsigned(name(nameRef1), name(nameRef2));
+			}
+			int order = Arrays.compareUnsigned(uri1, uri2);
+			return (order != 0 ? order : Arrays.compareUnsigned(name(localName(nameRef1)), name(localName(nameRef2))));
+		}
+		private int localName(int nameRef){
+			int localRef = _names.getLocal(nameRef);
+			return (localRef != NameDictionary.NoRef ? localRef : nameRef);
+		}
+		// uri of the prefix of an attribute of _ele, an element at level, as it is declared on it or on its open ancestors;
+		// empty for none. an attribute without prefix is in no namespace, the default one is for elements
+		private byte[] attributeNamespace(int nameRef, int level){
+			int prefixRef = (_names.getLocal(nameRef) != NameDictionary.NoRef ? _names.getPrefix(nameRef) : NameDictionary.NoRef);
+			if(prefixRef == NameDictionary.NoRef){
+				return NoNamespace;
+			}
+			byte[] prefix = name(prefixRef);
+			if(Arrays.equals(prefix, XmlPrefix)){
+				return XmlNamespaceBytes;
+			}
+			for(int i=level; i>=0; --i){
+				_scopeEle.attachUnchecked(i == level ? _ele.getPtr() : _openElements[i]);
+				for(long attribPtr = _scopeEle.getAttribPtr(); attribPtr > 0; attribPtr = _scopeAttrib.getNextNodeHandle()){
+					_scopeAttrib.attachUnchecked(attribPtr);
+					int declarationRef = _scopeAttrib.getNameRef();
+					byte[] declaration = name(declarationRef);
+					if(declaration.length == 6 + prefix.length && isNamespaceDeclaration(declaration) && localName(declarationRef) == prefixRef){
+						long uriHandle = _scopeAttrib.getValueHandle();
+						byte[] uri = new byte[(int)_objectStore.getStringByteLength(uriHandle)];
+						_objectStore.getStringBytes(uriHandle, uri);
+						return uri;
+					}
+				}
+			}
+			return NoNamespace; // not declared
+		}
+		
+		private byte[] name(int ref){
+			return _names.getBytes(ref);
+		}
+		private void putName(int ref) throws IOException {
+			byte[] name = name(ref);
+			put(name, 0, name.length);
+		}
+		
+		// the bytes go to _out as they are stored and are only copied again from the first one to escape on
+		private void writeString(long handle, byte[][] escapes) throws IOException {
+			int length = (int)_objectStore.getStringByteLength(handle);
+			if(length > _out.length - _outPos){
+				flush();
+			}
+			if(length <= _out.length - _outPos){
+				_objectStore.getStringBytes(handle, _out, _outPos);
+				int first = 0;
+				while(first < length && (_out[_outPos + first] < 0 || escapes[_out[_outPos + first]] == null)){
+					++first;
+				}
+				if(first == length){
+					_outPos += length;
+					return;
+				}
+				length -= first;
+				text(length);
+				System.arraycopy(_out, _outPos + first, _text, 0, length);
+				_outPos += first;
+			}else{
+				text(length);
+				_objectStore.getStringBytes(handle, _text);
+			}
+			int start = 0;
+			for(int i=0; i<length; ++i){
+				byte b = _text[i];
+				if(b >= 0 && escapes[b] != null){
+					put(_text, start, i - start);
+					put(escapes[b], 0, escapes[b].length);
+					start = i + 1;
+				}
+			}
+			put(_text, start, length - start);
+		}
+		private void text(int length){
+			if(length > _text.length){
+				_text = new byte[Math.max(length, 2*_text.length)];
+			}
+		}
+		
+		private void indent(int level) throws IOException {
+			if(_mode == XmlOutputMode.PRETTY){
+				for(int i=0; i<level; ++i){
+					putByte('\t');
+				}
+			}
+		}
+		private void newLine() throws IOException {
+			if(_mode == XmlOutputMode.PRETTY){
+				putByte('\n');
+			}
+		}
+		private void putByte(int b) throws IOException {
+			if(_outPos == _out.length){
+				flush();
+			}
+			_out[_outPos++] = (byte)b;
+		}
+		private void put(byte[] bytes, int offset, int length) throws IOException {
+			if(length > _out.length - _outPos){
+				flush();
+				if(length > _out.length){
+					writeFully(ByteBuffer.wrap(bytes, offset, length));
+					return;
+				}
+			}
+			System.arraycopy(bytes, offset, _out, _outPos, length);
+			_outPos += length;
+		}
+		private void flush() throws IOException {
+			writeFully(ByteBuffer.wrap(_out, 0, _outPos));
+			_outPos = 0;
+		}
+		private void writeFully(ByteBuffer buffer) throws IOException {
+			while(buffer.hasRemaining()){
+				_channel.write(buffer);
+			}
+		}
+	}
 	public String getInfo(){
 		StringBuilder bldr = new StringBuilder();
-		bldr.append(String.format("String ref:%d\n", StringRefs.size()));
+		bldr.append(String.format("String ref:%d\n", _names.size()));
+		if(!_largeNameRefs.isEmpty()){
+			bldr.append(String.format("Large name refs:%d\n", _largeNameRefs.size()));
+		}
+		ElementIndex index = _elementIndex;
+		if(index != null){
+			bldr.append(String.format("Element index=%dKB\n", index.memoryBytes() >> 10));
+		}
+		if(_compactEnd > 0){
+			bldr.append(String.format("Compact nodes=%dKB\n", _compactEnd >> 10));
+		}
 		_objectStore.addDebugInfo(bldr);
 
 
 		return bldr.toString();
 	}
-	class UserHandler extends DefaultHandler{
+	private static final String XmlNamespace = "http://www.w3.org/XML/1998/namespace"; // of the xml prefix, which is not declared
+	// xmlns or xmlns:prefix
+	private static boolean isNamespaceDeclaration(byte[] name){
+		return name.length >= 5 && name[0] == 'x' && name[1] == 'm' && name[2] == 'l' && name[3] == 'n' && name[4] == 's'
+				&& (name.length == 5 || name[5] == ':');
+	}
+	class UserHandler extends DefaultHandler implements XmlByteParser.Handler{
 		private TLongStack _elementStack = new TLongArrayStack();
 		private TLongStack _containerStack = new TLongArrayStack();
+		// namespaces in scope: prefix ref (NoRef for the default namespace) and uri ref (NoRef for none) pairs, those
+		// bound by an element are dropped at its end
+		private int[] _bindings = new int[16];
+		private int _bindingCount = 0;
+		private final TIntStack _scopeStarts = new TIntArrayStack();
 		private Element _eleWrapper1 = new Element();
 		private TextNode _tnWrapper = new TextNode();
 		private long _currentElementPtr = -1;
 		private long _currentContainerPtr = -1;
+		private long _lastAttribPtr = 0;
 		
 		@Override
 		public void endElement(String uri, String localName, String qName) throws SAXException {
 			try{
+				appendText();
 				Element currentElement = _eleWrapper1;
 				currentElement.attachInstance(_currentElementPtr);
 				if(!currentElement.isValidEndTag(qName, null)){
 					throw new SAXException(String.format("Unmatched tag qName()Start=%s qName()End=%s .", currentElement.getTagName(), qName));
 				}
-				if(_elementStack.size() > 0){
-					_currentElementPtr = _elementStack.pop();
-					_currentContainerPtr = _containerStack.pop();
-					appendNode(currentElement.getPtr());
-				}else {
-					_rootElementPtr = _currentElementPtr;
-				}
+				closeElement();
 			}catch(Exception ex){
 				ex.printStackTrace();
 				throw new SAXException(ex);
 			}
 		}
+		private void closeElement() throws InvalidClassException {
+			closeScope();
+			long elementPtr = _currentElementPtr;
+			if(_elementStack.size() > 0){
+				_currentElementPtr = _elementStack.pop();
+				_currentContainerPtr = _containerStack.pop();
+				appendNode(elementPtr);
+			}else {
+				topElementEnded(elementPtr);
+				_currentElementPtr = _currentContainerPtr = -1;
+			}
+		}
+		// end of the outermost element
+		protected void topElementEnded(long elementPtr){
+			_rootElementPtr = elementPtr;
+		}
 		@Override
 		public void startElement(String uri, String localName, String qName, Attributes attributes)
 				throws SAXException {
+			try {
+				appendText();
+			} catch (InvalidClassException e) {
+				throw new SAXException(e);
+			}
+			int tagNameRef = _names.addQualified(qName);
+			Element newElement = openElement(tagNameRef);
+			newElement.setAttribPtr(writeAttributes(attributes));
+			bindNamespaces(attributes);
+			setNamespace(newElement, tagNameRef);
+		}
+		private Element openElement(int tagNameRef){
 			Element newElement = _eleWrapper1;
 			newElement.newInstance();
-			newElement.setTagName(qName);
-			newElement.setAttribPtr(writeAttributes(attributes));
+			newElement.setTagNameRef(tagNameRef);
+			_scopeStarts.push(_bindingCount);
 			
 			if(_currentElementPtr > 0){
 				_elementStack.push(_currentElementPtr);
 				_containerStack.push(_currentContainerPtr);
 			}
-			
-			_currentElementPtr = _currentContainerPtr = newElement.getPtr();
+			
+			_currentElementPtr = _currentContainerPtr = newElement.getPtr();
+			_lastAttribPtr = 0;
+			return newElement;
+		}
+		
+		// XmlByteParser.Handler, names come as refs and strings as handles
+		@Override
+		public int nameRef(byte[] name, int start, int length){
+			return _names.addQualified(name, start, length);
+		}
+		@Override
+		public void startElement(int nameRef){
+			openElement(nameRef);
+		}
+		@Override
+		public void attribute(int nameRef, long valueHandle) throws IOException {
+			Attribute attrib = _tempAttrib;
+			attrib.newInstance();
+			attrib.setNameRef(nameRef);
+			attrib.setValueHandle(valueHandle);
+			if(_lastAttribPtr == 0){
+				_ele2.attachUnchecked(_currentElementPtr);
+				_ele2.setAttribPtr(attrib.getPtr());
+			}else{
+				_nodePtr.attachUnchecked(_lastAttribPtr);
+				_nodePtr.setNextNodeHandle(attrib.getPtr());
+			}
+			_lastAttribPtr = attrib.getPtr();
+			byte[] name = _names.getBytes(nameRef);
+			if(isNamespaceDeclaration(name)){
+				bind(name.length == 5 ? NameDictionary.NoRef : _names.getLocal(nameRef), _objectStore.getStringFromByteArray(valueHandle));
+			}
+		}
+		@Override
+		public void startTagEnded(){
+			_eleWrapper1.attachUnchecked(_currentElementPtr);
+			setNamespace(_eleWrapper1, _eleWrapper1.getTagNameRef());
+		}
+		
+		// xmlns attributes of an element which is not stored, e.g. one which leads to the subtrees streamFile() keeps
+		void openScope(Attributes attributes){
+			_scopeStarts.push(_bindingCount);
+			bindNamespaces(attributes);
+		}
+		void closeScope(){
+			_bindingCount = _scopeStarts.pop();
+		}
+		private void bindNamespaces(Attributes attributes){
+			for(int index=0; index < attributes.getLength(); ++index){
+				String name = attributes.getQName(index);
+				if(name.startsWith("xmlns") && (name.length() == 5 || name.charAt(5) == ':')){
+					bind(name.length() == 5 ? NameDictionary.NoRef : getStringRef(name.substring(6)), attributes.getValue(index));
+				}
+			}
+		}
+		private void bind(int prefixRef, String uri){
+			if(2*_bindingCount == _bindings.length){
+				_bindings = Arrays.copyOf(_bindings, 2*_bindings.length);
+			}
+			_bindings[2*_bindingCount] = prefixRef;
+			_bindings[2*_bindingCount + 1] = (uri.isEmpty() ? NameDictionary.NoRef : getStringRef(uri));
+			++_bindingCount;
+		}
+		// the innermost binding of its prefix, none for an unbound prefix
+		private void setNamespace(Element element, int tagNameRef){
+			int prefixRef = _names.getPrefix(tagNameRef);
+			for(int i=_bindingCount-1; i>=0; --i){
+				if(_bindings[2*i] == prefixRef){
+					element.setNamespaceRef(_bindings[2*i + 1]);
+					return;
+				}
+			}
+			if(prefixRef != NameDictionary.NoRef && getStringFromRef(prefixRef).equals("xml")){
+				element.setNamespaceRef(getStringRef(XmlNamespace));
+			}
+		}
+		@Override
+		public void text(long textHandle) throws IOException {
+			_tnWrapper.newInstance();
+			_tnWrapper.setTextHandle(textHandle);
+			appendNode(_tnWrapper.getPtr());
+		}
+		@Override
+		public void endElement(int nameRef) throws IOException {
+			Element currentElement = _eleWrapper1;
+			currentElement.attachUnchecked(_currentElementPtr);
+			if(currentElement.getTagNameRef() != nameRef){
+				throw new IOException(String.format("Unmatched tag qName()Start=%s qName()End=%s .", currentElement.getTagName(), getStringFromRef(nameRef)));
+			}
+			closeElement();
 		}
 		
 		private Attribute _tempAttrib = new Attribute();
@@ -184,47 +1488,50 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 
 			return attribHandle;
 		}
+		// parser may hand over a text in pieces, e.g. at the end of its buffer, so it is collected up to the next tag
+		private final StringBuilder _text = new StringBuilder();
 		@Override
 		public void characters(char[] ch, int start, int length) throws SAXException {
-			try {
-				// skip start whitespaces
-				while(length > 0){
-					char cur = ch[start];
-					if(Character.isWhitespace(cur)){
-						++start;
-						--length;
-					}else{
-						break;
-					}
-				}
-				// skip end whitespaces
-				while(length > 0){
-					char cur = ch[start+length-1];
-					if(Character.isWhitespace(cur)){
-						--length;
-					}else{
-						break;
-					}
+			_text.append(ch, start, length);
+		}
+		private void appendText() throws InvalidClassException {
+			int start = 0;
+			int length = _text.length();
+			// skip start whitespaces
+			while(length > 0){
+				char cur = _text.charAt(start);
+				if(Character.isWhitespace(cur)){
+					++start;
+					--length;
+				}else{
+					break;
 				}
-				
-				if(length > 0){
-					_tnWrapper.newInstance();
-					_tnWrapper.setText(new String(ch, start, length));
-					appendNode(_tnWrapper.getPtr());
+			}
+			// skip end whitespaces
+			while(length > 0){
+				char cur = _text.charAt(start+length-1);
+				if(Character.isWhitespace(cur)){
+					--length;
+				}else{
+					break;
 				}
-			} catch (Exception e) {
-				e.printStackTrace();
-				throw new SAXException(e);
 			}
+			
+			if(length > 0){
+				_tnWrapper.newInstance();
+				_tnWrapper.setText(_text.substring(start, start+length));
+				appendNode(_tnWrapper.getPtr());
+			}
+			_text.setLength(0);
 		}
 		Node _nodePtr = new Node();
 		Element _ele2 = new Element(); 
 		private void appendNode(long childNodePtr) throws InvalidClassException {
 			if(_currentContainerPtr == _currentElementPtr){ // set child
-				_ele2.attachInstance(_currentElementPtr);
+				_ele2.attachUnchecked(_currentElementPtr);
 				_ele2.setChildPtr(childNodePtr);
 			}else{ // set sibling
-				_nodePtr.attachInstance(_currentContainerPtr);
+				_nodePtr.attachUnchecked(_currentContainerPtr);
 				_nodePtr.setNextNodeHandle(childNodePtr);
 			}
 			_currentContainerPtr = childNodePtr;
@@ -232,11 +1539,15 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 	}
 	
 	long _rootElementPtr = 0;
+	private long _compactEnd = 0; // nodes before it are in the compact layout, see copyCompact()
 	
-	private class Node {
+	class Node {
 		private long _objPtr = -1L;
+		private long _wordPtr = -1L; // node of _word
+		private long _word;
 		private final int _nextNodeOffset;
 		private int _totalLength;
+		private final byte _objStoreType = findObjStoreType();
 		public Node(){
 			_totalLength = 1;
 			_nextNodeOffset = addMemoryHandle();
@@ -279,6 +1590,9 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		}
 		
 		protected final byte getObjStoreType(){
+			return _objStoreType;
+		}
+		private byte findObjStoreType(){
 			byte objStoreType = -1;
 			for(byte index=0; index < ObjectClasses.length; ++index)
 				if(ObjectClasses[index] == this.getClass()){
@@ -293,9 +1607,27 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		
 		private final byte getStoredObjType(){
 			checkObjectPtr();
+			if(isCompact()){
+				return (byte)(getCompactWord() & CompactLayout.ClassMask);
+			}
 			return _objectStore.getByte(_objPtr, 0);
 		}
+		protected final boolean isCompact(){
+			return _objPtr < _compactEnd;
+		}
+		// nodes in the compact layout do not change, so their first bytes are read once per attach
+		protected final long getCompactWord(){
+			if(_wordPtr != _objPtr){
+				_word = _objectStore.getWord(_objPtr);
+				_wordPtr = _objPtr;
+			}
+			return _word;
+		}
 
+		// for nodes whose type is known, e.g. the ones the loader has just made
+		final void attachUnchecked(long index){
+			_objPtr = index;
+		}
 		public final void attachInstance(long index) throws InvalidClassException{
 			_objPtr = index;
 			boolean inValid = true;
@@ -315,12 +1647,19 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 				throw new IllegalStateException("Invalid Node Handle");
 			}
 		}
+		private final void checkNotCompact() {
+			if(isCompact()){
+				throw new IllegalStateException("Nodes in the compact layout can not be changed.");
+			}
+		}
 
 		protected final void setNullToMemoryHandleOffset(int offset){
 			setMemoryHandleToObjectBuffer(offset, 0);
 		}
 		protected final void setMemoryHandleToObjectBuffer(int offset, long val){
 			checkObjectPtr();
+			checkNotCompact();
+			++_modifications;
 			_objectStore.setObjectHandle(_objPtr, offset, val);
 		}
 		protected final long getMemoryHandleFromObjectBuffer(int offset){
@@ -334,11 +1673,20 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		}
 		protected final void setStringRefToObjectBuffer(int offset, int val){
 			checkObjectPtr();
+			checkNotCompact();
+			++_modifications;
+			if(val >= LargeNameRef){
+				_largeNameRefs.put(_objPtr + offset, val);
+				val = LargeNameRef;
+			}else if(!_largeNameRefs.isEmpty()){ // the slot may have had a large ref before
+				_largeNameRefs.remove(_objPtr + offset);
+			}
 			_objectStore.setIntegerValue(_objPtr, offset, val, StringRefSize);
 		}
 		protected final int getStringRefFromObjectBuffer(int offset){
 			checkObjectPtr();
-			return (int)_objectStore.getIntegerValue(_objPtr, offset, StringRefSize);
+			int val = (int)_objectStore.getIntegerValue(_objPtr, offset, StringRefSize);
+			return (val != LargeNameRef ? val : _largeNameRefs.get(_objPtr + offset));
 		}
 		
 		public final void setNextNodeHandle(long nextNodeHandle){
@@ -346,51 +1694,74 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		}
 		
 		public final long getNextNodeHandle(){
+			if(isCompact()){
+				return CompactLayout.getNext(_objectStore, _objPtr, getCompactWord());
+			}
 			return getMemoryHandleFromObjectBuffer(_nextNodeOffset);
 		}
 	}
 	
-	private TObjectIntMap<String> StringRefs = new TObjectIntHashMap<>();
-	private List<String> StringList = new ArrayList<>();
-	private final int InvalidStringRef = 0xffff; 
-	private int getStringRef(String val){
-		int ref;
-		if(StringRefs.containsKey(val))
-			ref = StringRefs.get(val);
-		else{
-			ref = StringRefs.size();
-			StringRefs.put(val, ref);
-			StringList.add(val);
-			
-			if(ref >= InvalidStringRef){
-				throw new IllegalStateException("Attribute/Tag Name reference has gone beyoned their permissble limit of 65534(0xffff-1).");
+	private final NameDictionary _names = new NameDictionary();
+	// refs which do not fit the name slot of a node, by the position of the slot. the slot has LargeNameRef then
+	private final TLongIntMap _largeNameRefs = new TLongIntHashMap(16, 0.5f, 0, NameDictionary.NoRef);
+	private static final int LargeNameRef = 0xffff;
+	// drops the store from position on together with the large refs of the nodes there
+	private void rewind(long position){
+		_objectStore.rewind(position);
+		++_modifications; // the space is filled again by other nodes
+		for(TLongIntIterator it = _largeNameRefs.iterator(); it.hasNext(); ){
+			it.advance();
+			if(it.key() >= position){
+				it.remove();
 			}
 		}
-		
-		return ref;
+	}
+	private int getStringRef(String val){
+		return _names.add(val);
 	}
 	private String getStringFromRef(int ref){
-		return StringList.get(ref);
+		return _names.getName(ref);
 	}
-	private int getStringRefNoAdd(String val){
-		int ref = -1;
-		if(StringRefs.containsKey(val))
-			ref = StringRefs.get(val);
-		
-		return ref;
+	int getStringRefNoAdd(String val){
+		return _names.find(val);
 	}
-	private class Attribute extends Node{
+	int getNameCount(){
+		return _names.size();
+	}
+	// for the queries and splits in files of their own, e.g. XPathIterator
+	ObjectStore getObjectStore(){
+		return _objectStore;
+	}
+	class Attribute extends Node{
 		private final int _nameIndexOffset;
 		private final int _valueIndexOffset;
 		
 		public final String getName(){
-			return getStringFromRef(getStringRefFromObjectBuffer(_nameIndexOffset));
+			return getStringFromRef(getNameRef());
+		}
+		public final int getNameRef(){
+			if(isCompact()){
+				return CompactLayout.getNameRef(_objectStore, getPtr(), getCompactWord());
+			}
+			return getStringRefFromObjectBuffer(_nameIndexOffset);
+		}
+		public final void setNameRef(int nameRef){
+			setStringRefToObjectBuffer(_nameIndexOffset, nameRef);
 		}
 		public final void setName(String name){
-			setStringRefToObjectBuffer(_nameIndexOffset, getStringRef(name));
+			setStringRefToObjectBuffer(_nameIndexOffset, _names.addQualified(name));
 		}
 		public final String getValue() {
-			return _objectStore.getStringFromByteArray(getMemoryHandleFromObjectBuffer(_valueIndexOffset));
+			return _objectStore.getStringFromByteArray(getValueHandle());
+		}
+		public final long getValueHandle() {
+			if(isCompact()){
+				return CompactLayout.getValueHandle(_objectStore, getPtr(), getCompactWord());
+			}
+			return getMemoryHandleFromObjectBuffer(_valueIndexOffset);
+		}
+		public final void setValueHandle(long valueHandle) {
+			setMemoryHandleToObjectBuffer(_valueIndexOffset, valueHandle);
 		}
 		public final void setValue(String value) {
 			setMemoryHandleToObjectBuffer(_valueIndexOffset, _objectStore.appendStringToByteArray(value));
@@ -410,11 +1781,12 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 			setNullToMemoryHandleOffset(_valueIndexOffset);
 		}
 	}
-	private class Element extends Node {
+	class Element extends Node {
 
 		private final int _tagNameOffset;
 		private final int _attribOffset;
 		private final int _childOffset;
+		private final int _namespaceOffset; // uri ref + 1, 0 for no namespace; -1 if elements have no slot for it
 		
 		@Override
 		protected void initData() {
@@ -422,6 +1794,9 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 			setInvalidToStringRefOffset(_tagNameOffset);
 			setNullToMemoryHandleOffset(_attribOffset);
 			setNullToMemoryHandleOffset(_childOffset);
+			if(_namespaceOffset >= 0){
+				setStringRefToObjectBuffer(_namespaceOffset, 0);
+			}
 		}
 		
 		public Element() {
@@ -430,19 +1805,29 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 			_tagNameOffset = addStringRef();
 			_attribOffset = addMemoryHandle();
 			_childOffset = addMemoryHandle();
+			_namespaceOffset = (_elementNamespaces ? addStringRef() : -1);
 		}
 		
 		public final String getTagName(){
-			return getStringFromRef(getStringRefFromObjectBuffer(_tagNameOffset));
+			return getStringFromRef(getTagNameRef());
 		}
 		public final void setTagName(String tagName){
-			setStringRefToObjectBuffer(_tagNameOffset, getStringRef(tagName));
+			setStringRefToObjectBuffer(_tagNameOffset, _names.addQualified(tagName));
 		}
 		public final int getTagNameRef(){
+			if(isCompact()){
+				return CompactLayout.getNameRef(_objectStore, getPtr(), getCompactWord());
+			}
 			return getStringRefFromObjectBuffer(_tagNameOffset);
 		}
+		public final void setTagNameRef(int tagNameRef){
+			setStringRefToObjectBuffer(_tagNameOffset, tagNameRef);
+		}
 		
 		public final long getChildPtr(){
+			if(isCompact()){
+				return CompactLayout.getChildPtr(_objectStore, getPtr(), getCompactWord());
+			}
 			return getMemoryHandleFromObjectBuffer(_childOffset);
 		}
 		public final void setChildPtr(long childPtr){
@@ -450,14 +1835,46 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		}
 		
 		public final long getAttribPtr(){
+			if(isCompact()){
+				return CompactLayout.getAttribPtr(_objectStore, getPtr(), getCompactWord());
+			}
 			return getMemoryHandleFromObjectBuffer(_attribOffset);
 		}
 		public final void setAttribPtr(long attribPtr){
 			setMemoryHandleToObjectBuffer(_attribOffset, attribPtr);
 		}
 		
+		// ref of the namespace uri, NoRef if the element is in none
+		public final int getNamespaceRef(){
+			if(isCompact()){
+				return CompactLayout.getNamespaceRef(_objectStore, getPtr(), getCompactWord());
+			}
+			return (_namespaceOffset >= 0 ? getStringRefFromObjectBuffer(_namespaceOffset) - 1 : NameDictionary.NoRef);
+		}
+		public final void setNamespaceRef(int namespaceRef){
+			if(_namespaceOffset >= 0){ // else the document keeps no namespaces
+				setStringRefToObjectBuffer(_namespaceOffset, namespaceRef + 1);
+			}
+		}
+		public final String getNamespace(){
+			int namespaceRef = getNamespaceRef();
+			return (namespaceRef != NameDictionary.NoRef ? getStringFromRef(namespaceRef) : "");
+		}
+		
+		// tag name as it is in the document if namespaceName is null, else local name and namespace uri ("" for none)
 		public boolean isOfType(String tagName, String namespaceName){
-			return getTagName().equals(tagName);
+			if(namespaceName == null){
+				return getTagName().equals(tagName);
+			}
+			int tagRef = getTagNameRef();
+			return getStringFromRef(_names.getLocal(tagRef)).equals(tagName) && getNamespace().equals(namespaceName);
+		}
+		// refs of a query name (see getQueryNameRef()), AnyNamespace compares the tag name as it is
+		public final boolean isOfType(int nameRef, int namespaceRef){
+			if(namespaceRef == AnyNamespace){
+				return getTagNameRef() == nameRef;
+			}
+			return nameRef >= 0 && _names.getLocal(getTagNameRef()) == nameRef && getNamespaceRef() == namespaceRef;
 		}
 
 		public boolean isValidEndTag(String endNameTag, String endNs){
@@ -465,14 +1882,23 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		}
 	}
 
-	private class TextNode extends Node {
+	class TextNode extends Node {
 
 		private final int _textPtrOffset;
 		public void setText(String text) {
 			setMemoryHandleToObjectBuffer(_textPtrOffset, _objectStore.appendStringToByteArray(text));
 		}
 		public String getText() {
-			return _objectStore.getStringFromByteArray(getMemoryHandleFromObjectBuffer(_textPtrOffset));
+			return _objectStore.getStringFromByteArray(getTextHandle());
+		}
+		public long getTextHandle() {
+			if(isCompact()){
+				return CompactLayout.getValueHandle(_objectStore, getPtr(), getCompactWord());
+			}
+			return getMemoryHandleFromObjectBuffer(_textPtrOffset);
+		}
+		public void setTextHandle(long textHandle) {
+			setMemoryHandleToObjectBuffer(_textPtrOffset, textHandle);
 		}
 		
 		@Override
@@ -488,9 +1914,124 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		}
 	}
 
+	private volatile boolean _indexElements = false;
+	private volatile ElementIndex _elementIndex;
+	private long _modifications = 0; // bumped by every write to a node slot and by rewind, the index is built for one count
+	
+	// optional index of elements by tag name: children by name and descendants (getDescendantIterator) are then found
+	// without walking sibling lists, in time of the number of results. it is built on the first query and again after
+	// the document has changed, e.g. by a load or a node setter, and takes about 20 to 40 bytes per element
+	public void setElementIndexEnabled(boolean enabled){
+		_indexElements = enabled;
+		if(!enabled){
+			_elementIndex = null;
+		}
+	}
+	// null if not enabled
+	ElementIndex getElementIndex() throws InvalidClassException{
+		ElementIndex index = _elementIndex;
+		if(_indexElements && _rootElementPtr > 0 && (index == null || index.getModifications() != _modifications)){
+			synchronized(this){
+				index = _elementIndex;
+				if(index == null || index.getModifications() != _modifications){
+					index = _elementIndex = buildElementIndex();
+				}
+			}
+		}
+		return (_indexElements ? index : null);
+	}
+	// one walk in document order
+	private ElementIndex buildElementIndex() throws InvalidClassException{
+		ElementIndex index = new ElementIndex(_names.size(), _modifications);
+		Node node = new Node();
+		Element ele = new Element();
+		TLongStack open = new TLongArrayStack(); // elements whose subtree is being walked
+		TLongStack nextSiblings = new TLongArrayStack();
+		long lastElement = 0;
+		long nodePtr = _rootElementPtr;
+		while(true){
+			while(nodePtr > 0){
+				node.attachInstance(nodePtr);
+				long nextPtr = node.getNextNodeHandle();
+				if(node.getClassForInstance() == Element.class){
+					ele.attachUnchecked(nodePtr);
+					index.addElement(ele.getTagNameRef(), nodePtr);
+					lastElement = nodePtr;
+					long childPtr = ele.getChildPtr();
+					for(long ptr = childPtr; ptr > 0; ptr = node.getNextNodeHandle()){
+						node.attachInstance(ptr);
+						if(node.getClassForInstance() == Element.class){
+							ele.attachUnchecked(ptr);
+							index.addChild(ele.getTagNameRef(), ptr);
+						}
+					}
+					index.endChildren(nodePtr);
+					open.push(nodePtr);
+					nextSiblings.push(nextPtr);
+					nodePtr = childPtr;
+				}else{
+					nodePtr = nextPtr;
+				}
+			}
+			if(open.size() == 0){
+				break;
+			}
+			index.setSubtreeEnd(open.pop(), lastElement);
+			nodePtr = nextSiblings.pop();
+		}
+		return index;
+	}
+	
 	static final String XPathSplitter = "\\/";
+	// names in queries are tag names as they are in the document, e.g. "p:item", or local names in a namespace in the
+	// {uri}local notation, e.g. "{http://example.com/ns}item", "{}item" for none. the namespace of an element is the one
+	// its prefix is bound to by the xmlns attributes of it and its ancestors
+	static final int AnyNamespace = -2;		// the tag name is compared as it is
+	static final int UnknownNamespace = -3;	// no element is in it
+	int getQueryNameRef(String name){
+		return getStringRefNoAdd(name.startsWith("{") ? name.substring(name.indexOf('}') + 1) : name);
+	}
+	int getQueryNamespaceRef(String name){
+		if(!name.startsWith("{")){
+			return AnyNamespace;
+		}
+		String uri = name.substring(1, Math.max(1, name.indexOf('}')));
+		int uriRef = getStringRefNoAdd(uri);
+		return (uri.isEmpty() ? NameDictionary.NoRef : (uriRef != NameDictionary.NoRef ? uriRef : UnknownNamespace));
+	}
+	private static boolean hasNamespaces(int[] namespaceRefs){
+		for(int namespaceRef : namespaceRefs){
+			if(namespaceRef != AnyNamespace){
+				return true;
+			}
+		}
+		return false;
+	}
+	// steps of a path, '/' in a {uri} is not a separator
+	static String[] splitPath(String xpath){
+		if(xpath.indexOf('{') < 0){
+			return xpath.split(XPathSplitter);
+		}
+		List<String> steps = new ArrayList<>();
+		int start = 0;
+		for(int i=0; i<xpath.length(); ++i){
+			char c = xpath.charAt(i);
+			if(c == '{'){
+				int end = xpath.indexOf('}', i);
+				i = (end < 0 ? xpath.length() : end);
+			}else if(c == '/'){
+				steps.add(xpath.substring(start, i));
+				start = i + 1;
+			}
+		}
+		steps.add(xpath.substring(start));
+		while(steps.size() > 0 && steps.get(steps.size() - 1).isEmpty()){ // as String.split
+			steps.remove(steps.size() - 1);
+		}
+		return steps.toArray(new String[0]);
+	}
 	public long getNodeHandle(String xpath, long nodeHandle) throws InvalidClassException{
-		String[] splits = xpath.split(XPathSplitter);
+		String[] splits = splitPath(xpath);
 		long retHdl = 0;
 		if(splits.length > 0){
 			int startIndex = 0;
@@ -505,18 +2046,25 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 			TextNode tn = new TextNode();
 			
 			int[] nameRefs = new int[splits.length-startIndex];
+			int[] namespaceRefs = new int[nameRefs.length];
 			for(int index=startIndex; index < splits.length; ++index){
-				nameRefs[index-startIndex] = getStringRefNoAdd(splits[index]);
+				nameRefs[index-startIndex] = getQueryNameRef(splits[index]);
+				namespaceRefs[index-startIndex] = getQueryNamespaceRef(splits[index]);
 			}
 			
 			int level=0;
-			retHdl = getChildNodeHandle(nodeHandle, level, nameRefs, node, ele, attrib, tn);
+			ElementIndex index = (hasNamespaces(namespaceRefs) ? null : getElementIndex()); // the index has tag names only
+			if(index != null){
+				retHdl = getIndexedChildHandle(index, nodeHandle, level, nameRefs);
+			}else{
+				retHdl = getChildNodeHandle(nodeHandle, level, nameRefs, namespaceRefs, node, ele, attrib, tn);
+			}
 		}
 		
 		return retHdl;
 	}
 
-	private long getChildNodeHandle(long nodeHandle, int level, int[] nameRefs, Node node, Element ele, Attribute attrib,
+	private long getChildNodeHandle(long nodeHandle, int level, int[] nameRefs, int[] namespaceRefs, Node node, Element ele, Attribute attrib,
 			TextNode tn) throws InvalidClassException {
 		long retHdl = nodeHandle;
 		if(nameRefs.length > level){
@@ -524,6 +2072,7 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 			node.attachInstance(nodeHandle);
 			if(node.getClassForInstance() == Element.class){
 				int childRef = nameRefs[level];
+				int namespaceRef = namespaceRefs[level];
 				ele.attachInstance(nodeHandle);
 				long childPtr = ele.getChildPtr();
 				while(childPtr > 0 && retHdl == 0){
@@ -531,8 +2080,8 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 					long nextChildPtr = node.getNextNodeHandle();
 					if(node.getClassForInstance() == Element.class){
 						ele.attachInstance(childPtr);
-						if(ele.getTagNameRef() == childRef){
-							retHdl = getChildNodeHandle(childPtr, level+1, nameRefs, node, ele, attrib, tn);
+						if(ele.isOfType(childRef, namespaceRef)){
+							retHdl = getChildNodeHandle(childPtr, level+1, nameRefs, namespaceRefs, node, ele, attrib, tn);
 						}
 					}
 					childPtr = nextChildPtr;
@@ -542,14 +2091,32 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 
 		return retHdl;
 	}
+	private long getIndexedChildHandle(ElementIndex index, long nodeHandle, int level, int[] nameRefs){
+		if(level == nameRefs.length){
+			return nodeHandle;
+		}
+		long range = index.getChildRange(nodeHandle, nameRefs[level]);
+		if(range >= 0){
+			for(int position=(int)(range >>> 32), end=(int)range; position<end; ++position){
+				long retHdl = getIndexedChildHandle(index, index.getChild(position), level+1, nameRefs);
+				if(retHdl > 0){
+					return retHdl;
+				}
+			}
+		}
+		return 0;
+	}
 	
 	public class NodeIterator{
 		private int[] _nameRefs;
+		private int[] _namespaceRefs;
 		private long[] _childHandles;
 		private long _nodeHandle;
 		
 		private long _currentHandle;
 		private int _level = -1;
+		private ElementIndex _index;
+		private int[] _childEnds;	// with the index, _childHandles are positions in its children ranges
 
 		Element _ele = new Element();
 		Node _node = new Node();
@@ -557,7 +2124,7 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		TextNode _tn = new TextNode();
 
 		private NodeIterator(String xpath, long nodeHandle){
-			String[] splits = xpath.split(XPathSplitter);
+			String[] splits = splitPath(xpath);
 			int startIndex = 0;
 			if(splits.length > 0){
 				if(splits[0].isEmpty()){
@@ -567,8 +2134,10 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 			}
 				
 			_nameRefs = new int[splits.length-startIndex];
+			_namespaceRefs = new int[_nameRefs.length];
 			for(int index=startIndex; index < splits.length; ++index){
-				_nameRefs[index-startIndex] = getStringRefNoAdd(splits[index]);
+				_nameRefs[index-startIndex] = getQueryNameRef(splits[index]);
+				_namespaceRefs[index-startIndex] = getQueryNamespaceRef(splits[index]);
 			}
 			
 			_childHandles = new long[_nameRefs.length];
@@ -577,6 +2146,12 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		}
 		
 		public boolean next() throws InvalidClassException{
+			if(_level < 0 && _currentHandle == 0 && _nameRefs.length > 0 && !hasNamespaces(_namespaceRefs)){
+				_index = getElementIndex();
+			}
+			if(_index != null){
+				return nextIndexed();
+			}
 			if(_nameRefs.length > 0 && _currentHandle >= 0){ // depth to go or a valid current handle
 				while(_level < _nameRefs.length){
 					if(_level >= 0){
@@ -592,7 +2167,7 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 							_childHandles[_level] = _node.getNextNodeHandle();
 							if(_node.getClassForInstance() == Element.class){
 								_ele.attachInstance(curHandle);
-								if(_ele.getTagNameRef() == _nameRefs[_level]){// satisfy XPath upto this point move ahead to next level
+								if(_ele.isOfType(_nameRefs[_level], _namespaceRefs[_level])){// satisfy XPath upto this point move ahead to next level
 									_level ++;
 									if(_level < _nameRefs.length){
 										_childHandles[_level] = _ele.getChildPtr();
@@ -622,6 +2197,56 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 			return _currentHandle > 0;
 		}
 		
+		// same walk over the children ranges of the index, every handle in them matches its level
+		private boolean nextIndexed() throws InvalidClassException{
+			if(_currentHandle >= 0){
+				while(_level < _nameRefs.length){
+					if(_level >= 0){
+						if(_childHandles[_level] >= _childEnds[_level]){ // no more children go one level up
+							_level --;
+							if(_level < 0){
+								_currentHandle = -1;
+								break;
+							}
+						}else{
+							long curHandle = _index.getChild((int)_childHandles[_level]++);
+							_level ++;
+							if(_level < _nameRefs.length){
+								setChildRange(_level, curHandle);
+							}else{
+								_currentHandle = curHandle;
+								_level --;
+								break;
+							}
+						}
+					}else{
+						_level = 0;
+						_childEnds = new int[_nameRefs.length];
+						if(_nodeHandle > 0){
+							setChildRange(_level, _nodeHandle);
+						}else{ // the root is the only candidate at the first level
+							_childHandles[_level] = _childEnds[_level] = 0;
+							_ele.attachInstance(_rootElementPtr);
+							if(_ele.getTagNameRef() == _nameRefs[_level]){
+								if(_nameRefs.length == 1){
+									_currentHandle = _rootElementPtr;
+									break;
+								}
+								_level ++;
+								setChildRange(_level, _rootElementPtr);
+							}
+						}
+					}
+				}
+			}
+			return _currentHandle > 0;
+		}
+		private void setChildRange(int level, long parentHandle){
+			long range = _index.getChildRange(parentHandle, _nameRefs[level]);
+			_childHandles[level] = (range >= 0 ? range >>> 32 : 0);
+			_childEnds[level] = (range >= 0 ? (int)range : 0);
+		}
+		
 		public long getCurrentHandle(){
 			return _currentHandle;
 		}
@@ -631,23 +2256,385 @@ public class OurXMLDoc { // TODO: eventually get rid of using Trove collection i
 		return new NodeIterator(xpath, nodeHandle);
 	}
 	
-	Node _nodeGetElementText = new Node();
-	Element _eleGetElementText = new Element();
-	TextNode _tnGetElementText = new TextNode();
+	// elements of a tag name under a node in document order, the node itself is not one of them. with the element index
+	// they are a range of its list for the tag, else the subtree is walked
+	public class DescendantIterator{
+		private final int _tagRef;
+		private final int _namespaceRef;
+		private final long _nodeHandle;
+		private TLongArrayList _elements;
+		private int _position;
+		private int _end;
+		private TLongStack _pending; // walk without the index, next node to visit on top
+		private long _currentHandle = 0;
+		private boolean _started = false;
+		
+		Node _node = new Node();
+		Element _ele = new Element();
+		
+		private DescendantIterator(String tagName, long nodeHandle){
+			_tagRef = getQueryNameRef(tagName);
+			_namespaceRef = getQueryNamespaceRef(tagName);
+			_nodeHandle = nodeHandle;
+		}
+		
+		public boolean next() throws InvalidClassException{
+			if(!_started){
+				_started = true;
+				start();
+			}
+			if(_currentHandle < 0){
+				return false;
+			}
+			if(_pending == null){
+				_currentHandle = (_position < _end ? _elements.getQuick(_position++) : -1);
+			}else{
+				_currentHandle = -1;
+				while(_pending.size() > 0){
+					long nodePtr = _pending.pop();
+					_node.attachInstance(nodePtr);
+					long nextPtr = _node.getNextNodeHandle();
+					if(nextPtr > 0){
+						_pending.push(nextPtr);
+					}
+					if(_node.getClassForInstance() == Element.class){
+						_ele.attachUnchecked(nodePtr);
+						long childPtr = _ele.getChildPtr();
+						if(childPtr > 0){
+							_pending.push(childPtr); // before the next sibling
+						}
+						if(_ele.isOfType(_tagRef, _namespaceRef)){
+							_currentHandle = nodePtr;
+							break;
+						}
+					}
+				}
+			}
+			return _currentHandle > 0;
+		}
+		private void start() throws InvalidClassException{
+			_currentHandle = -1; // nothing to find unless set up below
+			if(_tagRef < 0 || _namespaceRef == UnknownNamespace || _rootElementPtr <= 0){
+				return;
+			}
+			ElementIndex index = (_namespaceRef == AnyNamespace ? getElementIndex() : null); // the index is by tag name
+			if(index != null && (_nodeHandle == 0 || index.isDocumentOrder())){
+				_elements = index.getElements(_tagRef);
+				if(_elements != null){
+					if(_nodeHandle == 0){
+						_position = 0;
+						_end = _elements.size();
+					}else{
+						_position = ElementIndex.positionAfter(_elements, _nodeHandle);
+						_end = ElementIndex.positionAfter(_elements, index.getSubtreeEnd(_nodeHandle));
+					}
+					_currentHandle = 0;
+				}
+			}else{
+				_pending = new TLongArrayStack();
+				if(_nodeHandle == 0){
+					_pending.push(_rootElementPtr);
+				}else{
+					_node.attachInstance(_nodeHandle);
+					if(_node.getClassForInstance() == Element.class){
+						_ele.attachUnchecked(_nodeHandle);
+						if(_ele.getChildPtr() > 0){
+							_pending.push(_ele.getChildPtr());
+						}
+					}
+				}
+				_currentHandle = 0;
+			}
+		}
+		
+		public long getCurrentHandle(){
+			return _currentHandle;
+		}
+	}
+	
+	// every element of the tag name in the document for node handle 0, i.e. //tagName. {uri}local names are matched by
+	// walking the subtree
+	public DescendantIterator getDescendantIterator(String tagName, long nodeHandle){
+		return new DescendantIterator(tagName, nodeHandle);
+	}
+	
+	// elements of a tag name (null for every element) under a node like getDescendantIterator, for parallel streams.
+	// with the element index the list of the tag is split by position, else a sibling list gives batches of its subtrees
+	// and a single subtree its root and then its children. every split has its own wrappers but all read the same store,
+	// which has to be concurrent (ByteBigArrayList.Config.concurrent) or not paged for splits to run on threads
+	public Spliterator.OfLong elementSpliterator(String tagName, long nodeHandle) throws InvalidClassException{
+		int tagRef = (tagName == null ? ElementSpliterator.AnyTag : getQueryNameRef(tagName));
+		int namespaceRef = (tagName == null ? AnyNamespace : getQueryNamespaceRef(tagName));
+		if(tagRef == -1 || namespaceRef == UnknownNamespace || _rootElementPtr <= 0){
+			return new ElementSpliterator(this, tagRef, namespaceRef, new long[0], 0, 0);
+		}
+		ElementIndex index = getElementIndex();
+		if(index != null && tagRef >= 0 && namespaceRef == AnyNamespace && (nodeHandle == 0 || index.isDocumentOrder())){
+			TLongArrayList elements = index.getElements(tagRef);
+			if(elements == null){
+				return new ElementSpliterator(this, tagRef, namespaceRef, new long[0], 0, 0);
+			}
+			if(nodeHandle == 0){
+				return new ElementSpliterator(this, tagRef, elements, 0, elements.size());
+			}
+			return new ElementSpliterator(this, tagRef, elements, ElementIndex.positionAfter(elements, nodeHandle),
+					ElementIndex.positionAfter(elements, index.getSubtreeEnd(nodeHandle)));
+		}
+		if(nodeHandle == 0){
+			return new ElementSpliterator(this, tagRef, namespaceRef, new long[]{-_rootElementPtr}, 1, 0);
+		}
+		Node node = new Node();
+		node.attachInstance(nodeHandle);
+		if(node.getClassForInstance() == Element.class){
+			Element ele = new Element();
+			ele.attachUnchecked(nodeHandle);
+			if(ele.getChildPtr() > 0){
+				return new ElementSpliterator(this, tagRef, namespaceRef, new long[]{ele.getChildPtr()}, 1, 0);
+			}
+		}
+		return new ElementSpliterator(this, tagRef, namespaceRef, new long[0], 0, 0);
+	}
+	// e.g. elements("item", 0, true).filter(...).count() over all cores. the stream is sequential if the store can not be
+	// read by threads at the same time, see elementSpliterator()
+	public LongStream elements(String tagName, long nodeHandle, boolean parallel) throws InvalidClassException{
+		return StreamSupport.longStream(elementSpliterator(tagName, nodeHandle), parallel && _objectStore.isParallelReadable());
+	}
+	
+	private final TIntLongMap _attributeIndexes = new TIntLongHashMap(); // attribute name ref to index position
+	
+	// equality index of the values of an attribute (see AttributeIndex) for getElementsByAttribute; it is in the object
+	// store, so a snapshot saved after this has it. it is of the document as it is, build it again after loading more
+	public void buildAttributeIndex(String attributeName) throws InvalidClassException{
+		AttributeIndex index = new AttributeIndex(_objectStore);
+		int nameRef = getStringRef(attributeName);
+		Node node = new Node();
+		Element ele = new Element();
+		Attribute attrib = new Attribute();
+		TLongStack pending = new TLongArrayStack();
+		if(_rootElementPtr > 0){
+			pending.push(_rootElementPtr);
+		}
+		while(pending.size() > 0){
+			long nodePtr = pending.pop();
+			node.attachInstance(nodePtr);
+			if(node.getNextNodeHandle() > 0){
+				pending.push(node.getNextNodeHandle());
+			}
+			if(node.getClassForInstance() == Element.class){
+				ele.attachUnchecked(nodePtr);
+				if(ele.getChildPtr() > 0){
+					pending.push(ele.getChildPtr()); // before the next sibling
+				}
+				for(long attribPtr = ele.getAttribPtr(); attribPtr > 0; attribPtr = attrib.getNextNodeHandle()){
+					attrib.attachInstance(attribPtr);
+					if(attrib.getNameRef() == nameRef){
+						index.add(attrib.getValueHandle(), nodePtr);
+						break;
+					}
+				}
+			}
+		}
+		long position = index.write();
+		synchronized(this){
+			_attributeIndexes.put(nameRef, position);
+		}
+	}
+	// 0 if the attribute is not indexed
+	synchronized long getAttributeIndex(int nameRef){
+		return _attributeIndexes.get(nameRef);
+	}
+	
+	// elements whose attribute has the value in document order, from the attribute index if there is one, else by a walk
+	// over the document
+	public class AttributeValueIterator{
+		private final int _nameRef;
+		private final String _value;
+		private long _record;
+		private int _position;
+		private int _count;
+		private TLongStack _pending; // walk without the index, next node to visit on top
+		private long _currentHandle = 0;
+		private boolean _started = false;
+		
+		Node _node = new Node();
+		Element _ele = new Element();
+		Attribute _attrib = new Attribute();
+		
+		private AttributeValueIterator(String attributeName, String value){
+			_nameRef = getStringRefNoAdd(attributeName);
+			_value = value;
+		}
+		
+		public boolean next() throws InvalidClassException{
+			if(!_started){
+				_started = true;
+				start();
+			}
+			if(_currentHandle < 0){
+				return false;
+			}
+			if(_pending == null){
+				_currentHandle = (_position < _count ? AttributeIndex.getElement(_objectStore, _record, _position++) : -1);
+			}else{
+				_currentHandle = -1;
+				while(_pending.size() > 0 && _currentHandle < 0){
+					long nodePtr = _pending.pop();
+					_node.attachInstance(nodePtr);
+					if(_node.getNextNodeHandle() > 0){
+						_pending.push(_node.getNextNodeHandle());
+					}
+					if(_node.getClassForInstance() == Element.class){
+						_ele.attachUnchecked(nodePtr);
+						if(_ele.getChildPtr() > 0){
+							_pending.push(_ele.getChildPtr()); // before the next sibling
+						}
+						for(long attribPtr = _ele.getAttribPtr(); attribPtr > 0; attribPtr = _attrib.getNextNodeHandle()){
+							_attrib.attachInstance(attribPtr);
+							if(_attrib.getNameRef() == _nameRef){
+								if(_objectStore.stringEquals(_attrib.getValueHandle(), _value)){
+									_currentHandle = nodePtr;
+								}
+								break;
+							}
+						}
+					}
+				}
+			}
+			return _currentHandle > 0;
+		}
+		private void start(){
+			_currentHandle = -1; // nothing to find unless set up below
+			if(_nameRef < 0 || _rootElementPtr <= 0){
+				return;
+			}
+			long position = getAttributeIndex(_nameRef);
+			if(position > 0){
+				_record = AttributeIndex.findRecord(_objectStore, position, _value.getBytes(StandardCharsets.UTF_8));
+				if(_record > 0){
+					_count = AttributeIndex.getElementCount(_objectStore, _record);
+					_currentHandle = 0;
+				}
+			}else{
+				_pending = new TLongArrayStack();
+				_pending.push(_rootElementPtr);
+				_currentHandle = 0;
+			}
+		}
+		
+		public long getCurrentHandle(){
+			return _currentHandle;
+		}
+	}
+	
+	public AttributeValueIterator getElementsByAttribute(String attributeName, String value){
+		return new AttributeValueIterator(attributeName, value);
+	}
+	// first element whose attribute has the value, 0 if there is none; e.g. the element of an id
+	public long getElementByAttribute(String attributeName, String value) throws InvalidClassException{
+		AttributeValueIterator iterator = new AttributeValueIterator(attributeName, value);
+		return (iterator.next() ? iterator.getCurrentHandle() : 0);
+	}
+	
+	// compiled once, run over handles many times: a subset of xpath of child (/) and descendant (//) steps with a name or
+	// * and any predicates [@attr], [@attr='value'] and [n], and @attr, @* or text() as the last step. a path which starts
+	// with / is of the document, i.e. /catalog is the root element, else of the context handle. element names can be
+	// {uri}local (see getQueryNameRef()). an iterator of a plan is reset for a new context and allocates nothing per
+	// node; each thread runs its own iterator. with the element index and attribute indexes steps take their ranges
+	// instead of walking, e.g. //item[@id='7'] is one index lookup; {uri}local steps always walk.
+	// results are without duplicates but only in document order as long as no step matches an element inside another
+	// match of the same step, e.g. //a/b of nested a elements gives the b children of each a in turn
+	public XPath compile(String xpath){
+		return new XPath(this, xpath);
+	}
+	
+	// all text under the node in document order; like the other getters it uses its own wrappers, so it can be called
+	// from many threads, e.g. for the elements of a parallel stream
 	public void getElementText(long nodeHandle, StringBuilder strBuilder) throws InvalidClassException {
-		_nodeGetElementText.attachInstance(nodeHandle);
-		if(_nodeGetElementText.getClassForInstance() == TextNode.class){
-			_tnGetElementText.attachInstance(nodeHandle);
-			strBuilder.append(_tnGetElementText.getText());
-		}else {
-			_eleGetElementText.attachInstance(nodeHandle);
-			long childPtr = _eleGetElementText.getChildPtr();
-			while(childPtr > 0){
-				getElementText(childPtr, strBuilder);
-				_nodeGetElementText.attachInstance(childPtr);
-				childPtr = _nodeGetElementText.getNextNodeHandle();
+		Node node = new Node();
+		Element ele = new Element();
+		TextNode tn = new TextNode();
+		node.attachInstance(nodeHandle);
+		if(node.getClassForInstance() == TextNode.class){
+			tn.attachUnchecked(nodeHandle);
+			_objectStore.appendString(tn.getTextHandle(), strBuilder);
+			return;
+		}
+		ele.attachInstance(nodeHandle);
+		TLongStack pending = new TLongArrayStack();
+		if(ele.getChildPtr() > 0){
+			pending.push(ele.getChildPtr());
+		}
+		while(pending.size() > 0){
+			long nodePtr = pending.pop();
+			node.attachInstance(nodePtr);
+			if(node.getNextNodeHandle() > 0){
+				pending.push(node.getNextNodeHandle());
+			}
+			if(node.getClassForInstance() == Element.class){
+				ele.attachUnchecked(nodePtr);
+				if(ele.getChildPtr() > 0){
+					pending.push(ele.getChildPtr()); // before the next sibling
+				}
+			}else if(node.getClassForInstance() == TextNode.class){
+				tn.attachUnchecked(nodePtr);
+				_objectStore.appendString(tn.getTextHandle(), strBuilder);
+			}
+		}
+	}
+	
+	// view for getText() and getAttributeValue(), reuse it for all values a query looks at
+	public StoredText newText(){
+		return new StoredText(_objectStore);
+	}
+	// attaches text to a text node, to the value of an attribute (e.g. an @attr result of an XPath) or to the first text
+	// child of an element; false if there is none
+	public boolean getText(long nodeHandle, StoredText text) throws InvalidClassException {
+		Node node = new Node();
+		node.attachInstance(nodeHandle);
+		if(node.getClassForInstance() == Attribute.class){
+			Attribute attrib = new Attribute();
+			attrib.attachUnchecked(nodeHandle);
+			text.attach(attrib.getValueHandle());
+			return true;
+		}
+		if(node.getClassForInstance() != TextNode.class){
+			Element ele = new Element();
+			ele.attachInstance(nodeHandle);
+			nodeHandle = ele.getChildPtr();
+			while(nodeHandle > 0){
+				node.attachInstance(nodeHandle);
+				if(node.getClassForInstance() == TextNode.class){
+					break;
+				}
+				nodeHandle = node.getNextNodeHandle();
+			}
+			if(nodeHandle <= 0){
+				return false;
+			}
+		}
+		TextNode tn = new TextNode();
+		tn.attachUnchecked(nodeHandle);
+		text.attach(tn.getTextHandle());
+		return true;
+	}
+	// attaches value to the attribute of the element; false if the element does not have it
+	public boolean getAttributeValue(long elementHandle, String name, StoredText value) throws InvalidClassException {
+		int nameRef = getStringRefNoAdd(name);
+		if(nameRef >= 0){
+			Element ele = new Element();
+			Attribute attrib = new Attribute();
+			ele.attachInstance(elementHandle);
+			long attribPtr = ele.getAttribPtr();
+			while(attribPtr > 0){
+				attrib.attachUnchecked(attribPtr);
+				if(attrib.getNameRef() == nameRef){
+					value.attach(attrib.getValueHandle());
+					return true;
+				}
+				attribPtr = attrib.getNextNodeHandle();
 			}
 		}
+		return false;
 	}
 
 }
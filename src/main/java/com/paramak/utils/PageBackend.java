@@ -0,0 +1,35 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// storage used by ByteBigArrayList to keep the pages which are swapped out of the jvm heap.
+// positions are absolute byte offsets and are always handed out by SwapSpace
+public interface PageBackend extends Closeable {
+	void write(long position, byte[] src, int offset, int length) throws IOException;
+	void read(long position, byte[] dest, int offset, int length) throws IOException;
+	// data after size is not used anymore; storage can give the space back but positions after it are written again later
+	default void truncate(long size) throws IOException {
+	}
+	
+	@FunctionalInterface
+	interface Factory {
+		PageBackend create() throws IOException;
+	}
+}
@@ -0,0 +1,24 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+// how heap pages are picked for swapping when the memory budget is reached
+public enum PageEviction {
+	CLOCK,		// second chance over all resident pages
+	LRU,		// least recently used page first
+	TWO_QUEUE	// 2Q: pages seen once are evicted before pages which came back from swap; O(1) stand-in for LRU-2
+}
@@ -0,0 +1,23 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+// where ByteBigArrayList keeps the bytes of its pages
+public enum PageStorage {
+	HEAP,	// byte arrays on the jvm heap, swapped to the page backend when the memory threshold is reached
+	DIRECT	// direct buffers outside the jvm heap, freed explicitly on close(); not swapped since they do not consume heap
+}
@@ -0,0 +1,265 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+// keeps heap pages of ByteBigArrayList instances within a memory budget. each resident page owns a slot and the eviction
+// policy orders the slots. pages of all instances, concurrent or not, come here so the controller is always synchronized.
+// controller locks a page while swapping it out, so a page must never call the controller with its own lock held.
+// once resident bytes pass the write behind watermark, the page writer thread writes dirty pages which are next in
+// eviction order, so eviction at the budget mostly drops clean pages. the allocating thread writes a page itself only when
+// the writer is behind
+final class PagingController {
+	private static Logger logger = LogManager.getLogger();
+
+	private static final int SlotHolderSizeIncr = 1024;
+
+	// one thread for all controllers, it only ever waits on disk
+	private static final ExecutorService PageWriter = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "paramak-page-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	interface Page {
+		int getPageSize();
+		boolean isInMemory();
+		boolean wasSwappedOut();	// page has been in swap before, i.e. this admission is a page fault
+		boolean clearReferenced();	// returns reference bit and clears it
+		boolean swapOut();			// returns true if page data is not in memory anymore
+		boolean writeBehind();		// writes the page if dirty and keeps it in memory, returns true if it was written
+		int getSlot();
+		void setSlot(int slot);
+		WeakReference<Page> getReference();	// made once by the page, held by its slot while the page is resident
+	}
+
+	private long _memoryBudget;	// bytes of page data allowed in memory; <= 0 means paging is off
+	private int _evictionBatchSize;	// number of pages swapped together once the budget is reached
+	private int _writeBehindWatermark;	// percentage of the budget from where dirty pages are written ahead; <= 0 means off
+	private boolean _writeBehindScheduled = false;
+	private final EvictionPolicy _policy;
+	private long _inMemoryBytes = 0;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private WeakReference<Page>[] _slotPages = new WeakReference[0]; // weak so that pages of a discarded instance can be collected
+	private int[] _slotSizes = new int[0];
+	private int[] _freeSlots = new int[0];
+	private int _freeSlotCount = 0;
+	private int _usedSlotCount = 0; // slots handed out at least once
+	private int _residentPages = 0;
+
+	private final LongAdder _hits = new LongAdder(); // counted without lock by readers
+	private long _misses = 0;
+	private long _evictions = 0;
+	private final LongAdder _pageWrites = new LongAdder(); // counted by pages under their own lock
+	private final LongAdder _backgroundWrites = new LongAdder();
+	private final LongAdder _swapRawBytes = new LongAdder();	// bytes given to the compressor and what it stored for them
+	private final LongAdder _swapStoredBytes = new LongAdder();
+	private final LongAdder _compressNanos = new LongAdder();
+	private final LongAdder _decompressNanos = new LongAdder();
+
+	private ArrayDeque<byte[]> _freePageData = new ArrayDeque<>(); // arrays of swapped out pages, reused on page fault
+
+	PagingController(long memoryBudget, int evictionBatchSize, PageEviction eviction, int writeBehindWatermark) {
+		_policy = EvictionPolicy.create(eviction);
+		configure(memoryBudget, evictionBatchSize);
+		configureWriteBehind(writeBehindWatermark);
+	}
+
+	synchronized void configure(long memoryBudget, int evictionBatchSize) {
+		_memoryBudget = memoryBudget;
+		_evictionBatchSize = Math.max(1, evictionBatchSize);
+	}
+	synchronized long getMemoryBudget() {
+		return _memoryBudget;
+	}
+	synchronized void configureWriteBehind(int writeBehindWatermark) {
+		_writeBehindWatermark = Math.min(writeBehindWatermark, 100);
+	}
+	synchronized boolean isEnabled() {
+		return (_memoryBudget > 0);
+	}
+
+	synchronized void recyclePageData(byte[] data) {
+		if(_freePageData.size() < _evictionBatchSize){
+			_freePageData.push(data);
+		}
+	}
+	synchronized byte[] reusePageData(int pageSize) {
+		byte[] data = _freePageData.poll();
+		return (data != null && data.length == pageSize ? data : null); // instances sharing the controller may use other page sizes
+	}
+
+	synchronized void addDataPage(Page page) {
+		if(page.wasSwappedOut()){
+			++_misses;
+		}
+		int slot = allocateSlot();
+		_slotPages[slot] = page.getReference(); // no allocation per admission or page fault
+		_slotSizes[slot] = page.getPageSize();
+		page.setSlot(slot);
+		_policy.admit(slot, page.wasSwappedOut());
+		_inMemoryBytes += page.getPageSize();
+		++_residentPages;
+
+		if(_memoryBudget > 0 && _memoryBudget < _inMemoryBytes){
+			runPaging(page.getPageSize(), slot);
+		}
+		if(_writeBehindWatermark > 0 && !_writeBehindScheduled && _inMemoryBytes*100 > _memoryBudget*_writeBehindWatermark){
+			_writeBehindScheduled = true;
+			PageWriter.execute(this::writeBehind);
+		}
+	}
+	// page is dropped by its owner (trim or close)
+	synchronized void removeDataPage(Page page) {
+		int slot = page.getSlot();
+		if(slot >= 0 && _slotPages[slot] == page.getReference()){
+			releaseSlot(slot);
+		}
+	}
+	// precise access order, used by single threaded instances when they move to another page
+	synchronized void touch(Page page) {
+		_hits.increment();
+		int slot = page.getSlot();
+		if(slot >= 0){
+			_policy.touch(slot);
+		}
+	}
+	void recordHit() {
+		_hits.increment();
+	}
+	void recordPageWrite() {
+		_pageWrites.increment();
+	}
+	// counted by pages under their own lock, like page writes
+	void recordCompression(int rawLength, int storedLength, long nanos) {
+		_swapRawBytes.add(rawLength);
+		_swapStoredBytes.add(storedLength);
+		_compressNanos.add(nanos);
+	}
+	void recordDecompression(long nanos) {
+		_decompressNanos.add(nanos);
+	}
+
+	synchronized PagingStats getStats() {
+		return new PagingStats(_memoryBudget, _inMemoryBytes, _residentPages, _hits.sum(), _misses, _evictions, _pageWrites.sum(), _backgroundWrites.sum()
+				, _swapRawBytes.sum(), _swapStoredBytes.sum(), _compressNanos.sum(), _decompressNanos.sum());
+	}
+
+	// runs on the page writer. looks at twice the batch in eviction order and writes up to a batch of dirty pages outside of
+	// the controller lock, so allocating threads are not held up by the disk
+	private void writeBehind() {
+		Page[] pages;
+		int count = 0;
+		synchronized (this) {
+			_writeBehindScheduled = false;
+			int[] slots = new int[2*_evictionBatchSize];
+			int slotCount = _policy.candidates(slots);
+			pages = new Page[_evictionBatchSize];
+			for(int i=0; i<slotCount && count < pages.length; ++i){
+				Page page = _slotPages[slots[i]].get();
+				if(page != null && page.isInMemory()){
+					pages[count++] = page;
+				}
+			}
+		}
+		int written = 0;
+		try {
+			for(int i=0; i<count; ++i){
+				if(pages[i].writeBehind()){
+					++written;
+				}
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Page writer failed.", e);
+			written = 0;
+		}
+		_pageWrites.add(written);
+		_backgroundWrites.add(written);
+		synchronized (this) { // keep going while there is work and nobody scheduled another round meanwhile
+			if(written > 0 && !_writeBehindScheduled && _memoryBudget > 0 && _inMemoryBytes*100 > _memoryBudget*_writeBehindWatermark){
+				_writeBehindScheduled = true;
+				PageWriter.execute(this::writeBehind);
+			}
+		}
+	}
+
+	private int allocateSlot() {
+		int slot;
+		if(_freeSlotCount > 0){
+			slot = _freeSlots[--_freeSlotCount];
+		}else{
+			slot = _usedSlotCount++;
+			if(slot == _slotPages.length){
+				int newLen = _slotPages.length + Math.max(SlotHolderSizeIncr, _slotPages.length/2);
+				_slotPages = Arrays.copyOf(_slotPages, newLen);
+				_slotSizes = Arrays.copyOf(_slotSizes, newLen);
+				_freeSlots = Arrays.copyOf(_freeSlots, newLen);
+				_policy.ensureCapacity(newLen);
+			}
+		}
+		return slot;
+	}
+	private void releaseSlot(int slot) {
+		Page page = _slotPages[slot].get();
+		if(page != null){
+			page.setSlot(-1);
+		}
+		_policy.remove(slot);
+		_slotPages[slot] = null;
+		_inMemoryBytes -= _slotSizes[slot];
+		--_residentPages;
+		_freeSlots[_freeSlotCount++] = slot;
+	}
+
+	// frees at least one batch of pages (but not more than half of the budget) and anything above the budget. the page
+	// being admitted is never picked, its caller is about to use the data
+	private void runPaging(int pageSize, int admittedSlot) {
+		long target = _memoryBudget - Math.min((long)_evictionBatchSize*pageSize, _memoryBudget/2);
+		int maxSteps = 4*_residentPages; // every page can get second chance once; bound it in case readers keep referencing
+		int evicted = 0;
+		while(_inMemoryBytes > target && maxSteps-- > 0){
+			int slot = _policy.victim();
+			if(slot == EvictionPolicy.NoSlot){
+				break;
+			}
+			Page page = _slotPages[slot].get();
+			if(page == null || !page.isInMemory()){ // page is collected or released already
+				releaseSlot(slot);
+			}else if(slot == admittedSlot || page.clearReferenced()){
+				_policy.secondChance(slot);
+			}else if(page.swapOut()){
+				releaseSlot(slot);
+				++_evictions;
+				++evicted;
+			}else{
+				_policy.secondChance(slot); // could not write it, try others
+			}
+		}
+
+		logger.debug("Freed {} pages. Total occupied memory by byte arrays: {} MB", evicted, (_inMemoryBytes/(1024*1024)));
+	}
+}
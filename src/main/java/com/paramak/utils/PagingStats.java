@@ -0,0 +1,96 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+// snapshot of the counters of a paging controller, shared by all instances using the same controller.
+// a hit is a visit to a resident page, consecutive accesses to the same page count once
+public final class PagingStats {
+	private final long _memoryBudget;
+	private final long _inMemoryBytes;
+	private final int _residentPages;
+	private final long _hits;
+	private final long _misses;
+	private final long _evictions;
+	private final long _pageWrites;
+	private final long _backgroundWrites;
+	private final long _swapRawBytes;
+	private final long _swapStoredBytes;
+	private final long _compressNanos;
+	private final long _decompressNanos;
+
+	PagingStats(long memoryBudget, long inMemoryBytes, int residentPages, long hits, long misses, long evictions, long pageWrites, long backgroundWrites
+			, long swapRawBytes, long swapStoredBytes, long compressNanos, long decompressNanos) {
+		_memoryBudget = memoryBudget;
+		_inMemoryBytes = inMemoryBytes;
+		_residentPages = residentPages;
+		_hits = hits;
+		_misses = misses;
+		_evictions = evictions;
+		_pageWrites = pageWrites;
+		_backgroundWrites = backgroundWrites;
+		_swapRawBytes = swapRawBytes;
+		_swapStoredBytes = swapStoredBytes;
+		_compressNanos = compressNanos;
+		_decompressNanos = decompressNanos;
+	}
+
+	public long getMemoryBudget() {
+		return _memoryBudget;
+	}
+	public long getInMemoryBytes() {
+		return _inMemoryBytes;
+	}
+	public int getResidentPages() {
+		return _residentPages;
+	}
+	public long getHits() {
+		return _hits;
+	}
+	public long getMisses() {
+		return _misses;
+	}
+	public long getEvictions() {
+		return _evictions;
+	}
+	public long getPageWrites() {
+		return _pageWrites;
+	}
+	// part of page writes done by the page writer thread; the rest was written by the thread which hit the budget
+	public long getBackgroundWrites() {
+		return _backgroundWrites;
+	}
+	// page bytes written with compression on for each byte stored in swap, 1 if nothing was compressed
+	public double getCompressionRatio() {
+		return (_swapStoredBytes > 0 ? (double)_swapRawBytes/_swapStoredBytes : 1);
+	}
+	public long getCompressNanos() {
+		return _compressNanos;
+	}
+	public long getDecompressNanos() {
+		return _decompressNanos;
+	}
+
+	@Override
+	public String toString() {
+		String compression = "";
+		if(_swapRawBytes > 0){
+			compression = String.format(" compression=%.2f cpu=%dms/%dms", getCompressionRatio(), _compressNanos/1000000, _decompressNanos/1000000);
+		}
+		return String.format("paging=[budget=%dMB resident=%dMB/%d pages hits=%d misses=%d evictions=%d writes=%d background=%d%s]"
+				, _memoryBudget/(1024*1024), _inMemoryBytes/(1024*1024), _residentPages, _hits, _misses, _evictions, _pageWrites, _backgroundWrites, compression);
+	}
+}
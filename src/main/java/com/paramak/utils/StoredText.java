@@ -0,0 +1,235 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+// view of a string in an ObjectStore, attached to a handle the same way node wrappers are, so one instance serves any
+// number of values. comparing, hashing, parsing and writing read the stored utf-8 bytes; chars are decoded only when
+// they are asked for and only once per attach, for ascii text not at all. not thread safe, one view per thread
+public final class StoredText implements CharSequence {
+	private static final double[] PowersOfTen = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	private static final int MaxExactDigits = 15; // any such mantissa is exact in a double
+
+	private final ObjectStore _store;
+	private long _handle = 0;
+	private long _start = 0;
+	private int _byteLength = 0;
+	private int _ascii = -1; // -1 not checked yet
+	private final StringBuilder _chars = new StringBuilder(); // decoded text unless it is ascii
+	private int _hash = 0;
+	private boolean _hashed = false;
+
+	public StoredText(ObjectStore store) {
+		_store = store;
+	}
+
+	public StoredText attach(long handle) {
+		_handle = handle;
+		_byteLength = (int)_store.getStringByteLength(handle);
+		_start = _store.getStringStart(handle, _byteLength);
+		_ascii = -1;
+		_chars.setLength(0);
+		_hashed = false;
+		return this;
+	}
+	public long getHandle() {
+		return _handle;
+	}
+
+	// bytes of the utf-8 encoding
+	public int byteLength() {
+		return _byteLength;
+	}
+	public byte byteAt(int index) {
+		if(index < 0 || index >= _byteLength){
+			throw new IndexOutOfBoundsException(index);
+		}
+		return (byte)_store.getStringByte(_handle, _start + index);
+	}
+
+	private boolean isAscii() {
+		if(_ascii < 0){
+			_ascii = 1;
+			for(int i=0; i<_byteLength; ++i){
+				if(_store.getStringByte(_handle, _start + i) >= 0x80){
+					_ascii = 0;
+					_store.appendString(_handle, _chars);
+					break;
+				}
+			}
+		}
+		return (_ascii == 1);
+	}
+	@Override
+	public int length() {
+		return (isAscii() ? _byteLength : _chars.length());
+	}
+	@Override
+	public char charAt(int index) {
+		if(isAscii()){
+			return (char)byteAt(index);
+		}
+		return _chars.charAt(index);
+	}
+	// a String, it is a copy
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().substring(start, end);
+	}
+	@Override
+	public String toString() {
+		return _store.getStringFromByteArray(_handle);
+	}
+
+	public boolean contentEquals(CharSequence str) {
+		return _store.stringEquals(_handle, str);
+	}
+	public boolean startsWith(CharSequence prefix) {
+		return _store.stringStartsWith(_handle, prefix);
+	}
+	// equal to another view with the same text, a String never equals a view, see contentEquals()
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj){
+			return true;
+		}
+		if(!(obj instanceof StoredText)){
+			return false;
+		}
+		StoredText other = (StoredText)obj;
+		if(other._store == _store && other._handle == _handle){
+			return true;
+		}
+		if(other._byteLength != _byteLength){
+			return false;
+		}
+		for(int i=0; i<_byteLength; ++i){
+			if(_store.getStringByte(_handle, _start + i) != other._store.getStringByte(other._handle, other._start + i)){
+				return false;
+			}
+		}
+		return true;
+	}
+	// same as hashCode() of the String, so it can be checked against the hash of a String before comparing
+	@Override
+	public int hashCode() {
+		if(!_hashed){
+			int hash = 0;
+			if(isAscii()){
+				for(int i=0; i<_byteLength; ++i){
+					hash = 31*hash + _store.getStringByte(_handle, _start + i);
+				}
+			}else{
+				for(int i=0; i<_chars.length(); ++i){
+					hash = 31*hash + _chars.charAt(i);
+				}
+			}
+			_hash = hash;
+			_hashed = true;
+		}
+		return _hash;
+	}
+
+	// same result and errors as Long.parseLong(toString())
+	public long parseLong() {
+		int i = 0;
+		boolean negative = false;
+		if(_byteLength > 0){
+			int first = byteAt(0);
+			if(first == '-' || first == '+'){
+				negative = (first == '-');
+				++i;
+			}
+		}
+		if(i >= _byteLength){
+			throw numberFormatException();
+		}
+		long limit = (negative ? Long.MIN_VALUE : -Long.MAX_VALUE);
+		long multiplyLimit = limit/10;
+		long result = 0; // accumulated negatively so that Long.MIN_VALUE fits
+		for(; i<_byteLength; ++i){
+			int digit = byteAt(i) - '0';
+			if(digit < 0 || digit > 9 || result < multiplyLimit){
+				throw numberFormatException();
+			}
+			result *= 10;
+			if(result < limit + digit){
+				throw numberFormatException();
+			}
+			result -= digit;
+		}
+		return (negative ? result : -result);
+	}
+	private NumberFormatException numberFormatException() {
+		return new NumberFormatException("For input string: \"" + toString() + "\"");
+	}
+
+	// same result as Double.parseDouble(toString()). plain decimals of up to 15 digits, i.e. the usual prices and
+	// measures, are computed from the bytes with one exact division; anything else goes through the String
+	public double parseDouble() {
+		int i = 0;
+		boolean negative = false;
+		if(_byteLength > 0){
+			int first = byteAt(0);
+			if(first == '-' || first == '+'){
+				negative = (first == '-');
+				++i;
+			}
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean point = false;
+		boolean anyDigit = false;
+		for(; i<_byteLength; ++i){
+			int b = byteAt(i);
+			if(b >= '0' && b <= '9'){
+				anyDigit = true;
+				if(mantissa != 0 || b != '0'){
+					if(++digits > MaxExactDigits){
+						break;
+					}
+				}
+				mantissa = 10*mantissa + (b - '0');
+				if(point){
+					++fractionDigits;
+				}
+			}else if(b == '.' && !point){
+				point = true;
+			}else{
+				break;
+			}
+		}
+		if(i < _byteLength || !anyDigit || fractionDigits >= PowersOfTen.length){
+			return Double.parseDouble(toString());
+		}
+		double value = mantissa/PowersOfTen[fractionDigits];
+		return (negative ? -value : value);
+	}
+
+	// raw utf-8 bytes
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		_store.writeString(_handle, channel);
+	}
+	public void writeTo(OutputStream out) throws IOException {
+		_store.writeString(_handle, out);
+	}
+}
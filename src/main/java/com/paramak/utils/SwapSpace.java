@@ -0,0 +1,216 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+// swap file space which can be shared by many ByteBigArrayList instances. file is split in blocks and a bitmap marks the
+// used ones, a slot is a run of blocks. free blocks are reused first fit from the start of the file so that live data
+// gathers at the start, and compact() moves the slots at the end into the holes and cuts the file after the last used block.
+// space lock is a leaf: owners call in with their own lock held, space never calls an owner while holding its lock
+public final class SwapSpace implements Closeable {
+	static final int BlockBitSize = 10; // 1KB, the smallest page size
+	static final int BlockSize = 1 << BlockBitSize;
+	private static final int BitmapSizeIncr = 1024; // in words of 64 blocks
+
+	// user of a slot, asked to move it while compacting
+	interface Owner {
+		void relocate(long position); // has to call move() for the slot if it still uses the slot at position
+	}
+
+	private static final class Slot extends WeakReference<Owner> { // weak so that an instance left for gc does not stay alive
+		final int _length;
+
+		Slot(Owner owner, int length) {
+			super(owner);
+			_length = length;
+		}
+	}
+
+	private static SwapSpace _shared = null;
+
+	private final PageBackend _backend;
+	private long[] _bitmap = new long[BitmapSizeIncr];
+	private long _endBlock = 0;			// file does not have data after this block
+	private long _firstFreeBlock = 0;	// there is no free block before this one
+	private long _usedBlocks = 0;
+	private final TLongObjectHashMap<Slot> _slots = new TLongObjectHashMap<>(); // first block of slot -> slot
+	private final Object _compactionLock = new Object();
+	private byte[] _moveBuffer = null; // used only while compacting
+
+	public SwapSpace(PageBackend backend) {
+		_backend = backend;
+	}
+
+	// used by all instances which are not given a backend or a space of their own. it is never closed, the file is deleted
+	// when the jvm exits
+	public static synchronized SwapSpace shared() throws IOException {
+		if(_shared == null){
+			_shared = new SwapSpace(ByteBigArrayList.Config.defaultBackendFactory().create());
+		}
+		return _shared;
+	}
+
+	public synchronized long getUsedBytes() {
+		return _usedBlocks << BlockBitSize;
+	}
+	public synchronized long getFileBytes() {
+		return _endBlock << BlockBitSize;
+	}
+
+	// returns position of a new slot of length bytes
+	long allocate(int length, Owner owner) {
+		return allocate(length, owner, Long.MAX_VALUE);
+	}
+	// slot has to fit before limitBlock, returns -1 if it does not
+	private synchronized long allocate(int length, Owner owner, long limitBlock) {
+		int blockCount = (length + BlockSize - 1) >> BlockBitSize;
+		long start = findFreeRun(blockCount, Math.min(limitBlock, _endBlock + blockCount));
+		if(start >= 0){
+			markBlocks(start, blockCount, true);
+			_usedBlocks += blockCount;
+			_endBlock = Math.max(_endBlock, start + blockCount);
+			if(start == _firstFreeBlock){
+				_firstFreeBlock = start + blockCount;
+			}
+			_slots.put(start, new Slot(owner, length));
+			return (start << BlockBitSize);
+		}
+		return -1;
+	}
+
+	synchronized void free(long position) {
+		long start = position >> BlockBitSize;
+		Slot slot = _slots.remove(start);
+		if(slot != null){
+			int blockCount = (slot._length + BlockSize - 1) >> BlockBitSize;
+			markBlocks(start, blockCount, false);
+			_usedBlocks -= blockCount;
+			_firstFreeBlock = Math.min(_firstFreeBlock, start);
+		}
+	}
+
+	void write(long position, byte[] src, int offset, int length) throws IOException {
+		_backend.write(position, src, offset, length);
+	}
+	void read(long position, byte[] dest, int offset, int length) throws IOException {
+		_backend.read(position, dest, offset, length);
+	}
+
+	// called by an owner from relocate() with its lock held, so no one reads or writes the slot meanwhile.
+	// returns new position of the slot or -1 if there is no free space before it
+	long move(long position, Owner owner) throws IOException {
+		Slot slot;
+		long newPosition;
+		synchronized (this) {
+			slot = _slots.get(position >> BlockBitSize);
+			newPosition = (slot != null ? allocate(slot._length, owner, position >> BlockBitSize) : -1);
+		}
+		if(newPosition >= 0){
+			try {
+				if(_moveBuffer == null || _moveBuffer.length < slot._length){
+					_moveBuffer = new byte[slot._length];
+				}
+				_backend.read(position, _moveBuffer, 0, slot._length);
+				_backend.write(newPosition, _moveBuffer, 0, slot._length);
+			} catch (IOException e) {
+				free(newPosition);
+				throw e;
+			}
+			free(position);
+		}
+		return newPosition;
+	}
+
+	// moves slots from the end of the file into free space before them, last slot first, and shortens the file after the
+	// last used block. space can be used by other threads meanwhile
+	public void compact() throws IOException {
+		synchronized (_compactionLock) {
+			long[] starts;
+			synchronized (this) {
+				starts = _slots.keys();
+			}
+			Arrays.sort(starts);
+			for(int i=starts.length-1; i>=0; --i){
+				Slot slot;
+				synchronized (this) {
+					if(_firstFreeBlock >= starts[i]){ // nothing to fill before this slot and the ones before it
+						break;
+					}
+					slot = _slots.get(starts[i]);
+				}
+				Owner owner = (slot != null ? slot.get() : null);
+				if(owner != null){
+					owner.relocate(starts[i] << BlockBitSize);
+				}
+			}
+			_moveBuffer = null;
+			synchronized (this) {
+				long endBlock = _endBlock;
+				while(endBlock > 0 && (_bitmap[(int)((endBlock-1) >>> 6)] & (1L << (endBlock-1))) == 0){
+					--endBlock;
+				}
+				_endBlock = endBlock;
+				_backend.truncate(endBlock << BlockBitSize);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_backend.close();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("swap=[used=%dMB file=%dMB]", (_usedBlocks << BlockBitSize)/(1024*1024), (_endBlock << BlockBitSize)/(1024*1024));
+	}
+
+	private long findFreeRun(int blockCount, long limitBlock) {
+		long start = _firstFreeBlock;
+		for(long block = start; block < limitBlock; ){
+			int word = (int)(block >>> 6);
+			long bits = (word < _bitmap.length ? _bitmap[word] : 0L);
+			if(bits == -1L){ // whole word is used
+				start = block = (long)(word + 1) << 6;
+			}else if((bits & (1L << block)) != 0){ // shift uses only the low 6 bits, i.e. the bit within the word
+				start = ++block;
+			}else if(++block - start == blockCount){
+				return start;
+			}
+		}
+		return -1;
+	}
+	private void markBlocks(long start, int blockCount, boolean used) {
+		int lastWord = (int)((start + blockCount - 1) >>> 6);
+		if(lastWord >= _bitmap.length){
+			_bitmap = Arrays.copyOf(_bitmap, (lastWord/BitmapSizeIncr + 1)*BitmapSizeIncr);
+		}
+		for(long block = start; block < start + blockCount; ++block){
+			if(used){
+				_bitmap[(int)(block >>> 6)] |= (1L << block);
+			}else{
+				_bitmap[(int)(block >>> 6)] &= ~(1L << block);
+			}
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.InvalidClassException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// compiled XPath of a document, see OurXMLDoc.compile()
+public final class XPath {
+	private final OurXMLDoc _doc;
+	private final String _xpath;
+	final boolean _absolute;
+	final XPathStep[] _steps;
+	private int _resolvedNames = -1; // name count when the refs of the steps were looked up
+	private int _parsed = 0;
+	
+	XPath(OurXMLDoc doc, String xpath){
+		_doc = doc;
+		_xpath = xpath;
+		_absolute = xpath.startsWith("/");
+		List<XPathStep> steps = new ArrayList<>();
+		int axis = XPathStep.Child;
+		if(_absolute){
+			axis = (xpath.startsWith("//") ? XPathStep.Descendant : XPathStep.Child);
+			_parsed = (axis == XPathStep.Descendant ? 2 : 1);
+		}
+		while(true){
+			XPathStep step = new XPathStep(axis);
+			if(xpath.startsWith("@", _parsed)){
+				++_parsed;
+				step._kind = XPathStep.AttributeKind;
+				step._name = parseNameTest();
+			}else if(xpath.startsWith("text()", _parsed)){
+				_parsed += 6;
+				step._kind = XPathStep.TextKind;
+			}else{
+				step._name = parseElementNameTest();
+			}
+			while(_parsed < xpath.length() && xpath.charAt(_parsed) == '['){
+				if(step._kind != XPathStep.ElementKind){
+					throw invalid("predicates are only supported on element steps");
+				}
+				parsePredicate(step);
+			}
+			steps.add(step);
+			if(_parsed == xpath.length()){
+				break;
+			}
+			if(xpath.charAt(_parsed) != '/'){
+				throw invalid("'/' expected");
+			}
+			if(step._kind != XPathStep.ElementKind){
+				throw invalid("@attr and text() have to be the last step");
+			}
+			axis = (xpath.startsWith("//", _parsed) ? XPathStep.Descendant : XPathStep.Child);
+			_parsed += (axis == XPathStep.Descendant ? 2 : 1);
+		}
+		_steps = steps.toArray(new XPathStep[0]);
+	}
+	// null for *
+	private String parseNameTest(){
+		if(_xpath.startsWith("*", _parsed)){
+			++_parsed;
+			return null;
+		}
+		return parseName();
+	}
+	private String parseElementNameTest(){
+		if(!_xpath.startsWith("{", _parsed)){
+			return parseNameTest();
+		}
+		int start = _parsed;
+		int end = _xpath.indexOf('}', start);
+		if(end < 0){
+			throw invalid("'}' expected");
+		}
+		_parsed = end + 1;
+		parseName();
+		return _xpath.substring(start, _parsed);
+	}
+	private String parseName(){
+		if(_xpath.startsWith("{", _parsed)){
+			throw invalid("{uri}local is only supported on element steps");
+		}
+		int start = _parsed;
+		while(_parsed < _xpath.length() && "/[]@=*()'\" \t".indexOf(_xpath.charAt(_parsed)) < 0){
+			++_parsed;
+		}
+		if(_parsed == start){
+			throw invalid("name expected");
+		}
+		return _xpath.substring(start, _parsed);
+	}
+	private void parsePredicate(XPathStep step){
+		++_parsed; // [
+		skipSpaces();
+		if(_xpath.startsWith("@", _parsed)){
+			++_parsed;
+			String name = parseName();
+			byte[] value = null;
+			skipSpaces();
+			if(_xpath.startsWith("=", _parsed)){
+				++_parsed;
+				skipSpaces();
+				char quote = (_parsed < _xpath.length() ? _xpath.charAt(_parsed) : 0);
+				int end = (quote == '\'' || quote == '"' ? _xpath.indexOf(quote, _parsed + 1) : -1);
+				if(end < 0){
+					throw invalid("quoted value expected");
+				}
+				value = _xpath.substring(_parsed + 1, end).getBytes(StandardCharsets.UTF_8);
+				_parsed = end + 1;
+				skipSpaces();
+			}
+			step.addPredicate(name, value, 0);
+		}else{
+			int start = _parsed;
+			while(_parsed < _xpath.length() && Character.isDigit(_xpath.charAt(_parsed))){
+				++_parsed;
+			}
+			int position = (_parsed > start && _parsed - start < 10 ? Integer.parseInt(_xpath.substring(start, _parsed)) : 0);
+			if(position <= 0){
+				throw invalid("@attr, @attr='value' or a position expected");
+			}
+			skipSpaces();
+			step.addPredicate(null, null, position);
+		}
+		if(!_xpath.startsWith("]", _parsed)){
+			throw invalid("']' expected");
+		}
+		++_parsed;
+	}
+	private void skipSpaces(){
+		while(_parsed < _xpath.length() && (_xpath.charAt(_parsed) == ' ' || _xpath.charAt(_parsed) == '\t')){
+			++_parsed;
+		}
+	}
+	private IllegalArgumentException invalid(String reason){
+		return new IllegalArgumentException("Unsupported XPath " + _xpath + ", " + reason + " at " + _parsed + ".");
+	}
+	
+	// names of the document have to be known to match; a load can add names after the plan was compiled
+	synchronized void resolveNames(){
+		int names = _doc.getNameCount();
+		if(names != _resolvedNames){
+			for(XPathStep step : _steps){
+				step._nameRef = (step._name == null ? XPathStep.AnyName : _doc.getQueryNameRef(step._name));
+				step._namespaceRef = (step._name == null ? OurXMLDoc.AnyNamespace : _doc.getQueryNamespaceRef(step._name));
+				for(int i=0; i<step._attribNames.length; ++i){
+					step._attribRefs[i] = (step._attribNames[i] == null ? -1 : _doc.getStringRefNoAdd(step._attribNames[i]));
+				}
+			}
+			_resolvedNames = names;
+		}
+	}
+	
+	public XPathIterator iterator(long contextHandle){
+		return new XPathIterator(_doc, this).reset(contextHandle);
+	}
+	// first result, 0 if there is none
+	public long selectFirst(long contextHandle) throws InvalidClassException{
+		XPathIterator iterator = iterator(contextHandle);
+		return (iterator.next() ? iterator.getCurrentHandle() : 0);
+	}
+	
+	@Override
+	public String toString(){
+		return _xpath;
+	}
+}
@@ -0,0 +1,365 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.InvalidClassException;
+import java.util.Arrays;
+
+import gnu.trove.list.array.TLongArrayList;
+
+// results of a compiled xpath: element, attribute (see getText) or text node handles. each step has its source of
+// candidates at a level, the iterator goes down a level for every candidate which matches and back up when a source
+// is exhausted
+public final class XPathIterator {
+	private static final int Empty = 0, ChildWalk = 1, ChildRange = 2, DescendantWalk = 3, DescendantRange = 4,
+			IndexRecord = 5, Attributes = 6, Texts = 7;
+	
+	private final OurXMLDoc _doc;
+	private final ObjectStore _store;
+	private final XPathStep[] _steps;
+	private final XPath _plan;
+	private final int[] _sources;
+	private final long[] _cursors;		// next handle of a chain or position of a range
+	private final long[] _ends;
+	private final long[] _records;		// attribute index record
+	private final TLongArrayList[] _lists;
+	// walks: per depth the next node and the position counters of the step, the counters of child sources are at depth 0
+	private final long[][] _frames;
+	private final int[] _depths;
+	private final boolean[] _selfOnly;	// no siblings of the first node of a walk, i.e. the context itself
+	private final long[] _attribCursors;
+	// the last context of a descendant step and the end of its subtree; a later context inside it has nothing new
+	private final long[] _contexts;
+	private final long[] _coveredEnds;
+	private ElementIndex _index;
+	private long _context;
+	private int _level;
+	private long _currentHandle;
+	
+	private final OurXMLDoc.Node _node;
+	private final OurXMLDoc.Element _ele;
+	private final OurXMLDoc.Attribute _attrib;
+	
+	XPathIterator(OurXMLDoc doc, XPath plan){
+		_doc = doc;
+		_store = doc.getObjectStore();
+		_node = doc.new Node();
+		_ele = doc.new Element();
+		_attrib = doc.new Attribute();
+		_plan = plan;
+		_steps = plan._steps;
+		int levels = _steps.length;
+		_sources = new int[levels];
+		_cursors = new long[levels];
+		_ends = new long[levels];
+		_records = new long[levels];
+		_lists = new TLongArrayList[levels];
+		_frames = new long[levels][];
+		_depths = new int[levels];
+		_selfOnly = new boolean[levels];
+		_attribCursors = new long[levels];
+		_contexts = new long[levels];
+		_coveredEnds = new long[levels];
+		for(int level=0; level<levels; ++level){
+			_frames[level] = new long[8*(1 + _steps[level]._counters)];
+		}
+	}
+	
+	// runs the plan again; a relative path of context handle 0 is of the document
+	public XPathIterator reset(long contextHandle){
+		_plan.resolveNames();
+		_context = (_plan._absolute ? 0 : contextHandle);
+		_level = -1;
+		_currentHandle = 0;
+		Arrays.fill(_contexts, 0);
+		Arrays.fill(_coveredEnds, -1);
+		return this;
+	}
+	
+	public boolean next() throws InvalidClassException{
+		if(_currentHandle < 0){
+			return false;
+		}
+		if(_level < 0){
+			if(_doc._rootElementPtr <= 0){
+				_currentHandle = -1;
+				return false;
+			}
+			_index = _doc.getElementIndex();
+			_level = 0;
+			open(0, _context);
+		}
+		int last = _steps.length - 1;
+		while(_level >= 0){
+			long handle = advance(_level);
+			if(handle == 0){
+				--_level;
+			}else if(_level == last){
+				_currentHandle = handle;
+				return true;
+			}else{
+				open(++_level, handle);
+			}
+		}
+		_currentHandle = -1;
+		return false;
+	}
+	
+	public long getCurrentHandle(){
+		return _currentHandle;
+	}
+	
+	private void open(int level, long context) throws InvalidClassException{
+		XPathStep step = _steps[level];
+		Arrays.fill(_frames[level], 1, 1 + step._counters, 0);
+		_sources[level] = Empty;
+		boolean document = (context == 0);
+		boolean element = (level > 0); // contexts below the first step are matches of an element step
+		if(level == 0 && !document){
+			_node.attachInstance(context);
+			element = (_node.getClassForInstance() == OurXMLDoc.Element.class);
+		}
+		if(element){
+			_ele.attachUnchecked(context);
+		}
+		if(step._axis == XPathStep.Child){
+			if(document){
+				if(step._kind == XPathStep.ElementKind){
+					setChain(level, ChildWalk, _doc._rootElementPtr);
+				}
+			}else if(element){
+				if(step._kind == XPathStep.AttributeKind){
+					setChain(level, Attributes, _ele.getAttribPtr());
+				}else if(step._kind == XPathStep.TextKind){
+					setChain(level, Texts, _ele.getChildPtr());
+				}else if(_index != null && step._nameRef >= 0 && step._namespaceRef == OurXMLDoc.AnyNamespace){
+					long range = _index.getChildRange(context, step._nameRef);
+					if(range >= 0){
+						setRange(level, ChildRange, range >>> 32, (int)range);
+					}
+				}else{
+					setChain(level, ChildWalk, _ele.getChildPtr());
+				}
+			}
+			return;
+		}
+		// descendants: nothing new under a context inside the subtree of the last one of this step
+		if(context > _contexts[level] && context <= _coveredEnds[level]){
+			return;
+		}
+		_contexts[level] = context;
+		_coveredEnds[level] = -1;
+		if(!document && !element){
+			return;
+		}
+		if(step._kind == XPathStep.AttributeKind){
+			// attributes of the context too
+			startWalk(level, (document ? _doc._rootElementPtr : context), true);
+			_coveredEnds[level] = context - 1;
+			return;
+		}
+		if(document && step.startsWithValueTest()){
+			long position = (step._attribRefs[0] >= 0 ? _doc.getAttributeIndex(step._attribRefs[0]) : 0);
+			if(position > 0){
+				long record = AttributeIndex.findRecord(_store, position, step._attribValues[0]);
+				if(record > 0){
+					_records[level] = record;
+					setRange(level, IndexRecord, 0, AttributeIndex.getElementCount(_store, record));
+				}
+				return;
+			}
+		}
+		if(step._kind == XPathStep.ElementKind && _index != null && step._nameRef >= 0 && step._namespaceRef == OurXMLDoc.AnyNamespace
+				&& step._counters == 0 && (document || _index.isDocumentOrder())){
+			TLongArrayList elements = _index.getElements(step._nameRef);
+			if(elements != null){
+				_lists[level] = elements;
+				if(document){
+					setRange(level, DescendantRange, 0, elements.size());
+				}else{
+					long end = _index.getSubtreeEnd(context);
+					setRange(level, DescendantRange, ElementIndex.positionAfter(elements, context), ElementIndex.positionAfter(elements, end));
+					_coveredEnds[level] = end;
+				}
+			}
+			return;
+		}
+		startWalk(level, (document ? _doc._rootElementPtr : _ele.getChildPtr()), document);
+		_coveredEnds[level] = context;
+	}
+	private void setChain(int level, int source, long first){
+		_sources[level] = source;
+		_cursors[level] = first;
+	}
+	private void setRange(int level, int source, long position, long end){
+		_sources[level] = source;
+		_cursors[level] = position;
+		_ends[level] = end;
+	}
+	private void startWalk(int level, long first, boolean selfOnly){
+		_sources[level] = DescendantWalk;
+		_depths[level] = 0;
+		_frames[level][0] = first;
+		_selfOnly[level] = selfOnly;
+		_attribCursors[level] = 0;
+	}
+	
+	// next match of the step at level, 0 when its source is exhausted
+	private long advance(int level) throws InvalidClassException{
+		XPathStep step = _steps[level];
+		long[] frames = _frames[level];
+		switch(_sources[level]){
+		case ChildWalk:
+			for(long handle = _cursors[level]; handle > 0; ){
+				_node.attachInstance(handle);
+				long next = _node.getNextNodeHandle();
+				if(_node.getClassForInstance() == OurXMLDoc.Element.class){
+					_ele.attachUnchecked(handle);
+					if(matches(step, frames, 1)){
+						_cursors[level] = next;
+						return handle;
+					}
+				}
+				handle = next;
+			}
+			_cursors[level] = 0;
+			return 0;
+		case ChildRange:
+		case DescendantRange:
+		case IndexRecord:
+			while(_cursors[level] < _ends[level]){
+				int position = (int)_cursors[level]++;
+				long handle;
+				if(_sources[level] == ChildRange){
+					handle = _index.getChild(position);
+				}else if(_sources[level] == DescendantRange){
+					handle = _lists[level].getQuick(position);
+				}else{
+					handle = AttributeIndex.getElement(_store, _records[level], position);
+				}
+				if(_sources[level] != IndexRecord && step._positions.length == 0){
+					return handle; // ranges of the element index are of the name
+				}
+				_ele.attachUnchecked(handle);
+				if(matches(step, frames, 1)){
+					return handle;
+				}
+			}
+			return 0;
+		case Attributes:
+			for(long handle = _cursors[level]; handle > 0; handle = _cursors[level]){
+				_attrib.attachUnchecked(handle);
+				_cursors[level] = _attrib.getNextNodeHandle();
+				if(step._nameRef == XPathStep.AnyName || _attrib.getNameRef() == step._nameRef){
+					return handle;
+				}
+			}
+			return 0;
+		case Texts:
+			for(long handle = _cursors[level]; handle > 0; handle = _cursors[level]){
+				_node.attachInstance(handle);
+				_cursors[level] = _node.getNextNodeHandle();
+				if(_node.getClassForInstance() == OurXMLDoc.TextNode.class){
+					return handle;
+				}
+			}
+			return 0;
+		case DescendantWalk:
+			return advanceWalk(level, step);
+		default:
+			return 0;
+		}
+	}
+	// preorder walk, the frames of a depth are its next sibling to visit and the counters of its siblings
+	private long advanceWalk(int level, XPathStep step) throws InvalidClassException{
+		int width = 1 + step._counters;
+		long[] frames = _frames[level];
+		int depth = _depths[level];
+		while(depth >= 0){
+			for(long attribPtr = _attribCursors[level]; attribPtr > 0; attribPtr = _attribCursors[level]){
+				_attrib.attachUnchecked(attribPtr);
+				_attribCursors[level] = _attrib.getNextNodeHandle();
+				if(step._nameRef == XPathStep.AnyName || _attrib.getNameRef() == step._nameRef){
+					_depths[level] = depth;
+					return attribPtr;
+				}
+			}
+			long handle = frames[depth*width];
+			if(handle == 0){
+				--depth;
+				continue;
+			}
+			_node.attachInstance(handle);
+			frames[depth*width] = (depth == 0 && _selfOnly[level] ? 0 : _node.getNextNodeHandle());
+			long coveredEnd = _coveredEnds[level];
+			if(coveredEnd >= 0){
+				_coveredEnds[level] = (handle > coveredEnd ? handle : -1); // handles out of order cover nothing
+			}
+			if(_node.getClassForInstance() == OurXMLDoc.Element.class){
+				_ele.attachUnchecked(handle);
+				long childPtr = _ele.getChildPtr();
+				boolean match = (step._kind == XPathStep.ElementKind && matches(step, frames, depth*width + 1));
+				if(step._kind == XPathStep.AttributeKind){
+					_attribCursors[level] = _ele.getAttribPtr();
+				}
+				if(childPtr > 0){
+					++depth;
+					if((depth + 1)*width > frames.length){
+						frames = _frames[level] = Arrays.copyOf(frames, 2*frames.length);
+					}
+					frames[depth*width] = childPtr;
+					Arrays.fill(frames, depth*width + 1, (depth + 1)*width, 0);
+				}
+				if(match){
+					_depths[level] = depth;
+					return handle;
+				}
+			}else if(step._kind == XPathStep.TextKind && _node.getClassForInstance() == OurXMLDoc.TextNode.class){
+				_depths[level] = depth;
+				return handle;
+			}
+		}
+		_depths[level] = -1;
+		return 0;
+	}
+	
+	// name and predicates of the element attached to _ele, counters of its parent from offset
+	private boolean matches(XPathStep step, long[] counters, int offset){
+		if(step._nameRef != XPathStep.AnyName && !_ele.isOfType(step._nameRef, step._namespaceRef)){
+			return false;
+		}
+		for(int i=0, counter=offset; i<step._positions.length; ++i){
+			if(step._positions[i] > 0){
+				if(++counters[counter++] != step._positions[i]){
+					return false;
+				}
+			}else if(!hasAttribute(step._attribRefs[i], step._attribValues[i])){
+				return false;
+			}
+		}
+		return true;
+	}
+	private boolean hasAttribute(int nameRef, byte[] value){
+		for(long attribPtr = _ele.getAttribPtr(); attribPtr > 0; attribPtr = _attrib.getNextNodeHandle()){
+			_attrib.attachUnchecked(attribPtr);
+			if(_attrib.getNameRef() == nameRef){
+				return (value == null || _store.stringEquals(_attrib.getValueHandle(), value, 0, value.length));
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.util.Arrays;
+
+// step of a compiled XPath: axis, node test and predicates, with the refs of its names in the document
+final class XPathStep {
+	static final int Child = 0, Descendant = 1;
+	static final int ElementKind = 0, AttributeKind = 1, TextKind = 2;
+	static final int AnyName = -2;
+	
+	final int _axis;
+	int _kind = ElementKind;
+	String _name;				// null for *, {uri}local as it is for an element in a namespace
+	int _nameRef;
+	int _namespaceRef = OurXMLDoc.AnyNamespace;
+	// predicates in their order, an attribute test (value null if it only has to be there) or a position
+	String[] _attribNames = new String[0];
+	byte[][] _attribValues = new byte[0][];
+	int[] _attribRefs = new int[0];
+	int[] _positions = new int[0];	// 0 for attribute tests
+	int _counters = 0;				// number of positions, each counts the matches of a parent
+	
+	XPathStep(int axis){
+		_axis = axis;
+	}
+	void addPredicate(String attribName, byte[] value, int position){
+		int count = _positions.length;
+		_attribNames = Arrays.copyOf(_attribNames, count + 1);
+		_attribValues = Arrays.copyOf(_attribValues, count + 1);
+		_attribRefs = new int[count + 1];
+		_positions = Arrays.copyOf(_positions, count + 1);
+		_attribNames[count] = attribName;
+		_attribValues[count] = value;
+		_positions[count] = position;
+		if(position > 0){
+			++_counters;
+		}
+	}
+	// //name[@attr='value'] of the document can start from the attribute index
+	boolean startsWithValueTest(){
+		return _kind == ElementKind && _counters == 0 && _positions.length > 0 && _attribValues[0] != null;
+	}
+}
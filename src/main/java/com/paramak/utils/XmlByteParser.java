@@ -0,0 +1,575 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// parser for utf-8 (and ascii) documents which works on the raw bytes: text and attribute values are copied from the
+// read buffer straight into the object store, names are looked up by their bytes and decoded only the first time they
+// are met. entities are the predefined ones and character references. text between tags is collected across
+// comments, cdata and processing instructions and trimmed, as the sax handler of OurXMLDoc does. the input is expected
+// to be well-formed, structure errors are reported but e.g. utf-8 sequences and name characters are not validated.
+// documents in other encodings or with a document type declaration throw UnsupportedDocumentException
+final class XmlByteParser {
+	private static final int BufferSize = 1 << 16;
+	private static final int InitialNameSlots = 1 << 8;
+	
+	private static final byte[] DeclarationStart = "<?xml".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] InstructionEnd = "?>".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CommentStart = "<!--".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CommentEnd = "-->".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CDataStart = "<![CDATA[".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CDataEnd = "]]>".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] DocTypeStart = "<!DOCTYPE".getBytes(StandardCharsets.US_ASCII);
+	private static final Pattern EncodingPattern = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+	
+	// receives the document in order: an element, its attributes, then its content and its end
+	interface Handler {
+		int nameRef(byte[] name, int start, int length); // utf-8 name is met for the first time
+		void startElement(int nameRef) throws IOException;
+		void attribute(int nameRef, long valueHandle) throws IOException;
+		void startTagEnded() throws IOException; // after the attributes
+		void text(long textHandle) throws IOException;
+		void endElement(int nameRef) throws IOException; // also right after the attributes of an empty element
+	}
+	// the document needs a full parser, nothing has been handed to the handler yet
+	static final class UnsupportedDocumentException extends IOException {
+		private static final long serialVersionUID = 1L;
+		UnsupportedDocumentException(String message) {
+			super(message);
+		}
+	}
+	
+	private final FileChannel _channel;
+	private final ObjectStore _store;
+	private final Handler _handler;
+	private byte[] _buffer = new byte[BufferSize];
+	private int _pos = 0;				// start of what is being parsed, offsets are relative to it
+	private int _limit = 0;
+	private long _bufferPosition = 0;	// file position of _buffer[0]
+	private long _readPosition = 0;
+	private byte[] _text = new byte[256];	// text collected up to the next tag, or a decoded value
+	private int _textLength = 0;
+	// names: open addressing table of entries, 0 is an empty slot; entries from 1
+	private int[] _nameSlots = new int[InitialNameSlots];
+	private byte[][] _names = new byte[InitialNameSlots/2 + 1][];
+	private int[] _nameHashes = new int[InitialNameSlots/2 + 1];
+	private int[] _nameRefs = new int[InitialNameSlots/2 + 1];
+	private int _nameCount = 0;
+	private int _nameHash;				// of the name scanned last
+	private int[] _openNames = new int[64];	// entries of the open elements, end tags are compared with them
+	
+	private XmlByteParser(FileChannel channel, ObjectStore store, Handler handler) {
+		_channel = channel;
+		_store = store;
+		_handler = handler;
+	}
+	
+	// text and attribute values are appended to store
+	static void parse(FileChannel channel, ObjectStore store, Handler handler) throws IOException {
+		new XmlByteParser(channel, store, handler).parseDocument();
+	}
+	
+	private void parseDocument() throws IOException {
+		if(available(3) && (_buffer[_pos] & 0xff) == 0xef && (_buffer[_pos+1] & 0xff) == 0xbb && (_buffer[_pos+2] & 0xff) == 0xbf){
+			_pos += 3; // byte order mark
+		}else if(available(2) && ((_buffer[_pos] == 0 || _buffer[_pos+1] == 0) || (_buffer[_pos] & 0xff) >= 0xfe)){
+			throw new UnsupportedDocumentException("Document is not utf-8.");
+		}
+		if(available(DeclarationStart.length + 1) && startsWith(DeclarationStart, 0) && isSpace(byteAt(DeclarationStart.length))){
+			readDeclaration();
+		}
+		int depth = 0;
+		boolean rootEnded = false;
+		while(true){
+			int tagStart = find('<', 0);
+			if(tagStart < 0){
+				checkSpace(_limit - _pos);
+				if(!rootEnded){
+					throw error("Unexpected end of document");
+				}
+				return;
+			}
+			int b = byteAt(tagStart + 1);
+			if(b == '!' || b == '?'){ // text goes on after these
+				if(depth > 0){
+					appendDecoded(_buffer, _pos, tagStart, false);
+				}else{
+					checkSpace(tagStart);
+				}
+				_pos += tagStart;
+				if(b == '?'){
+					skipPast(InstructionEnd, 2);
+				}else if(startsWith(CommentStart, 0)){
+					skipPast(CommentEnd, CommentStart.length);
+				}else if(startsWith(CDataStart, 0)){
+					int end = findSequence(CDataEnd, CDataStart.length);
+					if(end < 0 || depth == 0){
+						throw error(end < 0 ? "Unexpected end of document" : "CDATA section outside of the root element");
+					}
+					appendCData(_pos + CDataStart.length, end - CDataStart.length);
+					_pos += end + CDataEnd.length;
+				}else if(startsWith(DocTypeStart, 0)){
+					throw new UnsupportedDocumentException("Document type declarations are not supported.");
+				}else{
+					throw error("Invalid markup");
+				}
+			}else{
+				if(depth > 0){
+					flushText(tagStart);
+				}else{
+					checkSpace(tagStart);
+				}
+				_pos += tagStart;
+				if(b == '/'){
+					if(depth == 0){
+						throw error("End tag outside of the root element");
+					}
+					parseEndTag(_openNames[--depth]);
+					rootEnded = (depth == 0);
+				}else{
+					if(rootEnded){
+						throw error("Content is not allowed after the root element");
+					}
+					int entry = parseStartTag();
+					if(entry > 0){
+						if(depth == _openNames.length){
+							_openNames = Arrays.copyOf(_openNames, 2*depth);
+						}
+						_openNames[depth++] = entry;
+					}else{
+						rootEnded = (depth == 0);
+					}
+				}
+			}
+		}
+	}
+	
+	private void readDeclaration() throws IOException {
+		int end = findSequence(InstructionEnd, DeclarationStart.length);
+		if(end < 0){
+			throw error("Unexpected end of document");
+		}
+		Matcher encoding = EncodingPattern.matcher(new String(_buffer, _pos, end, StandardCharsets.ISO_8859_1));
+		if(encoding.find()){
+			String name = encoding.group(1);
+			if(!name.equalsIgnoreCase("UTF-8") && !name.equalsIgnoreCase("UTF8") && !name.equalsIgnoreCase("US-ASCII") && !name.equalsIgnoreCase("ASCII")){
+				throw new UnsupportedDocumentException("Encoding " + name + " is not supported.");
+			}
+		}
+		_pos += end + InstructionEnd.length;
+	}
+	
+	// returns the name entry of the element, 0 for an empty element, which is ended as well
+	private int parseStartTag() throws IOException {
+		int nameEnd = scanName(1);
+		int elementEntry = nameEntry(1, nameEnd - 1, true);
+		int elementRef = _nameRefs[elementEntry];
+		_handler.startElement(elementRef);
+		int offset = nameEnd;
+		while(true){
+			int b = byteAt(offset);
+			if(isSpace(b)){
+				++offset;
+			}else if(b == '>'){
+				_pos += offset + 1;
+				_handler.startTagEnded();
+				return elementEntry;
+			}else if(b == '/'){
+				if(byteAt(offset + 1) != '>'){
+					throw error("Expected '>' after '/'");
+				}
+				_pos += offset + 2;
+				_handler.startTagEnded();
+				_handler.endElement(elementRef);
+				return 0;
+			}else{
+				int attribNameEnd = scanName(offset);
+				int attribEntry = nameEntry(offset, attribNameEnd - offset, true); // before _nameRefs is read, it can grow
+				int attribRef = _nameRefs[attribEntry];
+				offset = skipSpace(attribNameEnd);
+				if(byteAt(offset) != '='){
+					throw error("Expected '=' after attribute name");
+				}
+				offset = skipSpace(offset + 1);
+				int quote = byteAt(offset);
+				if(quote != '"' && quote != '\''){
+					throw error("Expected quoted attribute value");
+				}
+				int valueEnd = find(quote, offset + 1);
+				if(valueEnd < 0){
+					throw error("Unexpected end of document");
+				}
+				_handler.attribute(attribRef, storeValue(_pos + offset + 1, valueEnd - offset - 1));
+				offset = valueEnd + 1;
+			}
+		}
+	}
+	
+	// the name is compared with the one of the open element first, a different one is an error
+	private void parseEndTag(int openEntry) throws IOException {
+		byte[] openName = _names[openEntry];
+		int offset = 2 + openName.length;
+		if(!available(offset + 1) || !Arrays.equals(openName, 0, openName.length, _buffer, _pos + 2, _pos + offset)
+				|| !(isSpace(_buffer[_pos + offset]) || _buffer[_pos + offset] == '>')){
+			int nameEnd = scanName(2);
+			int entry = nameEntry(2, nameEnd - 2, false);
+			if(entry == 0){ // a name which no start tag has
+				throw error("Unmatched end tag " + new String(_buffer, _pos + 2, nameEnd - 2, StandardCharsets.UTF_8));
+			}
+			offset = nameEnd;
+			openEntry = entry; // reported by the handler
+		}
+		offset = skipSpace(offset);
+		if(byteAt(offset) != '>'){
+			throw error("Expected '>' in end tag");
+		}
+		_pos += offset + 1;
+		_handler.endElement(_nameRefs[openEntry]);
+	}
+	
+	// offset after the name, its hash is left in _nameHash
+	private int scanName(int offset) throws IOException {
+		int hash = 0;
+		int end = offset;
+		while(true){
+			byte[] buffer = _buffer;
+			int i = _pos + end;
+			for(int limit=_limit; i<limit; ++i){
+				byte b = buffer[i];
+				if(b == ' ' || b == '>' || b == '/' || b == '=' || b == '\n' || b == '\t' || b == '\r' || b == '<' || b == '"' || b == '\''){
+					end = i - _pos;
+					if(end == offset){
+						throw error("Name expected");
+					}
+					_nameHash = hash;
+					return end;
+				}
+				hash = 31*hash + b;
+			}
+			end = i - _pos;
+			if(!fill()){
+				throw error("Unexpected end of document");
+			}
+		}
+	}
+	private int skipSpace(int offset) throws IOException {
+		while(isSpace(byteAt(offset))){
+			++offset;
+		}
+		return offset;
+	}
+	
+	// entry of the name which has just been scanned; 0 if it is new and add is false
+	private int nameEntry(int offset, int length, boolean add) {
+		byte[] buffer = _buffer;
+		int start = _pos + offset;
+		int hash = _nameHash;
+		int mask = _nameSlots.length - 1;
+		int slot = (hash ^ (hash >>> 15)) & mask;
+		for(int entry; (entry = _nameSlots[slot]) != 0; slot = (slot + 1) & mask){
+			byte[] name = _names[entry];
+			if(_nameHashes[entry] == hash && Arrays.equals(name, 0, name.length, buffer, start, start + length)){
+				return entry;
+			}
+		}
+		if(!add){
+			return 0;
+		}
+		int ref = _handler.nameRef(buffer, start, length);
+		int entry = ++_nameCount;
+		if(entry == _names.length){
+			_names = Arrays.copyOf(_names, 2*entry);
+			_nameHashes = Arrays.copyOf(_nameHashes, 2*entry);
+			_nameRefs = Arrays.copyOf(_nameRefs, 2*entry);
+		}
+		_names[entry] = Arrays.copyOfRange(buffer, start, start + length);
+		_nameHashes[entry] = hash;
+		_nameRefs[entry] = ref;
+		_nameSlots[slot] = entry;
+		if(2*_nameCount > _nameSlots.length){ // at most half full
+			rehashNames();
+		}
+		return entry;
+	}
+	private void rehashNames() {
+		_nameSlots = new int[2*_nameSlots.length];
+		int mask = _nameSlots.length - 1;
+		for(int entry=1; entry<=_nameCount; ++entry){
+			int hash = _nameHashes[entry];
+			int slot = (hash ^ (hash >>> 15)) & mask;
+			while(_nameSlots[slot] != 0){
+				slot = (slot + 1) & mask;
+			}
+			_nameSlots[slot] = entry;
+		}
+	}
+	
+	// text of the current element up to the tag at offset length: stored from the buffer as it is when there is nothing
+	// to decode and nothing collected before
+	private void flushText(int length) throws IOException {
+		if(_textLength == 0 && !needsDecoding(_buffer, _pos, length, false)){
+			storeText(_buffer, _pos, length);
+		}else{
+			appendDecoded(_buffer, _pos, length, false);
+			storeText(_text, 0, _textLength);
+			_textLength = 0;
+		}
+	}
+	private void storeText(byte[] bytes, int start, int length) throws IOException {
+		while(length > 0 && isSpace(bytes[start])){
+			++start;
+			--length;
+		}
+		while(length > 0 && isSpace(bytes[start + length - 1])){
+			--length;
+		}
+		if(length > 0){
+			_handler.text(_store.appendStringBytes(bytes, start, length));
+		}
+	}
+	private long storeValue(int start, int length) throws IOException {
+		if(!needsDecoding(_buffer, start, length, true)){
+			return _store.appendStringBytes(_buffer, start, length);
+		}
+		appendDecoded(_buffer, start, length, true); // text has been flushed before the tag
+		long handle = _store.appendStringBytes(_text, 0, _textLength);
+		_textLength = 0;
+		return handle;
+	}
+	
+	private static boolean needsDecoding(byte[] bytes, int start, int length, boolean attributeValue) {
+		for(int i=start; i<start+length; ++i){
+			byte b = bytes[i];
+			if(b == '&' || b == '\r' || (attributeValue && (b == '\n' || b == '\t'))){
+				return true;
+			}
+		}
+		return false;
+	}
+	// references and line ends; white space in attribute values becomes a space. decoded bytes are never more than the
+	// encoded ones
+	private void appendDecoded(byte[] bytes, int start, int length, boolean attributeValue) throws IOException {
+		ensureTextCapacity(length);
+		byte[] text = _text;
+		int t = _textLength;
+		int end = start + length;
+		for(int i=start; i<end; ++i){
+			byte b = bytes[i];
+			if(b == '&'){
+				int semicolon = i + 1;
+				while(semicolon < end && bytes[semicolon] != ';'){
+					++semicolon;
+				}
+				if(semicolon == end){
+					throw error("Reference is not terminated");
+				}
+				t = appendReference(bytes, i + 1, semicolon, text, t);
+				i = semicolon;
+			}else if(b == '\r'){
+				if(i + 1 < end && bytes[i + 1] == '\n'){
+					++i;
+				}
+				text[t++] = (byte)(attributeValue ? ' ' : '\n');
+			}else if(attributeValue && (b == '\n' || b == '\t')){
+				text[t++] = ' ';
+			}else{
+				text[t++] = b;
+			}
+		}
+		_textLength = t;
+	}
+	private int appendReference(byte[] bytes, int start, int end, byte[] text, int t) throws IOException {
+		if(end - start > 1 && bytes[start] == '#'){
+			int radix = 10;
+			int i = start + 1;
+			if(bytes[i] == 'x'){
+				radix = 16;
+				++i;
+			}
+			int cp = 0;
+			if(i == end){
+				throw error("Invalid character reference");
+			}
+			for(; i<end; ++i){
+				int digit = Character.digit(bytes[i], radix);
+				if(digit < 0 || cp > Character.MAX_CODE_POINT){
+					throw error("Invalid character reference");
+				}
+				cp = cp*radix + digit;
+			}
+			if(cp == 0 || cp > Character.MAX_CODE_POINT || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)){
+				throw error("Invalid character reference");
+			}
+			if(cp < 0x80){
+				text[t++] = (byte)cp;
+			}else if(cp < 0x800){
+				text[t++] = (byte)(0xc0 | (cp >>> 6));
+				text[t++] = (byte)(0x80 | (cp & 0x3f));
+			}else if(cp < 0x10000){
+				text[t++] = (byte)(0xe0 | (cp >>> 12));
+				text[t++] = (byte)(0x80 | ((cp >>> 6) & 0x3f));
+				text[t++] = (byte)(0x80 | (cp & 0x3f));
+			}else{
+				text[t++] = (byte)(0xf0 | (cp >>> 18));
+				text[t++] = (byte)(0x80 | ((cp >>> 12) & 0x3f));
+				text[t++] = (byte)(0x80 | ((cp >>> 6) & 0x3f));
+				text[t++] = (byte)(0x80 | (cp & 0x3f));
+			}
+			return t;
+		}
+		String name = new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+		switch(name){
+		case "lt":		text[t++] = '<';	break;
+		case "gt":		text[t++] = '>';	break;
+		case "amp":		text[t++] = '&';	break;
+		case "apos":	text[t++] = '\'';	break;
+		case "quot":	text[t++] = '"';	break;
+		default:
+			throw error("Undeclared entity " + name);
+		}
+		return t;
+	}
+	// cdata is taken as it is, but for line ends
+	private void appendCData(int start, int length) {
+		ensureTextCapacity(length);
+		byte[] buffer = _buffer;
+		byte[] text = _text;
+		int t = _textLength;
+		int end = start + length;
+		for(int i=start; i<end; ++i){
+			byte b = buffer[i];
+			if(b == '\r'){
+				if(i + 1 < end && buffer[i + 1] == '\n'){
+					++i;
+				}
+				b = '\n';
+			}
+			text[t++] = b;
+		}
+		_textLength = t;
+	}
+	private void ensureTextCapacity(int length) {
+		if(_textLength + length > _text.length){
+			_text = Arrays.copyOf(_text, Math.max(2*_text.length, _textLength + length));
+		}
+	}
+	
+	// bytes up to offset have to be white space, i.e. there is no text outside of the root element
+	private void checkSpace(int offset) throws IOException {
+		for(int i=_pos; i<_pos+offset; ++i){
+			if(!isSpace(_buffer[i])){
+				throw error("Content is not allowed outside of the root element");
+			}
+		}
+	}
+	private static boolean isSpace(int b) {
+		return (b == ' ' || b == '\n' || b == '\t' || b == '\r');
+	}
+	
+	private boolean startsWith(byte[] sequence, int offset) throws IOException {
+		for(int i=0; i<sequence.length; ++i){
+			if(byteAt(offset + i) != sequence[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+	private void skipPast(byte[] sequence, int offset) throws IOException {
+		int end = findSequence(sequence, offset);
+		if(end < 0){
+			throw error("Unexpected end of document");
+		}
+		_pos += end + sequence.length;
+	}
+	// offset of the sequence, -1 at the end of the document
+	private int findSequence(byte[] sequence, int offset) throws IOException {
+		while(true){
+			int start = find(sequence[0], offset);
+			if(start < 0 || !available(start + sequence.length)){
+				return -1;
+			}
+			int i = 1;
+			while(i < sequence.length && _buffer[_pos + start + i] == sequence[i]){
+				++i;
+			}
+			if(i == sequence.length){
+				return start;
+			}
+			offset = start + 1;
+		}
+	}
+	// offset of b, -1 at the end of the document
+	private int find(int b, int offset) throws IOException {
+		while(true){
+			byte[] buffer = _buffer;
+			for(int i=_pos+offset, limit=_limit; i<limit; ++i){
+				if(buffer[i] == b){
+					return i - _pos;
+				}
+			}
+			offset = _limit - _pos;
+			if(!fill()){
+				return -1;
+			}
+		}
+	}
+	private int byteAt(int offset) throws IOException {
+		if(!available(offset + 1)){
+			throw error("Unexpected end of document");
+		}
+		return _buffer[_pos + offset] & 0xff;
+	}
+	// whether count bytes from the current position are in the buffer, reads them if needed
+	private boolean available(int count) throws IOException {
+		while(_limit - _pos < count){
+			if(!fill()){
+				return false;
+			}
+		}
+		return true;
+	}
+	// moves what is left to the start of the buffer, grows it for tokens longer than the buffer, then reads
+	private boolean fill() throws IOException {
+		if(_pos > 0){
+			System.arraycopy(_buffer, _pos, _buffer, 0, _limit - _pos);
+			_bufferPosition += _pos;
+			_limit -= _pos;
+			_pos = 0;
+		}
+		if(_limit == _buffer.length){
+			_buffer = Arrays.copyOf(_buffer, 2*_buffer.length);
+		}
+		int read = _channel.read(ByteBuffer.wrap(_buffer, _limit, _buffer.length - _limit), _readPosition);
+		if(read <= 0){
+			return false;
+		}
+		_readPosition += read;
+		_limit += read;
+		return true;
+	}
+	
+	private IOException error(String message) {
+		return new IOException(String.format("%s at byte %d.", message, _bufferPosition + _pos));
+	}
+}
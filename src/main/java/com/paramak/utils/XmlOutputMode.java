@@ -0,0 +1,25 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+// layout of a document written by OurXMLDoc.write
+public enum XmlOutputMode {
+	PRETTY,		// xml declaration, an element or text per line indented by tabs, an element with just one text on one line
+	COMPACT,	// xml declaration, nothing between the nodes
+	CANONICAL	// canonical xml as far as the stored document goes: no declaration, nothing between the nodes, namespace
+				// declarations by prefix then attributes by namespace uri and local name, empty elements as start and end tag
+}
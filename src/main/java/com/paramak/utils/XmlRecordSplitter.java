@@ -0,0 +1,184 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import gnu.trove.list.array.TLongArrayList;
+
+// one pass over the raw bytes of a document which finds where the root element starts and ends and where records, i.e.
+// children of the root, start. only markup is recognized (tags with quoted values, comments, cdata, processing
+// instructions, doctype), nothing is decoded, so it runs at disk speed for any ascii compatible encoding
+final class XmlRecordSplitter {
+	private static final int BufferSize = 1 << 20;
+	
+	private static final int Text = 0;
+	private static final int TagOpen = 1;	// after '<'
+	private static final int StartTag = 2;
+	private static final int EndTag = 3;
+	private static final int Bang = 4;		// after "<!"
+	private static final int Comment = 5;
+	private static final int CData = 6;
+	private static final int Declaration = 7; // doctype, with its internal subset
+	private static final int Instruction = 8;
+	
+	private long _rootTagStart = -1;
+	private long _contentStart = -1;	// after '>' of the root start tag
+	private long _contentEnd = -1;		// '<' of the root end tag
+	private final TLongArrayList _recordStarts = new TLongArrayList();
+	
+	// records are chosen so that chunks are about size/chunks bytes
+	static XmlRecordSplitter split(FileChannel channel, int chunks) throws IOException {
+		XmlRecordSplitter splitter = new XmlRecordSplitter();
+		splitter.scan(channel, Math.max(1, channel.size()/chunks));
+		return splitter;
+	}
+	
+	// -1 if there is no root element
+	long getRootTagStart() {
+		return _rootTagStart;
+	}
+	// -1 if the root element is empty or not closed
+	long getContentStart() {
+		return (_contentEnd >= 0 ? _contentStart : -1);
+	}
+	long getContentEnd() {
+		return _contentEnd;
+	}
+	// chunk i is from chunk start i up to chunk start i+1, the last one up to content end. the first one starts at
+	// content start, every other at a record
+	long[] getChunkStarts() {
+		TLongArrayList starts = new TLongArrayList();
+		starts.add(_contentStart);
+		starts.addAll(_recordStarts);
+		return starts.toArray();
+	}
+	
+	private void scan(FileChannel channel, long chunkSize) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BufferSize);
+		int state = Text;
+		int depth = 0;
+		int quote = 0;
+		int brackets = 0;
+		int last = 0;		// last bytes of the current markup, enough to find its end
+		long tagStart = 0;
+		long nextChunk = chunkSize;
+		long position = 0;
+		while(_contentEnd < 0 && channel.read(buffer, position) > 0){
+			buffer.flip();
+			int limit = buffer.limit();
+			for(int i=0; i<limit && _contentEnd < 0; ++i, ++position){
+				int b = buffer.get(i);
+				switch(state){
+				case Text:
+					if(b == '<'){
+						tagStart = position;
+						state = TagOpen;
+					}
+					break;
+				case TagOpen:
+					if(b == '/'){
+						state = EndTag;
+					}else if(b == '!'){
+						state = Bang;
+					}else if(b == '?'){
+						last = 0;
+						state = Instruction;
+					}else{
+						if(depth == 0 && _rootTagStart < 0){
+							_rootTagStart = tagStart;
+						}else if(depth == 1 && tagStart >= nextChunk){
+							_recordStarts.add(tagStart);
+							nextChunk = tagStart + chunkSize;
+						}
+						quote = 0;
+						last = b;
+						state = StartTag;
+					}
+					break;
+				case StartTag:
+					if(quote != 0){
+						if(b == quote){
+							quote = 0;
+						}
+					}else if(b == '"' || b == '\''){
+						quote = b;
+					}else if(b == '>'){
+						if(last != '/'){ // not an empty element
+							if(++depth == 1){
+								_contentStart = position + 1;
+							}
+						}
+						state = Text;
+					}
+					last = b;
+					break;
+				case EndTag:
+					if(b == '>'){
+						if(--depth == 0){
+							_contentEnd = tagStart;
+						}
+						state = Text;
+					}
+					break;
+				case Bang:
+					last = b;
+					state = (b == '-' ? Comment : b == '[' ? CData : Declaration);
+					brackets = 0;
+					quote = 0;
+					break;
+				case Comment:
+					last = (last << 8 | b) & 0xffffff;
+					if(last == ('-' << 16 | '-' << 8 | '>')){
+						state = Text;
+					}
+					break;
+				case CData:
+					last = (last << 8 | b) & 0xffffff;
+					if(last == (']' << 16 | ']' << 8 | '>')){
+						state = Text;
+					}
+					break;
+				case Declaration:
+					if(quote != 0){
+						if(b == quote){
+							quote = 0;
+						}
+					}else if(b == '"' || b == '\''){
+						quote = b;
+					}else if(b == '['){
+						++brackets;
+					}else if(b == ']'){
+						--brackets;
+					}else if(b == '>' && brackets == 0){
+						state = Text;
+					}
+					break;
+				case Instruction:
+					last = (last << 8 | b) & 0xffff;
+					if(last == ('?' << 8 | '>')){
+						state = Text;
+					}
+					break;
+				}
+			}
+			buffer.clear();
+		}
+	}
+}
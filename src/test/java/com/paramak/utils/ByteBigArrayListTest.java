@@ -0,0 +1,168 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package com.paramak.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ByteBigArrayListTest {
+	private static final int PageSize = 1 << 12;
+	private static final int Appenders = 4, Readers = 4;
+	private static final int Records = 3000; // per appender
+
+	@TempDir
+	Path _dir;
+
+	private ByteBigArrayList.Config.Builder concurrentPaged(){
+		return ByteBigArrayList.Config.builder().concurrent(true).pageSize(PageSize).memoryBudget(16L*PageSize).evictionBatchSize(2)
+				.backend(() -> new FilePageBackend(_dir.resolve(UUID.randomUUID() + ".swp").toFile(), true));
+	}
+
+	// bytes of record seq of an appender, the first 8 name it so that a record read from the wrong place does not pass
+	private static byte[] record(int appender, int seq){
+		byte[] bytes = new byte[9 + (appender*7919 + seq*104729) % 700]; // up to a sixth of a page, records cross pages
+		for(int i=0; i<8; ++i){
+			bytes[i] = (byte)((((long)appender << 32) | seq) >>> (8*i));
+		}
+		for(int i=8; i<bytes.length; ++i){
+			bytes[i] = (byte)(appender + 31*seq + 7*i);
+		}
+		return bytes;
+	}
+
+	// appenders add records by add() and by allocateSpace() and set(), reserving space with cas and growing the page array
+	// while readers read every record published so far and pages are evicted and faulted back under them
+	@Test
+	void concurrentAppendsAndReadsUnderSmallBudget() throws Exception {
+		for(PageEviction eviction : PageEviction.values()){
+			stress(concurrentPaged().eviction(eviction).build(), true);
+		}
+		stress(concurrentPaged().compression(true).build(), true);
+		stress(ByteBigArrayList.Config.builder().concurrent(true).pageSize(PageSize).storage(PageStorage.DIRECT).build(), false);
+	}
+	private void stress(ByteBigArrayList.Config config, boolean paged) throws Exception {
+		long[][] positions = new long[Appenders][Records];
+		AtomicIntegerArray published = new AtomicIntegerArray(Appenders); // positions before it are set, released by the count
+		AtomicBoolean appending = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(Appenders + Readers);
+		try(ByteBigArrayList list = new ByteBigArrayList(config)){
+			List<Future<?>> appenders = new ArrayList<>();
+			for(int a=0; a<Appenders; ++a){
+				int appender = a;
+				appenders.add(executor.submit(() -> {
+					for(int seq=0; seq<Records; ++seq){
+						byte[] bytes = record(appender, seq);
+						long position;
+						if(seq % 2 == 0){
+							position = list.add(bytes);
+						}else{
+							position = list.allocateSpace(bytes.length);
+							list.set(position, bytes, 0, bytes.length);
+						}
+						positions[appender][seq] = position;
+						published.set(appender, seq + 1);
+					}
+					return null;
+				}));
+			}
+			List<Future<?>> readers = new ArrayList<>();
+			for(int r=0; r<Readers; ++r){
+				Random random = new Random(r);
+				readers.add(executor.submit(() -> {
+					int reads = 0;
+					while(appending.get() || reads < 1000){ // on few cores appenders may be done before a reader gets to run
+						int appender = random.nextInt(Appenders);
+						int count = published.get(appender);
+						if(count > 0){
+							int seq = (random.nextBoolean() ? count - 1 : random.nextInt(count)); // newest records are on the pages being grown
+							byte[] expected = record(appender, seq);
+							assertArrayEquals(expected, list.toArray(positions[appender][seq], expected.length), appender + "/" + seq);
+							++reads;
+						}
+					}
+					return null;
+				}));
+			}
+			try{
+				for(Future<?> appender : appenders){
+					appender.get();
+				}
+			}finally{
+				appending.set(false);
+			}
+			for(Future<?> reader : readers){
+				reader.get(); // throws what a reader found
+			}
+			long bytes = 0;
+			for(int appender=0; appender<Appenders; ++appender){
+				for(int seq=0; seq<Records; ++seq){
+					byte[] expected = record(appender, seq);
+					assertArrayEquals(expected, list.toArray(positions[appender][seq], expected.length), appender + "/" + seq);
+					bytes += expected.length;
+				}
+			}
+			assertEquals(bytes, list.size(), "reserved ranges do not overlap or leave gaps");
+			if(paged){
+				PagingStats stats = list.getPagingStats();
+				assertTrue(stats.getEvictions() > list.size()/PageSize, stats.toString());
+				assertTrue(stats.getMisses() > 0, stats.toString());
+			}
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	// space reserved after truncate() reads as zeros, like space on new pages, also where the page was swapped out
+	@Test
+	void truncatedSpaceIsReservedZeroed() throws IOException {
+		ByteBigArrayList.Config[] configs = {concurrentPaged().concurrent(false).build(), concurrentPaged().build()
+				, ByteBigArrayList.Config.builder().pageSize(PageSize).storage(PageStorage.DIRECT).build()};
+		for(ByteBigArrayList.Config config : configs){
+			try(ByteBigArrayList list = new ByteBigArrayList(config)){
+				byte[] ones = new byte[40*PageSize];
+				Arrays.fill(ones, (byte)1);
+				list.add(ones);
+				list.truncate(PageSize + 100);
+				list.add(ones, 0, PageSize); // pages from the truncated part are evicted again
+				list.truncate(3*PageSize/2);
+				long position = list.allocateSpace(30*PageSize);
+				assertEquals(3*PageSize/2, position);
+				byte[] reserved = list.toArray(position, 30*PageSize);
+				assertArrayEquals(new byte[reserved.length], reserved, config.getStorage().toString());
+				assertEquals(1, list.get(3*PageSize/2 - 1));
+			}
+		}
+	}
+}
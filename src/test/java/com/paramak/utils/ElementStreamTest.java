@@ -0,0 +1,117 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package com.paramak.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// elements() and its splits against the descendant iterator, on random trees of a few tag names
+class ElementStreamTest {
+	@TempDir
+	static Path _dir;
+	static Path _xml;
+
+	@BeforeAll
+	static void writeDocument() throws IOException {
+		_xml = RandomDocuments.write(_dir.resolve("elements.xml"), 5, 20000, 4, 4);
+	}
+
+	@Test
+	void streamsMatchDescendantIterator() throws IOException {
+		assertStreams(false);
+	}
+	@Test
+	void streamsMatchDescendantIteratorWithIndex() throws IOException {
+		assertStreams(true);
+	}
+	private static void assertStreams(boolean index) throws IOException {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(_xml.toString());
+			doc.setElementIndexEnabled(index);
+			long[] contexts = {0, doc.compile("/root/a").selectFirst(0), doc.compile("/root/*[100]").selectFirst(0)};
+			for(long context : contexts){
+				for(String tag : new String[]{null, "a", "c", "root", "zz"}){
+					long[] expected = descendants(doc, tag, context);
+					String message = "tag " + tag + " context " + context;
+					assertArrayEquals(expected, doc.elements(tag, context, false).toArray(), message);
+					assertArrayEquals(expected, doc.elements(tag, context, true).toArray(), message);
+					assertEquals(expected.length, doc.elements(tag, context, true).count(), message);
+				}
+			}
+		}
+	}
+	// null for every element, in document order
+	private static long[] descendants(OurXMLDoc doc, String tag, long context) throws IOException {
+		List<Long> handles = new ArrayList<>();
+		for(String name : (tag != null ? new String[]{tag} : new String[]{"root", "a", "b", "c", "d"})){
+			OurXMLDoc.DescendantIterator iterator = doc.getDescendantIterator(name, context);
+			while(iterator.next()){
+				handles.add(iterator.getCurrentHandle());
+			}
+		}
+		long[] sorted = handles.stream().mapToLong(Long::longValue).toArray();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	// splits of splits cover every element once and in document order, each split before the rest it came from
+	@Test
+	void splitsCoverEveryElementInOrder() throws IOException {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(_xml.toString());
+			for(boolean index : new boolean[]{false, true}){
+				doc.setElementIndexEnabled(index);
+				for(String tag : new String[]{null, "a"}){
+					long[] expected = doc.elements(tag, 0, false).toArray();
+					List<Spliterator.OfLong> parts = new ArrayList<>(List.of(doc.elementSpliterator(tag, 0)));
+					for(int round=0; round<6; ++round){
+						List<Spliterator.OfLong> next = new ArrayList<>();
+						for(Spliterator.OfLong part : parts){
+							Spliterator.OfLong prefix = part.trySplit();
+							if(prefix != null){
+								next.add(prefix);
+							}
+							next.add(part);
+						}
+						parts = next;
+					}
+					assertTrue(parts.size() > 16, "index " + index + " tag " + tag + " splits");
+					long[] all = new long[expected.length];
+					int[] count = {0};
+					for(Spliterator.OfLong part : parts){
+						part.forEachRemaining((long handle) -> all[count[0]++] = handle);
+					}
+					assertEquals(expected.length, count[0]);
+					assertArrayEquals(expected, all, "index " + index + " tag " + tag);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package com.paramak.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class Lz4CodecTest {
+	private static final int PageSize = 1 << 16;
+
+	@TempDir
+	Path _swapDir;
+
+	// worst case of lz4 for data which does not compress
+	private static int maxCompressedLength(int length){
+		return length + length/255 + 16;
+	}
+	private static byte[] roundTrip(byte[] data) throws IOException {
+		byte[] compressed = new byte[maxCompressedLength(data.length)];
+		int compressedLength = Lz4Codec.compress(data, data.length, compressed, compressed.length);
+		assertTrue(compressedLength >= 0);
+		byte[] restored = new byte[data.length];
+		Lz4Codec.decompress(compressed, compressedLength, restored, data.length);
+		assertArrayEquals(data, restored);
+		return Arrays.copyOf(compressed, compressedLength);
+	}
+	// words of a small vocabulary, like the text of a document
+	private static byte[] text(Random random, int length){
+		byte[] data = new byte[length];
+		for(int i=0; i<length; ){
+			byte[] word = ("word" + random.nextInt(300) + (random.nextInt(8) == 0 ? "\n" : " ")).getBytes();
+			int count = Math.min(word.length, length - i);
+			System.arraycopy(word, 0, data, i, count);
+			i += count;
+		}
+		return data;
+	}
+	private static byte[] randomBytes(Random random, int length){
+		byte[] data = new byte[length];
+		random.nextBytes(data);
+		return data;
+	}
+
+	@Test
+	void roundTripsText(){
+		Random random = new Random(1);
+		for(int length : new int[]{PageSize, 4096}){
+			byte[] data = text(random, length);
+			byte[] compressed = assertRoundTrip(data);
+			assertTrue(compressed.length < length/2, "text compresses");
+		}
+		assertRoundTrip(text(random, 1000));
+		assertRoundTrip(text(random, 100));
+	}
+
+	@Test
+	void roundTripsZeros() throws IOException {
+		byte[] data = new byte[PageSize];
+		byte[] compressed = roundTrip(data);
+		assertTrue(compressed.length < 300, "one long match");
+	}
+
+	@Test
+	void roundTripsIncompressible() throws IOException {
+		byte[] data = randomBytes(new Random(2), PageSize);
+		roundTrip(data);
+		// what a swapped page asks for: at least one block saved, else it is stored as it is
+		assertEquals(-1, Lz4Codec.compress(data, data.length, new byte[PageSize], PageSize - SwapSpace.BlockSize));
+	}
+
+	@Test
+	void roundTripsShortAndBoundaryLengths() throws IOException {
+		Random random = new Random(3);
+		for(int length=0; length<=64; ++length){
+			roundTrip(new byte[length]);
+			roundTrip(randomBytes(random, length));
+			roundTrip(text(random, length));
+		}
+		for(int length : new int[]{PageSize - 1, PageSize + 1, 255 + 15, 255 + 15 + 4, 2*255 + 19}){
+			roundTrip(new byte[length]);
+			roundTrip(text(random, length));
+		}
+	}
+
+	// a block repeated at the largest offset the format has and just beyond it, zeros in between
+	@Test
+	void roundTripsMatchesAtMaxOffset() throws IOException {
+		Random random = new Random(4);
+		for(int distance : new int[]{0xffff - 1, 0xffff, 0x10000, 0x10001}){
+			byte[] data = new byte[distance + 4096];
+			byte[] block = randomBytes(random, 4096);
+			System.arraycopy(block, 0, data, 0, block.length);
+			System.arraycopy(block, 0, data, distance, block.length);
+			byte[] compressed = roundTrip(data);
+			if(distance <= 0xffff){
+				assertTrue(compressed.length < 2*block.length, "repeat is found");
+			}
+		}
+	}
+
+	// overlapping matches: a run of a short pattern refers to the bytes it is copying
+	@Test
+	void roundTripsRepeatedPatterns() throws IOException {
+		for(int period=1; period<=17; ++period){
+			byte[] data = new byte[PageSize];
+			for(int i=0; i<data.length; ++i){
+				data[i] = (byte)(i % period);
+			}
+			roundTrip(data);
+		}
+	}
+
+	@Test
+	void rejectsCorruptInput() throws IOException {
+		byte[] data = text(new Random(5), 4096);
+		byte[] compressed = roundTrip(data);
+		assertThrows(IOException.class, () -> Lz4Codec.decompress(compressed, compressed.length - 3, new byte[data.length], data.length));
+		assertThrows(IOException.class, () -> Lz4Codec.decompress(compressed, compressed.length, new byte[data.length], data.length - 1));
+		byte[] backReference = {0x04, 'a', 'b', 'c', 'd', 0x10, 0x00}; // 4 literals, match at offset 16
+		assertThrows(IOException.class, () -> Lz4Codec.decompress(backReference, backReference.length, new byte[8], 8));
+	}
+
+	// pages of a list with a small budget are swapped out compressed and read back
+	@Test
+	void compressedPagesAreSwappedAndFaultedIn() throws IOException {
+		int pageSize = 8192, pages = 64;
+		ByteBigArrayList.Config config = ByteBigArrayList.Config.builder().pageSize(pageSize).memoryBudget(4L*pageSize)
+				.evictionBatchSize(1).writeBehindWatermark(0).compression(true)
+				.backend(() -> new FilePageBackend(_swapDir.resolve("swap").toFile(), true)).build();
+		Random random = new Random(6);
+		byte[] expected = new byte[pages*pageSize];
+		for(int page=0; page<pages; ++page){ // every fourth page does not compress and is stored raw
+			byte[] data = (page % 4 == 3 ? randomBytes(random, pageSize) : (page % 4 == 2 ? new byte[pageSize] : text(random, pageSize)));
+			System.arraycopy(data, 0, expected, page*pageSize, pageSize);
+		}
+		try(ByteBigArrayList list = new ByteBigArrayList(config)){
+			for(int i=0; i<expected.length; i+=1000){
+				list.add(expected, i, Math.min(1000, expected.length - i));
+			}
+			assertList(expected, list);
+			// pages faulted in from a compressed slot, written again and swapped again
+			for(int page=0; page<pages; page+=3){
+				long index = (long)page*pageSize + random.nextInt(pageSize - 8);
+				long value = random.nextLong();
+				list.setLong(index, value);
+				for(int i=0; i<8; ++i){
+					expected[(int)index + i] = (byte)(value >>> (8*i));
+				}
+			}
+			assertList(expected, list);
+			assertList(expected, list);
+			PagingStats stats = list.getPagingStats();
+			assertTrue(stats.getEvictions() > pages, stats.toString());
+			assertTrue(stats.getMisses() > pages, stats.toString());
+			assertTrue(stats.getCompressionRatio() > 1.5, stats.toString());
+		}
+	}
+	private static void assertList(byte[] expected, ByteBigArrayList list){
+		assertEquals(expected.length, list.size());
+		byte[] actual = list.toArray(0, expected.length);
+		assertArrayEquals(expected, actual);
+	}
+
+	private static byte[] assertRoundTrip(byte[] data){
+		try{
+			return roundTrip(data);
+		}catch(IOException e){
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package com.paramak.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class NameDictionaryTest {
+	private static final String[] Names = {"a", "item", "m:price", "caf\u00e9", "\u00fc7", "\u65e5\u672c:\u540d", "x\ud83d\ude00y", "lone\ud800", "\udc00end", ""};
+
+	// the hash of a string is the one of its utf-8 bytes, so both lookups probe the same slots
+	@Test
+	void stringHashEqualsByteHash() {
+		for(String name : Names){
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			assertEquals(NameDictionary.hash(bytes, 0, bytes.length), NameDictionary.hash(name), name);
+		}
+	}
+
+	@Test
+	void namesAreFoundAsStringsAndBytes() {
+		NameDictionary names = new NameDictionary();
+		for(int i=0; i<5000; ++i){
+			for(String name : Names){
+				names.add(name + i);
+			}
+		}
+		assertEquals(5000*Names.length, names.size());
+		byte[] buffer = new byte[64];
+		for(int i=0; i<5000; ++i){
+			for(String name : Names){
+				byte[] bytes = (name + i).getBytes(StandardCharsets.UTF_8);
+				System.arraycopy(bytes, 0, buffer, 3, bytes.length);
+				int ref = names.find(name + i);
+				assertEquals(name + i, names.getName(ref));
+				assertEquals(ref, names.find(buffer, 3, bytes.length));
+				assertEquals(ref, names.add(buffer, 3, bytes.length));
+			}
+		}
+		assertEquals(5000*Names.length, names.size());
+		assertEquals(NameDictionary.NoRef, names.find("missing"));
+	}
+
+	// names added after the size are gone, and a name qualified by one of them is qualified again when it is added
+	@Test
+	void truncateDropsLaterNames() {
+		NameDictionary names = new NameDictionary();
+		for(int i=0; i<300; ++i){
+			names.add("n" + i);
+		}
+		int qualified = names.add("p:local");
+		names.qualify(qualified);
+		assertEquals(303, names.size()); // with the prefix and the local name
+		names.truncate(301);
+		assertEquals(301, names.size());
+		assertEquals(NameDictionary.NoRef, names.find("p"));
+		assertEquals(NameDictionary.NoRef, names.find("local"));
+		assertEquals(qualified, names.find("p:local"));
+		assertEquals(NameDictionary.NoRef, names.getLocal(qualified));
+		assertEquals(qualified, names.addQualified("p:local"));
+		assertEquals("p", names.getName(names.getPrefix(qualified)));
+		assertEquals("local", names.getName(names.getLocal(qualified)));
+		names.truncate(100);
+		assertEquals(NameDictionary.NoRef, names.find("n100"));
+		assertEquals(99, names.find("n99"));
+		assertEquals(100, names.add("n200"));
+	}
+}
@@ -0,0 +1,649 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package com.paramak.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OurXMLDocTest {
+	private static final int PageSize = 1 << 13;
+	private static final long SmallBudget = 32L*PageSize; // a small part of the documents below
+
+	@TempDir
+	Path _dir;
+
+	// store paged by a controller of its own with a swap file in the test directory
+	private ByteBigArrayList.Config smallBudget(){
+		return ByteBigArrayList.Config.builder().pageSize(PageSize).memoryBudget(SmallBudget).evictionBatchSize(4)
+				.backend(() -> new FilePageBackend(_dir.resolve(UUID.randomUUID() + ".swp").toFile(), true)).build();
+	}
+	private static byte[] write(OurXMLDoc doc, XmlOutputMode mode) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		doc.write(out, mode);
+		return out.toByteArray();
+	}
+
+	// parallel load is split into chunks which are parsed into stores of their own, the output has to be the one of the
+	// single threaded load. the budget makes every store swap while the chunks are parsed and moved
+	@Test
+	void parallelLoadUnderSmallBudgetEqualsSequential() throws IOException {
+		Path xml = writeRecords(_dir.resolve("records.xml"), 6L << 20);
+		try(OurXMLDoc sequential = new OurXMLDoc(smallBudget()); OurXMLDoc parallel = new OurXMLDoc(smallBudget())){
+			sequential.loadFile(xml.toString());
+			parallel.loadFile(xml.toString(), 4);
+			byte[] expected = write(sequential, XmlOutputMode.COMPACT);
+			assertTrue(expected.length > (4L << 20), "document is loaded");
+			assertArrayEquals(expected, write(parallel, XmlOutputMode.COMPACT));
+			assertArrayEquals(write(sequential, XmlOutputMode.PRETTY), write(parallel, XmlOutputMode.PRETTY));
+		}
+	}
+
+	// chunks are parsed with the prolog of the document, so the encoding, comments, CDATA and mixed content of the records
+	// have to come out as the single threaded load prints them
+	@Test
+	@SuppressWarnings("deprecation")
+	void parallelLoadPrintsLikeSequential() throws IOException {
+		for(Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1}){
+			Path xml = writeFeed(_dir.resolve("feed-" + charset.name() + ".xml"), charset, 30000);
+			assertTrue(Files.size(xml) > (5L << 20), "document is split into chunks");
+			try(OurXMLDoc sequential = new OurXMLDoc(smallBudget()); OurXMLDoc parallel = new OurXMLDoc(smallBudget())){
+				sequential.loadFile(xml.toString());
+				parallel.loadFile(xml.toString(), 4);
+				StringWriter expected = new StringWriter();
+				sequential.print(new PrintWriter(expected));
+				StringWriter actual = new StringWriter();
+				parallel.print(new PrintWriter(actual));
+				assertTrue(expected.toString().contains("caf\u00e9 4"), charset.name());
+				assertEquals(expected.toString(), actual.toString(), charset.name());
+			}
+		}
+	}
+
+	// a parallel load which fails on a broken record drops what it added, so the single threaded load it falls back to
+	// leaves the document as it leaves a new one
+	@Test
+	void failedParallelLoadIsRolledBack() throws IOException {
+		Path records = writeRecords(_dir.resolve("records.xml"), 6L << 20);
+		String content = Files.readString(records);
+		int broken = content.indexOf("<item id=\"", content.length()*3/4);
+		Path xml = Files.writeString(_dir.resolve("broken.xml"), content.substring(0, broken) + "<item>&undefined;</item>" + content.substring(broken));
+		try(OurXMLDoc sequential = new OurXMLDoc(smallBudget()); OurXMLDoc parallel = new OurXMLDoc(smallBudget())){
+			sequential.loadFile(xml.toString());
+			parallel.loadFile(xml.toString(), 4);
+			assertEquals(sizes(sequential), sizes(parallel));
+		}
+	}
+	// names and store size from getInfo()
+	private static String sizes(OurXMLDoc doc){
+		Matcher matcher = Pattern.compile("(String ref:\\d+)[\\s\\S]*(Object buffer=\\d+)").matcher(doc.getInfo());
+		assertTrue(matcher.find(), doc.getInfo());
+		return matcher.group(1) + " " + matcher.group(2);
+	}
+
+	// the splits of a parallel stream read the store while others fault pages in and evict, with and without the element
+	// index. a store which is single threaded and paged is read by one thread
+	@Test
+	void parallelElementsUnderSmallBudgetEqualSequential() throws IOException {
+		Path xml = writeRecords(_dir.resolve("records.xml"), 4L << 20);
+		for(boolean concurrent : new boolean[]{true, false}){
+			try(OurXMLDoc doc = new OurXMLDoc(smallBudget().toBuilder().concurrent(concurrent).build())){
+				doc.loadFile(xml.toString());
+				assertEquals(concurrent, doc.elements("item", 0, true).isParallel());
+				for(boolean index : new boolean[]{false, true}){
+					doc.setElementIndexEnabled(index);
+					List<String> expected = describeItems(doc, false);
+					assertTrue(expected.size() > 10000, "items are found");
+					for(int run=0; run<3; ++run){
+						assertEquals(expected, describeItems(doc, true), "concurrent " + concurrent + " index " + index);
+					}
+					assertEquals(expected.size(), doc.elements("item", 0, true).count());
+				}
+			}
+		}
+	}
+	// id, category and text of every item
+	private static List<String> describeItems(OurXMLDoc doc, boolean parallel) throws IOException {
+		return doc.elements("item", 0, parallel).mapToObj(item -> {
+			StoredText id = doc.newText(), category = doc.newText();
+			StringBuilder text = new StringBuilder();
+			try{
+				doc.getAttributeValue(item, "id", id);
+				doc.getAttributeValue(item, "category", category);
+				doc.getElementText(item, text);
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+			return id + " " + category + " " + text;
+		}).collect(Collectors.toList());
+	}
+
+	// written, loaded again and written again gives the same bytes in every mode and with both parsers
+	@Test
+	void writeRoundTrips() throws IOException {
+		Path xml = writeRecords(_dir.resolve("records.xml"), 1L << 20);
+		for(XmlOutputMode mode : XmlOutputMode.values()){
+			try(OurXMLDoc doc = new OurXMLDoc(); OurXMLDoc fast = new OurXMLDoc()){
+				doc.loadFile(xml.toString());
+				fast.loadFileFast(xml.toString());
+				byte[] written = write(doc, mode);
+				assertArrayEquals(written, write(fast, mode), mode.name());
+				Path again = Files.write(_dir.resolve("again.xml"), written);
+				try(OurXMLDoc reloaded = new OurXMLDoc(); OurXMLDoc reloadedFast = new OurXMLDoc()){
+					reloaded.loadFile(again.toString());
+					reloadedFast.loadFileFast(again.toString());
+					assertArrayEquals(written, write(reloaded, mode), mode.name());
+					assertArrayEquals(written, write(reloadedFast, mode), mode.name());
+				}
+			}
+		}
+	}
+
+	// declarations by prefix, then attributes by namespace uri (none first) and local name, with prefixes bound on the
+	// element or an ancestor
+	@Test
+	void canonicalAttributeOrder() throws IOException {
+		Path xml = Files.writeString(_dir.resolve("canonical.xml"), "<?xml version=\"1.0\"?>\n"
+				+ "<r xmlns:b=\"http://b\" xmlns:a=\"http://z\" xmlns=\"http://d\" b:x=\"1\" a:y=\"2\" z=\"3\" b:a=\"4\" xml:lang=\"en\">"
+				+ "<c xmlns:a=\"http://0\" a:q=\"5\" q=\"6\" b:q=\"7\"/>text</r>");
+		String expected = "<r xmlns=\"http://d\" xmlns:a=\"http://z\" xmlns:b=\"http://b\" z=\"3\" b:a=\"4\" b:x=\"1\" xml:lang=\"en\" a:y=\"2\">"
+				+ "<c xmlns:a=\"http://0\" q=\"6\" a:q=\"5\" b:q=\"7\"></c>text</r>";
+		try(OurXMLDoc doc = new OurXMLDoc(); OurXMLDoc fast = new OurXMLDoc()){
+			doc.loadFile(xml.toString());
+			fast.loadFileFast(xml.toString());
+			assertEquals(expected, new String(write(doc, XmlOutputMode.CANONICAL), StandardCharsets.UTF_8));
+			assertEquals(expected, new String(write(fast, XmlOutputMode.CANONICAL), StandardCharsets.UTF_8));
+			try(OurXMLDoc copy = doc.copyCompact()){
+				assertEquals(expected, new String(write(copy, XmlOutputMode.CANONICAL), StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	// the handler queries through the element index while the stream keeps some subtrees and drops the others, so the
+	// index is built before a kept subtree is linked and after a dropped one is rewound and its space filled again
+	@Test
+	void streamedSubtreesAreIndexed() throws IOException {
+		StringBuilder xml = new StringBuilder("<feed>");
+		for(int i=0; i<300; ++i){
+			xml.append("<rec id=\"").append(i).append("\"><v>").append(i).append("</v></rec>");
+		}
+		Path path = Files.writeString(_dir.resolve("feed.xml"), xml.append("</feed>"));
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.setElementIndexEnabled(true);
+			StoredText value = doc.newText();
+			int[] kept = {0};
+			doc.streamFile(path.toString(), new String[]{"/rec"}, (pathIndex, handle) -> {
+				assertEquals(kept[0], ids(doc, value).size(), "kept before this one");
+				assertTrue(doc.getAttributeValue(handle, "id", value));
+				boolean keep = Integer.parseInt(value.toString()) % 3 != 0;
+				kept[0] += (keep ? 1 : 0);
+				return keep;
+			});
+			List<String> indexed = ids(doc, value);
+			assertEquals(200, indexed.size());
+			doc.setElementIndexEnabled(false);
+			assertEquals(ids(doc, value), indexed);
+			for(int i=0; i<indexed.size(); ++i){
+				assertEquals(Integer.toString(3*(i/2) + 1 + i%2), indexed.get(i));
+			}
+		}
+	}
+	private static List<String> ids(OurXMLDoc doc, StoredText value) throws IOException {
+		List<String> ids = new ArrayList<>();
+		OurXMLDoc.DescendantIterator iterator = doc.getDescendantIterator("rec", 0);
+		while(iterator.next()){
+			assertTrue(doc.getAttributeValue(iterator.getCurrentHandle(), "id", value));
+			ids.add(value.toString());
+		}
+		return ids;
+	}
+
+	// the byte parser grows its name table while it adds attribute names, each new name has to get its own ref
+	@Test
+	void byteParserGrowsNameTable() throws IOException {
+		StringBuilder xml = new StringBuilder("<r>");
+		for(int i=0; i<600; ++i){
+			xml.append("<e").append(i).append(" a").append(i).append("=\"").append(i).append("\" b").append(i % 3).append("=\"x\"/>");
+		}
+		xml.append("<r2 ").append("c=\"1\" d=\"2\"/></r>");
+		Path path = Files.writeString(_dir.resolve("grow.xml"), xml);
+		try(OurXMLDoc doc = new OurXMLDoc(); OurXMLDoc fast = new OurXMLDoc()){
+			doc.loadFile(path.toString());
+			fast.loadFileFast(path.toString());
+			assertEquals(xml.toString(), new String(write(fast, XmlOutputMode.COMPACT), StandardCharsets.UTF_8).replaceFirst("^<\\?xml[^>]*>\n", ""));
+			assertArrayEquals(write(doc, XmlOutputMode.COMPACT), write(fast, XmlOutputMode.COMPACT));
+			StoredText value = fast.newText();
+			assertTrue(fast.getAttributeValue(fast.getNodeHandle("/e599", 0), "a599", value));
+			assertEquals("599", value.toString());
+		}
+	}
+
+	// more names than the 2 byte name slot of a node holds, by every load, in a snapshot and in a compact copy
+	@Test
+	void manyNames() throws IOException {
+		int records = 120000;
+		Path xml = writeManyNames(_dir.resolve("names.xml"), records);
+		byte[] expected = null;
+		for(int load=0; load<3; ++load){
+			try(OurXMLDoc doc = new OurXMLDoc()){
+				if(load == 0){
+					doc.loadFile(xml.toString());
+				}else if(load == 1){
+					doc.loadFileFast(xml.toString());
+				}else{
+					doc.loadFile(xml.toString(), 4);
+				}
+				assertTrue(doc.getInfo().contains("Large name refs"));
+				byte[] written = write(doc, XmlOutputMode.COMPACT);
+				if(expected == null){
+					expected = written;
+					assertEquals(new String(Files.readAllBytes(xml), StandardCharsets.UTF_8).replace("\n", "").replace("<?xml version=\"1.0\" encoding=\"UTF-8\"?>", ""),
+							new String(written, StandardCharsets.UTF_8).replace("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n", ""));
+				}
+				assertArrayEquals(expected, written, "load " + load);
+				assertNames(doc, records);
+				Path snapshot = _dir.resolve("names.snapshot");
+				doc.save(snapshot);
+				try(OurXMLDoc opened = OurXMLDoc.open(snapshot); OurXMLDoc copy = opened.copyCompact()){
+					assertArrayEquals(expected, write(opened, XmlOutputMode.COMPACT), "snapshot of load " + load);
+					assertNames(opened, records);
+					assertArrayEquals(expected, write(copy, XmlOutputMode.COMPACT), "compact copy of load " + load);
+					assertNames(copy, records);
+				}
+			}
+		}
+	}
+	private static void assertNames(OurXMLDoc doc, int records) throws IOException {
+		StoredText value = doc.newText();
+		long last = doc.getNodeHandle("/rec/f" + (records - 1), 0);
+		assertTrue(doc.getAttributeValue(last, "a" + (records - 1), value));
+		assertEquals("v" + (records - 1), value.toString());
+		OurXMLDoc.DescendantIterator iterator = doc.getDescendantIterator("f" + (records - 5), 0);
+		assertTrue(iterator.next());
+		assertFalse(iterator.next());
+		assertTrue(doc.getText(doc.compile("//f" + (records - 3) + "/@a" + (records - 3)).selectFirst(0), value));
+		assertEquals("v" + (records - 3), value.toString());
+		doc.buildAttributeIndex("a" + (records - 2));
+		assertTrue(doc.getElementByAttribute("a" + (records - 2), "v" + (records - 2)) > 0);
+	}
+
+	// subtrees streamFile drops are rewound, nothing of them stays behind
+	@Test
+	void streamedSubtreesKeepNoLargeRefs() throws IOException {
+		int records = 80000;
+		Path xml = writeManyNames(_dir.resolve("names.xml"), records);
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			int[] matched = {0};
+			doc.streamFile(xml.toString(), new String[]{"/rec"}, (path, handle) -> ++matched[0] < 0);
+			assertEquals(records, matched[0]);
+			assertFalse(doc.getInfo().contains("Large name refs"), doc.getInfo());
+		}
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			int[] matched = {0};
+			doc.streamFile(xml.toString(), new String[]{"/rec"}, (path, handle) -> ++matched[0] > records - 10);
+			byte[] written = write(doc, XmlOutputMode.COMPACT);
+			Path snapshot = _dir.resolve("streamed.snapshot");
+			doc.save(snapshot);
+			try(OurXMLDoc opened = OurXMLDoc.open(snapshot)){
+				assertArrayEquals(written, write(opened, XmlOutputMode.COMPACT));
+			}
+			assertTrue(new String(written, StandardCharsets.UTF_8).contains("<f" + (records - 1) + " a" + (records - 1)));
+		}
+	}
+
+	// an opened snapshot is the document it was saved from, with its attribute index. the store is mapped, not read:
+	// its pages come from the file when they are first touched, and changes stay in memory
+	@Test
+	void snapshotRoundTrips() throws IOException {
+		Path xml = writeRecords(_dir.resolve("records.xml"), 2L << 20);
+		String content = Files.readString(xml);
+		int last = content.lastIndexOf("<name>Item ") + "<name>".length();
+		Files.writeString(xml, content.substring(0, last) + "MARKER-0001 " + content.substring(last));
+		Path snapshot = _dir.resolve("records.snapshot");
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(xml.toString());
+			doc.buildAttributeIndex("category");
+			doc.save(snapshot);
+			byte[] saved = Files.readAllBytes(snapshot);
+			try(OurXMLDoc opened = OurXMLDoc.open(snapshot)){
+				// before the page with the marker is touched, the file changes under the private mapping. linux shows
+				// such changes in pages which are not written, other systems need not
+				int marker = indexOf(saved, "MARKER-0001".getBytes(StandardCharsets.US_ASCII));
+				assertTrue(marker > saved.length/2, "marker is on a page of its own");
+				try(FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)){
+					channel.write(ByteBuffer.wrap("MARKER-0002".getBytes(StandardCharsets.US_ASCII)), marker);
+				}
+				StoredText text = opened.newText();
+				long name = lastName(opened);
+				assertTrue(opened.getText(name, text));
+				if(System.getProperty("os.name").startsWith("Linux")){
+					assertTrue(text.toString().startsWith("MARKER-0002 "), text.toString());
+				}
+				try(FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)){
+					channel.write(ByteBuffer.wrap("MARKER-0001".getBytes(StandardCharsets.US_ASCII)), marker);
+				}
+				
+				for(XmlOutputMode mode : XmlOutputMode.values()){
+					assertArrayEquals(write(doc, mode), write(opened, mode), mode.name());
+				}
+				assertEquals(count(doc.getElementsByAttribute("category", "toys")), count(opened.getElementsByAttribute("category", "toys")));
+				assertTrue(count(opened.getElementsByAttribute("category", "toys")) > 100);
+				// loaded into the mapped store, the last page of which is written copy on write
+				opened.loadFile(xml.toString());
+				assertArrayEquals(write(doc, XmlOutputMode.COMPACT), write(opened, XmlOutputMode.COMPACT));
+			}
+			assertArrayEquals(saved, Files.readAllBytes(snapshot), "file is never written");
+		}
+	}
+	private static long lastName(OurXMLDoc doc) throws IOException {
+		OurXMLDoc.DescendantIterator names = doc.getDescendantIterator("{http://example.com/catalog}name", 0);
+		long last = 0;
+		while(names.next()){
+			last = names.getCurrentHandle();
+		}
+		return last;
+	}
+	private static int count(OurXMLDoc.AttributeValueIterator iterator) throws IOException {
+		int count = 0;
+		while(iterator.next()){
+			++count;
+		}
+		return count;
+	}
+	private static int indexOf(byte[] bytes, byte[] part){
+		for(int i=0; i + part.length <= bytes.length; ++i){
+			if(Arrays.equals(bytes, i, i + part.length, part, 0, part.length)){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// what open() does not take: another file, a newer version and a store cut short
+	@Test
+	void snapshotIsChecked() throws IOException {
+		Path snapshot = _dir.resolve("small.snapshot");
+		Path xml = Files.writeString(_dir.resolve("small.xml"), "<r a=\"1\"><c>text</c></r>");
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(xml.toString());
+			doc.save(snapshot);
+		}
+		byte[] saved = Files.readAllBytes(snapshot);
+		assertEquals(0, saved.length % 4096, "store is padded to whole pages");
+		
+		byte[] newer = saved.clone();
+		ByteBuffer.wrap(newer).putInt(8, ByteBuffer.wrap(saved).getInt(8) + 1);
+		IOException e = assertThrows(IOException.class, () -> OurXMLDoc.open(Files.write(_dir.resolve("newer.snapshot"), newer)));
+		assertTrue(e.getMessage().contains("not supported"), e.getMessage());
+		
+		byte[] other = saved.clone();
+		other[0] = 'X';
+		e = assertThrows(IOException.class, () -> OurXMLDoc.open(Files.write(_dir.resolve("other.snapshot"), other)));
+		assertTrue(e.getMessage().startsWith("Not a document snapshot"), e.getMessage());
+		
+		assertThrows(IOException.class, () -> OurXMLDoc.open(Files.write(_dir.resolve("cut.snapshot"), Arrays.copyOf(saved, saved.length - 100))));
+		assertThrows(IOException.class, () -> OurXMLDoc.open(Files.write(_dir.resolve("header.snapshot"), Arrays.copyOf(saved, 20))));
+		
+		try(OurXMLDoc opened = OurXMLDoc.open(snapshot)){
+			assertEquals("<r a=\"1\"><c>text</c></r>", new String(write(opened, XmlOutputMode.COMPACT), StandardCharsets.UTF_8).replaceFirst("^<\\?xml[^>]*>\n", ""));
+		}
+	}
+
+	// {uri}local matches the namespace an element is in whatever its prefix: the default namespace, one undeclared by
+	// xmlns="", a uri under another prefix and a prefix bound again. plain names are the tag names as written
+	@Test
+	void namespacesAreMatched() throws IOException {
+		Path xml = Files.writeString(_dir.resolve("ns.xml"), "<r xmlns=\"urn:d\" xmlns:p=\"urn:p\"><a id=\"1\"/><p:a id=\"2\"/>"
+				+ "<b xmlns=\"\" id=\"3\"><a id=\"4\"/></b><q:a xmlns:q=\"urn:p\" id=\"5\"/><c xmlns:p=\"urn:other\" id=\"6\"><p:a id=\"7\"/></c>"
+				+ "<p:a id=\"8\"/></r>");
+		Path snapshot = _dir.resolve("ns.snapshot");
+		try(OurXMLDoc doc = new OurXMLDoc(); OurXMLDoc fast = new OurXMLDoc()){
+			doc.loadFile(xml.toString());
+			fast.loadFileFast(xml.toString());
+			doc.save(snapshot);
+			try(OurXMLDoc opened = OurXMLDoc.open(snapshot); OurXMLDoc copy = doc.copyCompact()){
+				for(OurXMLDoc loaded : List.of(doc, fast, opened, copy)){
+					for(boolean indexed : new boolean[]{false, true}){
+						loaded.setElementIndexEnabled(indexed);
+						assertNamespaces(loaded);
+					}
+				}
+			}
+		}
+	}
+	private static void assertNamespaces(OurXMLDoc doc) throws IOException {
+		StoredText id = doc.newText();
+		assertEquals("1", handleId(doc, "/{urn:d}a", id));
+		assertEquals("2", handleId(doc, "/{urn:p}a", id));
+		assertEquals("3", handleId(doc, "/{}b", id));
+		assertEquals("4", handleId(doc, "/{}b/{}a", id));
+		assertEquals("7", handleId(doc, "/{urn:d}c/{urn:other}a", id));
+		assertEquals("1", handleId(doc, "/a", id));
+		assertEquals("7", handleId(doc, "/c/p:a", id));
+		assertEquals(0, doc.getNodeHandle("/{urn:unknown}a", 0));
+		assertEquals(0, doc.getNodeHandle("/{urn:d}b", 0));
+		
+		assertEquals(List.of("2", "5", "8"), nodeIds(doc, "/{urn:d}r/{urn:p}a", id));
+		assertEquals(List.of("1"), nodeIds(doc, "/{urn:d}r/{urn:d}a", id));
+		assertEquals(List.of("4"), nodeIds(doc, "/r/b/{}a", id));
+		assertEquals(List.of(), nodeIds(doc, "/{}r/a", id));
+		assertEquals(List.of("2", "8"), nodeIds(doc, "/r/p:a", id));
+		
+		assertEquals(List.of("2", "5", "8"), descendantIds(doc, "{urn:p}a", id));
+		assertEquals(List.of("7"), descendantIds(doc, "{urn:other}a", id));
+		assertEquals(List.of("4"), descendantIds(doc, "{}a", id));
+		assertEquals(List.of("1"), descendantIds(doc, "{urn:d}a", id));
+		assertEquals(List.of("1", "4"), descendantIds(doc, "a", id));
+		assertEquals(List.of("2", "7", "8"), descendantIds(doc, "p:a", id));
+		assertEquals(List.of(), descendantIds(doc, "{urn:unknown}a", id));
+	}
+	private static String handleId(OurXMLDoc doc, String xpath, StoredText id) throws IOException {
+		long handle = doc.getNodeHandle(xpath, 0);
+		assertTrue(handle > 0, xpath);
+		assertTrue(doc.getAttributeValue(handle, "id", id));
+		return id.toString();
+	}
+	private static List<String> nodeIds(OurXMLDoc doc, String xpath, StoredText id) throws IOException {
+		List<String> ids = new ArrayList<>();
+		OurXMLDoc.NodeIterator iterator = doc.getNodeListIterator(xpath, 0);
+		while(iterator.next()){
+			assertTrue(doc.getAttributeValue(iterator.getCurrentHandle(), "id", id));
+			ids.add(id.toString());
+		}
+		return ids;
+	}
+	private static List<String> descendantIds(OurXMLDoc doc, String tagName, StoredText id) throws IOException {
+		List<String> ids = new ArrayList<>();
+		OurXMLDoc.DescendantIterator iterator = doc.getDescendantIterator(tagName, 0);
+		while(iterator.next()){
+			assertTrue(doc.getAttributeValue(iterator.getCurrentHandle(), "id", id));
+			ids.add(id.toString());
+		}
+		return ids;
+	}
+
+	// the compact copy of a document with every shape of node: with and without attributes, children, a namespace and a
+	// next sibling, values around the var int steps, refs past one byte and a subtree so large that a header does not fit
+	// in the 8 bytes the decoders read. repeated values of a deduplicating store are shared
+	@Test
+	void compactCopyDecodesEveryNode() throws IOException {
+		Path xml = writeShapes(_dir.resolve("shapes.xml"));
+		for(boolean dedup : new boolean[]{false, true}){
+			try(OurXMLDoc doc = new OurXMLDoc(ByteBigArrayList.Config.defaults(), dedup)){
+				doc.loadFile(xml.toString());
+				try(OurXMLDoc copy = doc.copyCompact()){
+					assertTrue(storeSize(copy) < storeSize(doc)*3/4, storeSize(copy) + " of " + storeSize(doc));
+					for(XmlOutputMode mode : XmlOutputMode.values()){
+						assertArrayEquals(write(doc, mode), write(copy, mode), mode.name());
+					}
+					StoredText text = copy.newText();
+					for(int length : new int[]{1, 127, 128, 16383, 16384, 70000}){
+						long handle = copy.getNodeHandle("/lengths/t" + length, 0);
+						assertTrue(copy.getText(handle, text));
+						assertEquals(length, text.toString().length());
+						assertTrue(copy.getAttributeValue(handle, "v", text));
+						assertEquals(length, text.toString().length());
+					}
+					long big = copy.getNodeHandle("/{urn:n}big", 0);
+					assertTrue(copy.getAttributeValue(big, "name199", text));
+					assertEquals("last", text.toString());
+					assertTrue(copy.getText(copy.getNodeHandle("/{urn:n}big/row", 0), text));
+					assertEquals("row 0", text.toString());
+					assertTrue(copy.getAttributeValue(copy.getNodeHandle("/after", 0), "id", text));
+					assertEquals("after big", text.toString());
+					assertEquals(descendantIds(doc, "name150", text), descendantIds(copy, "name150", text));
+					assertEquals(List.of("0", "1", "2"), descendantIds(copy, "{urn:n}name150", text));
+					assertEquals(countDescendants(doc, "row"), countDescendants(copy, "row"));
+				}
+			}
+		}
+	}
+	private static long storeSize(OurXMLDoc doc){
+		Matcher matcher = Pattern.compile("Object buffer=(\\d+)").matcher(doc.getInfo());
+		assertTrue(matcher.find(), doc.getInfo());
+		return Long.parseLong(matcher.group(1));
+	}
+	private static int countDescendants(OurXMLDoc doc, String tagName) throws IOException {
+		int count = 0;
+		OurXMLDoc.DescendantIterator iterator = doc.getDescendantIterator(tagName, 0);
+		while(iterator.next()){
+			++count;
+		}
+		return count;
+	}
+	static Path writeShapes(Path path) throws IOException {
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), 1 << 16)){
+			writer.write("<root xmlns:n=\"urn:n\">");
+			writer.write("<empty/><attributes a=\"1\" b=\"2\"/><children><c/><c>x</c></children><both a=\"1\">text<c/>tail</both>");
+			writer.write("<lengths>");
+			for(int length : new int[]{1, 127, 128, 16383, 16384, 70000}){
+				String value = "v".repeat(length);
+				writer.write("<t" + length + " v=\"" + value + "\">" + value + "</t" + length + ">");
+			}
+			writer.write("<last><empty/></last></lengths>");
+			for(int name=0; name<200; ++name){ // refs of more than one byte
+				writer.write("<name" + name + " id=\"" + (name % 3) + "\" attribute" + name + "=\"same\">same</name" + name + ">");
+			}
+			for(int i=0; i<3; ++i){
+				writer.write("<n:name150 id=\"" + i + "\"/>");
+			}
+			writer.write("<n:big");
+			for(int name=0; name<200; ++name){
+				writer.write(" name" + name + "=\"" + (name == 199 ? "last" : "same") + "\"");
+			}
+			writer.write(">");
+			for(int row=0; row<60000; ++row){ // more than 2MB, 4 bytes of var int after a ref and a namespace of 2
+				writer.write("<row>row " + row + "</row><n:row a=\"" + (row % 10) + "\"/>");
+			}
+			writer.write("</n:big><after id=\"after big\"/>");
+			writer.write("</root>\n");
+		}
+		return path;
+	}
+
+	// every record with names of its own, and a few non ascii ones
+	static Path writeManyNames(Path path, int records) throws IOException {
+		try(Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)){
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root>\n");
+			for(int i=0; i<records; ++i){
+				writer.write("<rec><f" + i + " a" + i + "=\"v" + i + "\" common=\"c\">text " + i + " with some padding to get past four megabytes</f"
+						+ i + "><\u00fc" + (i % 7) + ">x</\u00fc" + (i % 7) + "></rec>\n");
+			}
+			writer.write("</root>\n");
+		}
+		return path;
+	}
+
+	// record oriented document of about size bytes: items with attributes, nested elements, entities and namespaces
+	static Path writeRecords(Path path, long size) throws IOException {
+		Random random = new Random(11);
+		String[] categories = {"books", "music", "garden", "toys", "tools"};
+		long written = 0;
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), 1 << 16)){
+			String head = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<catalog xmlns=\"http://example.com/catalog\" xmlns:m=\"http://example.com/money\">\n";
+			writer.write(head);
+			written += head.length();
+			for(int item=0; written < size; ++item){
+				StringBuilder record = new StringBuilder(512);
+				record.append("\t<item id=\"").append(item).append("\" category=\"").append(categories[random.nextInt(categories.length)]).append("\">\n");
+				record.append("\t\t<name>Item ").append(item).append(" &amp; more &lt;").append(random.nextInt(100)).append("&gt;</name>\n");
+				record.append("\t\t<m:price currency=\"EUR\">").append(random.nextInt(100000)/100.0).append("</m:price>\n");
+				record.append("\t\t<details><description>");
+				for(int words=4+random.nextInt(24); words>0; --words){
+					record.append("word").append(random.nextInt(500)).append(' ');
+				}
+				record.append("</description>");
+				if(item % 7 == 0){
+					record.append("<note xmlns=\"\">").append("été €").append(item).append("</note>");
+				}
+				record.append("<stock>").append(random.nextInt(1000)).append("</stock></details>\n\t</item>\n");
+				writer.append(record);
+				written += record.length();
+			}
+			writer.write("</catalog>\n");
+		}
+		return path;
+	}
+
+	// feed in the given encoding with comments between and inside the entries, CDATA sections and mixed content
+	static Path writeFeed(Path path, Charset charset, int entries) throws IOException {
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), charset), 1 << 16)){
+			writer.write("<?xml version=\"1.0\" encoding=\"" + charset.name() + "\"?>\n<!-- feed -->\n<feed>\n");
+			for(int entry=0; entry < entries; ++entry){
+				if(entry % 3 == 0){
+					writer.write("\t<!-- entry " + entry + " -->\n");
+				}
+				writer.write("\t<entry n=\"" + entry + "\" title=\"caf\u00e9 &quot;" + entry + "&quot;\">");
+				writer.write("<body>caf\u00e9 " + entry + " <b>bold &amp; <i>nested</i></b> tail<!-- inner --> end</body>");
+				writer.write("<code><![CDATA[if(a < b && c > d){ <x/> }]]></code>");
+				writer.write("</entry>\n");
+			}
+			writer.write("</feed>\n");
+		}
+		return path;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.paramak.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// random trees of the tag names a to d under a root, for tests which compare queries with another way to get the same
+// nodes. every element has a unique uid attribute, some have k="v0".."v2" and m="x", some texts are between them
+final class RandomDocuments {
+	private RandomDocuments(){
+	}
+
+	// elements subtrees under the root, each at most maxDepth + 2 levels deep and with fewer than maxChildren children
+	static Path write(Path path, long seed, int elements, int maxDepth, int maxChildren) throws IOException {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root uid=\"r\">");
+		Random random = new Random(seed);
+		int[] uid = {0};
+		for(int i=0; i<elements; ++i){
+			appendElement(xml, random, uid, 0, maxDepth, maxChildren);
+		}
+		xml.append("</root>");
+		return Files.writeString(path, xml);
+	}
+	private static void appendElement(StringBuilder xml, Random random, int[] uid, int depth, int maxDepth, int maxChildren){
+		char name = "abcd".charAt(random.nextInt(4));
+		xml.append('<').append(name).append(" uid=\"").append(uid[0]++).append('"');
+		if(random.nextInt(3) == 0){
+			xml.append(" k=\"v").append(random.nextInt(3)).append('"');
+		}
+		if(random.nextInt(4) == 0){
+			xml.append(" m=\"x\"");
+		}
+		xml.append('>');
+		for(int children = (depth > maxDepth ? 0 : random.nextInt(maxChildren)), i=0; i<children; ++i){
+			if(random.nextInt(3) == 0){
+				xml.append('t').append(uid[0]).append('_').append(i);
+			}
+			appendElement(xml, random, uid, depth + 1, maxDepth, maxChildren);
+		}
+		if(random.nextInt(3) == 0){
+			xml.append('e').append(uid[0]);
+		}
+		xml.append("</").append(name).append('>');
+	}
+}
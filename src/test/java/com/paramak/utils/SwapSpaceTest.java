@@ -0,0 +1,131 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package com.paramak.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SwapSpaceTest {
+	private static final int PageSize = 1 << 13;
+	private static final int Pages = 48;
+
+	@TempDir
+	Path _dir;
+
+	private static ByteBigArrayList newList(SwapSpace space, boolean compression){
+		return new ByteBigArrayList(ByteBigArrayList.Config.builder().pageSize(PageSize).memoryBudget(4L*PageSize).evictionBatchSize(1)
+				.writeBehindWatermark(0).compression(compression).swapSpace(space).build());
+	}
+	// text of a small vocabulary, so compressed pages take slots of different lengths
+	private static byte[] content(long seed){
+		Random random = new Random(seed);
+		StringBuilder text = new StringBuilder(Pages*PageSize);
+		while(text.length() < Pages*PageSize){
+			text.append("word").append(random.nextInt(1 + (int)(seed % 5)*200)).append(' ');
+		}
+		return text.substring(0, Pages*PageSize).getBytes();
+	}
+	private static ByteBigArrayList fill(SwapSpace space, boolean compression, byte[] content){
+		ByteBigArrayList list = newList(space, compression);
+		for(int i=0; i<content.length; i+=1000){
+			list.add(content, i, Math.min(1000, content.length - i));
+		}
+		assertEquals(content.length, list.size());
+		return list;
+	}
+
+	// closed lists give their slots back and the next lists are swapped into them from the start of the file, which so
+	// grows only to the most any list has used
+	@Test
+	void closedListsFreeTheirSlots() throws IOException {
+		for(boolean compression : new boolean[]{false, true}){
+			try(SwapSpace space = new SwapSpace(new FilePageBackend(_dir.resolve("reuse-" + compression).toFile(), true))){
+				long mostUsed = 0;
+				for(int round=0; round<5; ++round){
+					byte[] content = content(round);
+					try(ByteBigArrayList list = fill(space, compression, content)){
+						assertArrayEquals(content, list.toArray(0, content.length));
+						assertTrue(space.getUsedBytes() > 0, space.toString());
+						mostUsed = Math.max(mostUsed, space.getUsedBytes());
+						assertEquals(mostUsed, space.getFileBytes(), "round " + round);
+					}
+					assertEquals(0, space.getUsedBytes(), space.toString());
+				}
+			}
+		}
+	}
+
+	// lists on one space are closed in between others, compaction moves the slots of the ones left into the holes and
+	// the file is cut to what is used. the lists still read their data and keep swapping afterwards
+	@Test
+	void compactionFollowsLiveData() throws IOException {
+		for(int backend=0; backend<4; ++backend){
+			boolean compression = (backend % 2 == 1);
+			File file = _dir.resolve("compact-" + backend).toFile();
+			PageBackend pageBackend = (backend < 2 ? new FilePageBackend(file, true) : new MappedPageBackend(file, true, 16));
+			try(SwapSpace space = new SwapSpace(pageBackend)){
+				ByteBigArrayList[] lists = new ByteBigArrayList[6];
+				byte[][] contents = new byte[lists.length][];
+				for(int i=0; i<lists.length; ++i){
+					contents[i] = content(10 + i);
+					lists[i] = fill(space, compression, contents[i]);
+				}
+				long used = space.getUsedBytes();
+				for(int i=0; i<lists.length; i+=2){
+					lists[i].close();
+				}
+				assertTrue(space.getUsedBytes() < used*2/3, space.toString());
+				assertTrue(space.getFileBytes() >= used, space.toString());
+				space.compact();
+				assertEquals(space.getUsedBytes(), space.getFileBytes(), space.toString());
+				assertTrue(file.length() < used, file.length() + " " + space);
+				for(int i=1; i<lists.length; i+=2){
+					assertArrayEquals(contents[i], lists[i].toArray(0, contents[i].length), "list " + i);
+				}
+				// relocated pages are written again and the lists closed later on reload the space
+				for(int i=1; i<lists.length; i+=2){
+					lists[i].setLong(5, 42);
+					contents[i][5] = 42;
+					for(int b=6; b<13; ++b){
+						contents[i][b] = 0;
+					}
+				}
+				for(int i=0; i<lists.length; i+=2){
+					contents[i] = content(20 + i);
+					lists[i] = fill(space, compression, contents[i]);
+				}
+				for(int i=0; i<lists.length; ++i){
+					assertArrayEquals(contents[i], lists[i].toArray(0, contents[i].length), "list " + i);
+					lists[i].close();
+				}
+				assertEquals(0, space.getUsedBytes(), space.toString());
+				space.compact();
+				assertEquals(0, space.getFileBytes(), space.toString());
+			}
+		}
+	}
+}
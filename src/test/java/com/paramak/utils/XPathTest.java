@@ -0,0 +1,166 @@
+/**
+ *    Copyright 2016 Girijesh Kaushik (girijeshk@gmail.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package com.paramak.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+// compiled xpath against javax.xml.xpath on a random document: elements by their uid attribute, attributes and texts by
+// their value
+class XPathTest {
+	private static final String[] Expressions = {"/root", "/root/a", "//a", "//a/b", "//a//b", "/root/*", "//*", "//a[2]", "//a[@k]",
+			"//a[@k='v1']", "//*[@k='v1']", "//b[@k='v0'][1]", "//b[1][@k='v0']", "/root/a[3]/b", "//a/@k", "//@k", "//@*", "//a/text()",
+			"//text()", "/root/*/*[2]", "//c//d/@uid", "//a[@m][@k='v2']", "/root//b", "//zz", "//a[@zz]", "/root/a/b/c/text()", "//a//a",
+			"//*[@uid='57']", "//a[@uid='57']", "/a", "//root"};
+	// results of a step inside a match of the same step follow that match, not document order (see compile()); attributes
+	// of a dom element are ordered by name
+	private static final Set<String> Unordered = Set.of("//a/b", "//a/text()", "//@*");
+
+	@TempDir
+	static Path _dir;
+	static Path _xml;
+	static Document _dom;
+
+	@BeforeAll
+	static void writeDocument() throws Exception {
+		_xml = RandomDocuments.write(_dir.resolve("xpath.xml"), 3, 30, 5, 5);
+		_dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(_xml.toFile());
+	}
+
+	@Test
+	void matchesJavaxXPath() throws Exception {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(_xml.toString());
+			assertExpressions(doc);
+		}
+	}
+	@Test
+	void matchesJavaxXPathWithIndexes() throws Exception {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(_xml.toString());
+			doc.setElementIndexEnabled(true);
+			doc.buildAttributeIndex("k");
+			doc.buildAttributeIndex("uid");
+			assertExpressions(doc);
+		}
+	}
+	@Test
+	void matchesJavaxXPathAfterFastLoad() throws Exception {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFileFast(_xml.toString());
+			assertExpressions(doc);
+		}
+	}
+	@Test
+	void matchesJavaxXPathInCompactCopy() throws Exception {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(_xml.toString());
+			try(OurXMLDoc copy = doc.copyCompact()){
+				assertExpressions(copy);
+			}
+		}
+	}
+
+	private static void assertExpressions(OurXMLDoc doc) throws Exception {
+		javax.xml.xpath.XPath reference = XPathFactory.newInstance().newXPath();
+		for(String xpath : Expressions){
+			List<String> expected = new ArrayList<>();
+			NodeList nodes = (NodeList)reference.evaluate(xpath, _dom, XPathConstants.NODESET);
+			for(int i=0; i<nodes.getLength(); ++i){
+				expected.add(describe(nodes.item(i)));
+			}
+			List<String> actual = select(doc, xpath, 0);
+			if(Unordered.contains(xpath)){
+				Collections.sort(expected);
+				Collections.sort(actual);
+			}
+			assertEquals(expected, actual, xpath);
+		}
+	}
+	private static String describe(Node node){
+		if(node instanceof Element){
+			return "E" + ((Element)node).getAttribute("uid");
+		}
+		return (node instanceof Attr ? "A" : "T") + node.getNodeValue();
+	}
+	private static List<String> select(OurXMLDoc doc, String xpath, long context) throws IOException {
+		String last = xpath.substring(xpath.lastIndexOf('/') + 1);
+		StoredText text = doc.newText();
+		List<String> results = new ArrayList<>();
+		XPathIterator iterator = doc.compile(xpath).iterator(context);
+		while(iterator.next()){
+			long handle = iterator.getCurrentHandle();
+			if(last.startsWith("@") || last.equals("text()")){
+				doc.getText(handle, text);
+				results.add((last.startsWith("@") ? "A" : "T") + text);
+			}else{
+				doc.getAttributeValue(handle, "uid", text);
+				results.add("E" + text);
+			}
+		}
+		return results;
+	}
+
+	// relative path from a context, and the iterator reset to run again
+	@Test
+	void relativePathAndReset() throws Exception {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			doc.loadFile(_xml.toString());
+			long context = doc.compile("/root/a[3]").selectFirst(0);
+			NodeList expected = (NodeList)XPathFactory.newInstance().newXPath().evaluate("/root/a[3]/b//c", _dom, XPathConstants.NODESET);
+			XPathIterator iterator = doc.compile("b//c").iterator(context);
+			for(int run=0; run<2; ++run){
+				int count = 0;
+				while(iterator.next()){
+					++count;
+				}
+				assertEquals(expected.getLength(), count);
+				iterator.reset(context);
+			}
+		}
+	}
+
+	@Test
+	void rejectsUnsupportedExpressions() throws IOException {
+		try(OurXMLDoc doc = new OurXMLDoc()){
+			for(String xpath : new String[]{"", "/", "a[", "a[0]", "@k/b", "text()[1]", "a[@k=v]", "a]"}){
+				assertThrows(IllegalArgumentException.class, () -> doc.compile(xpath), xpath);
+			}
+		}
+	}
+}